@@ -0,0 +1,80 @@
+package com.wp.bt;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.metrics.MetricsSnapshot;
+import com.wp.bt.metrics.PipelineTracer;
+import com.wp.bt.util.AppExecutors;
+import com.wp.bt.util.BtLog;
+
+/**
+ * 诊断信息界面
+ * 每秒刷新一次运行指标、链路延迟、线程池状态和最近日志
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    // 刷新间隔
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private TextView tvDiagnostics;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // 上一次快照, 用于计算每秒速率
+    private MetricsSnapshot previous;
+
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+        toolbar.setNavigationOnClickListener(v -> finish());
+
+        tvDiagnostics = findViewById(R.id.tv_diagnostics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        previous = MetricsRegistry.get().snapshot();
+        handler.post(refreshTask);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refreshTask);
+    }
+
+    private void refresh() {
+        MetricsSnapshot snapshot = MetricsRegistry.get().snapshot();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(snapshot.toText(previous));
+        sb.append("\n[链路延迟]\n").append(PipelineTracer.get().getReport());
+        sb.append("\n[线程池]\n").append(AppExecutors.get().getStatsSummary());
+        sb.append("\n\n[最近日志]\n").append(BtLog.dumpRecent());
+        tvDiagnostics.setText(sb);
+
+        previous = snapshot;
+    }
+}
@@ -6,11 +6,13 @@ import android.bluetooth.BluetoothDevice;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.util.Log;
+import android.os.SystemClock;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ArrayAdapter;
+import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -26,16 +28,46 @@ import androidx.fragment.app.Fragment;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.wp.bt.bluetooth.BluetoothManager;
+import com.wp.bt.bluetooth.DeviceSession;
+import com.wp.bt.bluetooth.DeviceSessionManager;
+import com.wp.bt.bluetooth.HistoryDownloader;
+import com.wp.bt.bluetooth.ScanRegistry;
+import com.wp.bt.bluetooth.ThresholdCommander;
 import com.wp.bt.database.DatabaseHelper;
+import com.wp.bt.database.SensorDataWriter;
+import com.wp.bt.database.ThresholdPresetStore;
 import com.wp.bt.fragment.HistoryFragment;
 import com.wp.bt.fragment.HomeFragment;
+import com.wp.bt.metrics.FrameTrace;
+import com.wp.bt.metrics.Gauge;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.metrics.PipelineTracer;
+import com.wp.bt.metrics.WallClock;
+import com.wp.bt.model.LogChunk;
 import com.wp.bt.model.SensorData;
 import com.wp.bt.model.ThresholdData;
 import com.wp.bt.model.ThresholdItem;
 import com.wp.bt.parser.DataParser;
+import com.wp.bt.protocol.CommandChannel;
+import com.wp.bt.protocol.PayloadCapabilities;
+import com.wp.bt.sim.DeviceSimulator;
+import com.wp.bt.sim.SimulatorConfig;
+import com.wp.bt.util.AppExecutors;
+import com.wp.bt.util.BtLog;
+import com.wp.bt.util.MetricsDumper;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 主Activity
@@ -48,6 +80,15 @@ public class MainActivity extends AppCompatActivity implements
     
     private static final String TAG = "MainActivity";
     
+    // 模拟设备压测报告间隔
+    private static final long SIMULATOR_REPORT_INTERVAL_MS = 5000;
+    
+    // 运行指标导出间隔
+    private static final long METRICS_DUMP_INTERVAL_MS = 60_000;
+    
+    // 启动到第一帧数据的耗时
+    private static final Gauge FIRST_DATA_MS = MetricsRegistry.get().gauge("app.first_data_ms");
+    
     // 蓝牙管理器
     private BluetoothManager bluetoothManager;
     
@@ -57,6 +98,33 @@ public class MainActivity extends AppCompatActivity implements
     // 数据库
     private DatabaseHelper databaseHelper;
     
+    // 所有设备共用的批量写库
+    private SensorDataWriter sensorDataWriter;
+    
+    // 设备历史记录下载 (主连接设备)
+    private HistoryDownloader historyDownloader;
+    
+    // 主连接设备的阈值指令下发
+    private ThresholdCommander thresholdCommander;
+    
+    // 阈值方案
+    private ThresholdPresetStore presetStore;
+    
+    // 实时调节中的阈值: 拖动中为 null，松手后为最终值，只提示最终值的结果
+    private final Map<String, Integer> liveThresholds = new HashMap<>();
+    
+    // 附加设备会话 (多设备同时连接)
+    private DeviceSessionManager sessionManager;
+    
+    // 主页显示的设备，为 null 时显示所有设备的数据
+    private String selectedDeviceId;
+    
+    // 运行指标定时导出
+    private MetricsDumper metricsDumper;
+    
+    // 启动时间 (System.nanoTime)，收到第一帧后清零
+    private long launchNanos;
+    
     // Fragment
     private HomeFragment homeFragment;
     private HistoryFragment historyFragment;
@@ -69,12 +137,47 @@ public class MainActivity extends AppCompatActivity implements
     
     // 设备列表对话框
     private AlertDialog deviceDialog;
-    private List<BluetoothDevice> discoveredDevices;
     private ArrayAdapter<String> deviceAdapter;
     
+    // 扫描结果，按地址去重
+    private final ScanRegistry scanRegistry = new ScanRegistry();
+    // 对话框中当前显示的设备，与 deviceAdapter 的顺序一致
+    private List<ScanRegistry.ScannedDevice> listedDevices = new ArrayList<>();
+    
+    // 扫描时长
+    private static final long SCAN_DURATION_MS = 10000;
+    // 扫描结果列表的最短刷新间隔，期间的发现合并为一次刷新
+    private static final long DEVICE_LIST_REFRESH_MS = 300;
+    
+    private final android.os.Handler scanHandler = new android.os.Handler();
+    private boolean deviceListRefreshPending;
+    private final Runnable deviceListRefreshTask = this::refreshDeviceList;
+    private final Runnable stopScanTask = () -> bluetoothManager.stopScan();
+    
+    // 模拟设备压测报告
+    private final android.os.Handler reportHandler = new android.os.Handler();
+    private final Runnable simulatorReportTask = new Runnable() {
+        @Override
+        public void run() {
+            DeviceSimulator simulator = bluetoothManager.getSimulator();
+            if (simulator == null) {
+                return;
+            }
+            // 处理完成数以界面刷新完成的帧数为准，即整条链路的吞吐
+            long processed = PipelineTracer.get()
+                    .getHistogram(PipelineTracer.Stage.END_TO_END).getCount();
+            BtLog.i(TAG, "模拟设备压测: {}", simulator.getSummary(processed));
+            BtLog.d(TAG, () -> "链路延迟统计:\n" + PipelineTracer.get().getReport());
+            reportHandler.postDelayed(this, SIMULATOR_REPORT_INTERVAL_MS);
+        }
+    };
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        launchNanos = System.nanoTime();
+        // 到达时间换算为系统时间时补上深度休眠的时长
+        WallClock.setSuspendClock(SystemClock::elapsedRealtimeNanos);
         EdgeToEdge.enable(this);
         setContentView(R.layout.activity_main);
         
@@ -88,6 +191,10 @@ public class MainActivity extends AppCompatActivity implements
         initViews();
         initFragments();
         checkBluetoothAndPermissions();
+        
+        // 运行指标定时导出到 files/metrics
+        metricsDumper = new MetricsDumper(new File(getFilesDir(), "metrics"), METRICS_DUMP_INTERVAL_MS);
+        metricsDumper.start();
     }
     
     /**
@@ -97,6 +204,9 @@ public class MainActivity extends AppCompatActivity implements
         // 蓝牙管理器
         bluetoothManager = new BluetoothManager(this);
         bluetoothManager.setCallback(this);
+        thresholdCommander = new ThresholdCommander(bluetoothManager::sendData);
+        thresholdCommander.setListener(commandListener);
+        presetStore = new ThresholdPresetStore(this);
         
         // 数据解析器
         dataParser = new DataParser();
@@ -104,9 +214,13 @@ public class MainActivity extends AppCompatActivity implements
         
         // 数据库
         databaseHelper = DatabaseHelper.getInstance(this);
+        databaseHelper.startBackgroundMigration();
+        sensorDataWriter = new SensorDataWriter(databaseHelper);
+        historyDownloader = new HistoryDownloader(bluetoothManager, databaseHelper);
+        historyDownloader.setListener(historyListener);
         
-        // 设备列表
-        discoveredDevices = new ArrayList<>();
+        // 附加设备会话
+        sessionManager = new DeviceSessionManager(this, sensorDataWriter, sessionListener);
     }
     
     /**
@@ -179,6 +293,20 @@ public class MainActivity extends AppCompatActivity implements
         
         if (!bluetoothManager.isBluetoothEnabled()) {
             bluetoothManager.requestEnableBluetooth(this);
+        } else {
+            connectLastDeviceOrSelect();
+        }
+    }
+    
+    /**
+     * 有上次连接的已配对设备时直接在后台连接，否则弹出设备选择
+     */
+    private void connectLastDeviceOrSelect() {
+        if (bluetoothManager.connectLastDevice()) {
+            showProgress(true);
+            String name = bluetoothManager.getLastDeviceName();
+            Toast.makeText(this, "正在连接: " + (name != null ? name : "上次的设备"),
+                    Toast.LENGTH_SHORT).show();
         } else {
             showDeviceSelectionDialog();
         }
@@ -202,7 +330,7 @@ public class MainActivity extends AppCompatActivity implements
                 if (!bluetoothManager.isBluetoothEnabled()) {
                     bluetoothManager.requestEnableBluetooth(this);
                 } else {
-                    showDeviceSelectionDialog();
+                    connectLastDeviceOrSelect();
                 }
             } else {
                 Toast.makeText(this, "需要蓝牙权限才能使用此功能", Toast.LENGTH_LONG).show();
@@ -216,7 +344,7 @@ public class MainActivity extends AppCompatActivity implements
         
         if (requestCode == BluetoothManager.REQUEST_ENABLE_BT) {
             if (resultCode == RESULT_OK) {
-                showDeviceSelectionDialog();
+                connectLastDeviceOrSelect();
             } else {
                 Toast.makeText(this, "需要启用蓝牙才能使用此功能", Toast.LENGTH_LONG).show();
             }
@@ -228,52 +356,167 @@ public class MainActivity extends AppCompatActivity implements
      */
     @SuppressLint("MissingPermission")
     private void showDeviceSelectionDialog() {
-        discoveredDevices.clear();
-        
-        // 获取已配对设备
-        List<BluetoothDevice> pairedDevices = bluetoothManager.getPairedDevices();
-        discoveredDevices.addAll(pairedDevices);
-        
-        // 创建设备名称列表
-        List<String> deviceNames = new ArrayList<>();
-        for (BluetoothDevice device : discoveredDevices) {
-            String name = device.getName();
-            if (name == null || name.isEmpty()) {
-                name = "未知设备";
-            }
-            deviceNames.add(name + "\n" + device.getAddress());
+        showDeviceSelectionDialog(false);
+    }
+    
+    /**
+     * 显示设备选择对话框
+     * 列表为已配对设备和本次扫描结果，按信号强度排序；扫描期间对话框内容实时刷新
+     * @param addSession true 时选中的设备作为附加会话连接，不断开当前设备
+     */
+    @SuppressLint("MissingPermission")
+    private void showDeviceSelectionDialog(boolean addSession) {
+        // 已配对设备也加入登记表，没有信号强度的排在扫描到的设备之后
+        for (BluetoothDevice device : bluetoothManager.getPairedDevices()) {
+            scanRegistry.update(device, ScanRegistry.RSSI_UNKNOWN);
+        }
+        
+        if (deviceDialog != null && deviceDialog.isShowing()) {
+            refreshDeviceList();
+            return;
         }
         
         deviceAdapter = new ArrayAdapter<>(this, 
-                android.R.layout.simple_list_item_1, deviceNames);
+                android.R.layout.simple_list_item_1, new ArrayList<>());
+        deviceAdapter.setNotifyOnChange(false);
+        refreshDeviceList();
         
+        boolean filtered = scanRegistry.getNameFilter() != null || scanRegistry.getServiceFilter() != null;
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
-        builder.setTitle("选择蓝牙设备");
+        builder.setTitle((addSession ? "添加设备" : "选择蓝牙设备") + (filtered ? " (已过滤)" : ""));
         builder.setAdapter(deviceAdapter, (dialog, which) -> {
-            BluetoothDevice device = discoveredDevices.get(which);
-            connectToDevice(device);
-        });
-        builder.setNegativeButton("扫描新设备", (dialog, which) -> {
-            startScan();
+            BluetoothDevice device = listedDevices.get(which).getDevice();
+            if (addSession) {
+                addDeviceSession(device);
+            } else {
+                connectToDevice(device);
+            }
         });
-        builder.setNeutralButton("取消", null);
+        // 点击处理在对话框显示后设置，扫描时对话框保持打开，结果在其中实时刷新
+        builder.setNegativeButton("扫描新设备", null);
+        builder.setNeutralButton("过滤", (dialog, which) -> showScanFilterDialog(addSession));
+        builder.setPositiveButton("取消", null);
         
-        deviceDialog = builder.create();
+        AlertDialog dialog = builder.create();
+        dialog.setOnShowListener(d -> dialog.getButton(AlertDialog.BUTTON_NEGATIVE)
+                .setOnClickListener(v -> startScan(addSession)));
+        deviceDialog = dialog;
         deviceDialog.show();
     }
     
     /**
-     * 开始扫描设备
+     * 扫描结果过滤设置，确定后以原来的模式重新打开设备选择对话框
+     */
+    private void showScanFilterDialog(boolean addSession) {
+        View view = getLayoutInflater().inflate(R.layout.dialog_scan_filter, null);
+        EditText etName = view.findViewById(R.id.et_scan_name_filter);
+        CheckBox cbSppOnly = view.findViewById(R.id.cb_scan_spp_only);
+        etName.setText(scanRegistry.getNameFilter());
+        cbSppOnly.setChecked(scanRegistry.getServiceFilter() != null);
+        
+        new AlertDialog.Builder(this)
+                .setTitle("过滤设备")
+                .setView(view)
+                .setPositiveButton("确定", (dialog, which) -> {
+                    scanRegistry.setNameFilter(etName.getText().toString());
+                    scanRegistry.setServiceFilter(cbSppOnly.isChecked() ? BluetoothManager.SPP_UUID : null);
+                    showDeviceSelectionDialog(addSession);
+                })
+                .setNeutralButton("清除", (dialog, which) -> {
+                    scanRegistry.setNameFilter(null);
+                    scanRegistry.setServiceFilter(null);
+                    showDeviceSelectionDialog(addSession);
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+    
+    /**
+     * 用登记表的当前内容刷新设备列表
      */
-    private void startScan() {
+    private void refreshDeviceList() {
+        scanHandler.removeCallbacks(deviceListRefreshTask);
+        deviceListRefreshPending = false;
+        if (deviceAdapter == null) {
+            return;
+        }
+        listedDevices = scanRegistry.getSortedDevices();
+        deviceAdapter.clear();
+        for (ScanRegistry.ScannedDevice device : listedDevices) {
+            deviceAdapter.add(device.getLabel());
+        }
+        deviceAdapter.notifyDataSetChanged();
+    }
+    
+    /**
+     * 合并短时间内的多次刷新请求
+     */
+    private void scheduleDeviceListRefresh() {
+        if (!deviceListRefreshPending) {
+            deviceListRefreshPending = true;
+            scanHandler.postDelayed(deviceListRefreshTask, DEVICE_LIST_REFRESH_MS);
+        }
+    }
+    
+    /**
+     * 开始扫描设备，扫描结果在设备选择对话框中实时显示
+     * @param addSession 设备选择对话框是否为添加附加设备
+     */
+    private void startScan(boolean addSession) {
         showProgress(true);
         Toast.makeText(this, "正在扫描蓝牙设备...", Toast.LENGTH_SHORT).show();
+        scanRegistry.clear();
         bluetoothManager.startScan();
+        showDeviceSelectionDialog(addSession);
         
-        // 10秒后自动停止扫描
-        new android.os.Handler().postDelayed(() -> {
-            bluetoothManager.stopScan();
-        }, 10000);
+        // 扫描一段时间后自动停止
+        scanHandler.removeCallbacks(stopScanTask);
+        scanHandler.postDelayed(stopScanTask, SCAN_DURATION_MS);
+    }
+    
+    /**
+     * 添加附加设备会话
+     */
+    @SuppressLint("MissingPermission")
+    private void addDeviceSession(BluetoothDevice device) {
+        if (device.getAddress().equals(bluetoothManager.getDeviceId())
+                || sessionManager.contains(device.getAddress())) {
+            Toast.makeText(this, "该设备已连接", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        showProgress(true);
+        sessionManager.open(device);
+    }
+    
+    /**
+     * 选择主页和历史页面显示的设备
+     */
+    private void showDeviceFilterDialog() {
+        List<String> ids = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        ids.add(null);
+        labels.add("全部设备");
+        String primaryId = bluetoothManager.getDeviceId();
+        if (primaryId != null) {
+            ids.add(primaryId);
+            labels.add("主设备\n" + primaryId);
+        }
+        for (DeviceSession session : sessionManager.getSessions()) {
+            ids.add(session.getDeviceId());
+            labels.add(session.getDeviceName() + (session.isConnected() ? "" : " (未连接)")
+                    + "\n" + session.getDeviceId());
+        }
+        
+        new AlertDialog.Builder(this)
+                .setTitle("显示设备")
+                .setItems(labels.toArray(new String[0]), (dialog, which) -> {
+                    selectedDeviceId = ids.get(which);
+                    historyFragment.setDeviceFilter(selectedDeviceId);
+                    Toast.makeText(this, "显示: " + labels.get(which).split("\n")[0],
+                            Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("取消", null)
+                .show();
     }
     
     /**
@@ -309,14 +552,46 @@ public class MainActivity extends AppCompatActivity implements
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         int itemId = item.getItemId();
         if (itemId == R.id.action_connect) {
-            if (bluetoothManager.isConnected()) {
+            // 等待重连时也可以断开，停止自动重连
+            if (bluetoothManager.isConnected() || bluetoothManager.isReconnecting()) {
                 showDisconnectDialog();
             } else {
                 showDeviceSelectionDialog();
             }
             return true;
         } else if (itemId == R.id.action_scan) {
-            startScan();
+            startScan(false);
+            return true;
+        } else if (itemId == R.id.action_simulator) {
+            startSimulator();
+            return true;
+        } else if (itemId == R.id.action_capture) {
+            toggleCapture(item);
+            return true;
+        } else if (itemId == R.id.action_replay) {
+            showReplayDialog();
+            return true;
+        } else if (itemId == R.id.action_dump_latency) {
+            dumpLatencyReport();
+            return true;
+        } else if (itemId == R.id.action_add_device) {
+            showDeviceSelectionDialog(true);
+            return true;
+        } else if (itemId == R.id.action_select_device) {
+            showDeviceFilterDialog();
+            return true;
+        } else if (itemId == R.id.action_download_history) {
+            startHistoryDownload();
+            return true;
+        } else if (itemId == R.id.action_threshold_presets) {
+            showThresholdPresetDialog();
+            return true;
+        } else if (itemId == R.id.action_live_adjust) {
+            item.setChecked(!item.isChecked());
+            homeFragment.setLiveAdjust(item.isChecked());
+            return true;
+        } else if (itemId == R.id.action_diagnostics) {
+            startActivity(new Intent(this, DiagnosticsActivity.class));
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -335,6 +610,8 @@ public class MainActivity extends AppCompatActivity implements
                 .setMessage("确定要断开与 " + deviceName + " 的连接吗？")
                 .setPositiveButton("断开", (dialog, which) -> {
                     bluetoothManager.disconnect();
+                    // 主动断开不会回调 onDeviceDisconnected，下载在这里停止
+                    historyDownloader.onDisconnected(false);
                     homeFragment.updateConnectionStatus(false, null);
                     Toast.makeText(this, "已断开连接", Toast.LENGTH_SHORT).show();
                 })
@@ -342,135 +619,585 @@ public class MainActivity extends AppCompatActivity implements
                 .show();
     }
     
-    // ==================== 蓝牙回调 ====================
+    /**
+     * 下载设备缓存的历史记录，从上次入库的位置继续
+     */
+    private void startHistoryDownload() {
+        if (historyDownloader.isActive()) {
+            new AlertDialog.Builder(this)
+                    .setTitle("设备历史")
+                    .setMessage("历史记录正在下载，已入库的部分下次会继续")
+                    .setPositiveButton("取消下载", (dialog, which) -> {
+                        historyDownloader.cancel();
+                        toolbar.setSubtitle(null);
+                        Toast.makeText(this, "已取消历史下载", Toast.LENGTH_SHORT).show();
+                    })
+                    .setNegativeButton("继续下载", null)
+                    .show();
+            return;
+        }
+        if (!bluetoothManager.isConnected()) {
+            Toast.makeText(this, "请先连接设备", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (historyDownloader.start(bluetoothManager.getDeviceId())) {
+            Toast.makeText(this, "开始下载设备历史", Toast.LENGTH_SHORT).show();
+        }
+    }
     
-    @SuppressLint("MissingPermission")
-    @Override
-    public void onDeviceFound(BluetoothDevice device) {
-        // 检查是否已存在
-        for (BluetoothDevice d : discoveredDevices) {
-            if (d.getAddress().equals(device.getAddress())) {
-                return;
+    /**
+     * 阈值方案: 选择方案应用或删除，或把当前阈值保存为方案
+     */
+    private void showThresholdPresetDialog() {
+        String[] names = presetStore.getNames().toArray(new String[0]);
+        new AlertDialog.Builder(this)
+                .setTitle(names.length == 0 ? "还没有阈值方案" : "阈值方案")
+                .setItems(names, (dialog, which) -> new AlertDialog.Builder(this)
+                        .setTitle(names[which])
+                        .setPositiveButton("应用", (d, w) -> applyThresholdPreset(names[which]))
+                        .setNegativeButton("删除", (d, w) -> presetStore.delete(names[which]))
+                        .show())
+                .setPositiveButton("保存当前阈值", (dialog, which) -> showSavePresetDialog())
+                .setNeutralButton("取消", null)
+                .show();
+    }
+    
+    private void showSavePresetDialog() {
+        List<ThresholdItem> items = homeFragment.getThresholdItems();
+        if (items.isEmpty()) {
+            Toast.makeText(this, "设备还没有回传阈值", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        EditText input = new EditText(this);
+        input.setHint("方案名称");
+        new AlertDialog.Builder(this)
+                .setTitle("保存阈值方案")
+                .setView(input)
+                .setPositiveButton("保存", (dialog, which) -> {
+                    String name = input.getText().toString().trim();
+                    if (name.isEmpty()) {
+                        Toast.makeText(this, "方案名称不能为空", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    Map<String, Integer> values = new LinkedHashMap<>();
+                    for (ThresholdItem item : items) {
+                        values.put(item.getKey(), item.getValue());
+                    }
+                    presetStore.save(name, values);
+                    Toast.makeText(this, "已保存: " + name, Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+    
+    /**
+     * 应用阈值方案: 只下发与当前值不同的阈值，一次写入、一次确认
+     * 主页先显示新值，设备回传后以回传为准
+     */
+    private void applyThresholdPreset(String name) {
+        Map<String, Integer> preset = presetStore.load(name);
+        List<ThresholdItem> items = homeFragment.getThresholdItems();
+        if (preset == null || items.isEmpty()) {
+            Toast.makeText(this, preset == null ? "方案已损坏" : "设备还没有回传阈值", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Map<String, Integer> changed = new LinkedHashMap<>();
+        for (ThresholdItem item : items) {
+            Integer value = preset.get(item.getKey());
+            if (value == null) {
+                continue;
+            }
+            // 方案可能来自量程不同的设备
+            int clamped = Math.max(item.getMin(), Math.min(item.getMax(), value));
+            if (clamped != item.getValue()) {
+                changed.put(item.getKey(), clamped);
             }
         }
+        if (changed.isEmpty()) {
+            Toast.makeText(this, "阈值与方案一致", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        DeviceSession session = sessionManager.get(selectedDeviceId);
+        boolean batchFormat = session != null ? session.isThresholdBatchSupported()
+                : dataParser.isFeatureEnabled(PayloadCapabilities.FEATURE_THRESHOLD_BATCH);
+        currentCommander().sendBatch(changed, batchFormat);
+        for (Map.Entry<String, Integer> entry : changed.entrySet()) {
+            homeFragment.updateThresholdItem(entry.getKey(), entry.getValue());
+        }
+        BtLog.d(TAG, "应用阈值方案: {}, {}", name, changed);
+    }
+    
+    private final HistoryDownloader.Listener historyListener = new HistoryDownloader.Listener() {
+        @Override
+        public void onDownloadProgress(long records, double mbPerSecond, double recordsPerSecond) {
+            toolbar.setSubtitle(String.format(Locale.getDefault(), "历史下载: %d 条, %.0f 条/s",
+                    records, recordsPerSecond));
+        }
+        
+        @Override
+        public void onDownloadFinished(long records, double mbPerSecond, double recordsPerSecond) {
+            toolbar.setSubtitle(null);
+            Toast.makeText(MainActivity.this, String.format(Locale.getDefault(),
+                    "历史下载完成: %d 条, %.2f MB/s, %.0f 条/s", records, mbPerSecond, recordsPerSecond),
+                    Toast.LENGTH_LONG).show();
+            historyFragment.loadData();
+        }
+        
+        @Override
+        public void onDownloadFailed(String message) {
+            toolbar.setSubtitle(null);
+            Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+        }
+    };
+    
+    /**
+     * 启动模拟设备压测
+     * 20个字段，从10Hz开始每10秒增加10Hz，1%畸形帧，数据随机分包
+     */
+    private void startSimulator() {
+        SimulatorConfig config = SimulatorConfig.builder()
+                .keyCount(20)
+                .frameRateHz(10)
+                .ramp(10, 10_000)
+                .jitterMs(5)
+                .chunkSize(64, 1024)
+                .malformedRatio(0.01)
+                .thresholdEcho(true)
+                .logRecords(5000)
+                .deviceTime(true)
+                .clockDriftPpm(50)
+                .build();
+        
+        PipelineTracer.get().reset();
+        bluetoothManager.connectSimulator(config);
+        reportHandler.removeCallbacks(simulatorReportTask);
+        reportHandler.postDelayed(simulatorReportTask, SIMULATOR_REPORT_INTERVAL_MS);
+        Toast.makeText(this, "模拟设备已启动，压测报告见日志", Toast.LENGTH_SHORT).show();
+    }
+    
+    /**
+     * 抓包文件目录
+     */
+    private File getCaptureDir() {
+        File dir = getExternalFilesDir("captures");
+        if (dir == null) {
+            dir = new File(getFilesDir(), "captures");
+        }
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+    
+    /**
+     * 开始/停止抓包
+     */
+    private void toggleCapture(MenuItem item) {
+        if (bluetoothManager.isCapturing()) {
+            File file = bluetoothManager.stopCapture();
+            item.setTitle("开始抓包");
+            Toast.makeText(this, "抓包已保存: " + file.getName(), Toast.LENGTH_LONG).show();
+            return;
+        }
         
-        discoveredDevices.add(device);
+        String name = "capture_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US)
+                .format(new Date()) + ".btcap";
+        try {
+            bluetoothManager.startCapture(new File(getCaptureDir(), name));
+            item.setTitle("停止抓包");
+            Toast.makeText(this, "开始抓包", Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            BtLog.e(TAG, "开始抓包失败", e);
+            Toast.makeText(this, "开始抓包失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    /**
+     * 选择抓包文件和回放方式
+     */
+    private void showReplayDialog() {
+        File[] files = getCaptureDir().listFiles((dir, name) -> name.endsWith(".btcap"));
+        if (files == null || files.length == 0) {
+            Toast.makeText(this, "没有抓包文件", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // 最新的在前
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
         
-        String name = device.getName();
-        if (name == null || name.isEmpty()) {
-            name = "未知设备";
+        String[] names = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            names[i] = files[i].getName();
         }
         
-        if (deviceAdapter != null) {
-            final String displayName = name + "\n" + device.getAddress();
-            runOnUiThread(() -> {
-                deviceAdapter.add(displayName);
-                deviceAdapter.notifyDataSetChanged();
-            });
+        new AlertDialog.Builder(this)
+                .setTitle("回放抓包")
+                .setItems(names, (dialog, which) -> new AlertDialog.Builder(this)
+                        .setTitle(names[which])
+                        .setPositiveButton("原始时间", (d, w) -> startReplay(files[which], true))
+                        .setNegativeButton("最快速度", (d, w) -> startReplay(files[which], false))
+                        .show())
+                .setNeutralButton("取消", null)
+                .show();
+    }
+    
+    private void startReplay(File file, boolean realtime) {
+        PipelineTracer.get().reset();
+        homeFragment.updateConnectionStatus(false, null);
+        bluetoothManager.startReplay(file, realtime, error -> {
+            if (error != null) {
+                Toast.makeText(this, "回放失败: " + error.getMessage(), Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, "回放完成", Toast.LENGTH_SHORT).show();
+                BtLog.d(TAG, () -> "回放延迟统计:\n" + PipelineTracer.get().getReport());
+            }
+        });
+        Toast.makeText(this, "开始回放: " + file.getName(), Toast.LENGTH_SHORT).show();
+    }
+    
+    /**
+     * 导出链路延迟统计到应用私有目录
+     */
+    private void dumpLatencyReport() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
         }
+        File file = new File(dir, "latency_report.txt");
+        BtLog.d(TAG, () -> "链路延迟统计:\n" + PipelineTracer.get().getReport());
+        // 同时导出一次运行指标
+        if (metricsDumper != null) {
+            metricsDumper.dumpNow();
+        }
+        AppExecutors.get().io().execute(() -> {
+            try {
+                PipelineTracer.get().dumpTo(file);
+                runOnUiThread(() -> Toast.makeText(this, 
+                        "已导出: " + file.getAbsolutePath(), Toast.LENGTH_LONG).show());
+            } catch (IOException e) {
+                BtLog.e(TAG, "导出延迟统计失败", e);
+                runOnUiThread(() -> Toast.makeText(this, 
+                        "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+    
+    // ==================== 蓝牙回调 ====================
+    
+    @Override
+    public void onDeviceFound(BluetoothDevice device, int rssi) {
+        scanRegistry.update(device, rssi);
+        // 扫描结果密集时合并刷新，不为每个广播重建列表
+        scheduleDeviceListRefresh();
     }
     
     @SuppressLint("MissingPermission")
     @Override
     public void onDeviceConnected(BluetoothDevice device) {
         showProgress(false);
-        String deviceName = device.getName();
+        // 模拟设备没有 BluetoothDevice
+        String deviceName = device != null ? device.getName() : "模拟设备";
         if (deviceName == null) deviceName = "未知设备";
         
         Toast.makeText(this, "已连接: " + deviceName, Toast.LENGTH_SHORT).show();
         homeFragment.updateConnectionStatus(true, deviceName);
+        registerDevice(bluetoothManager.getDeviceId(), deviceName);
+        // 下载被断线打断时续传
+        historyDownloader.onConnected(bluetoothManager.getDeviceId());
         
-        Log.d(TAG, "设备已连接: " + deviceName);
+        BtLog.i(TAG, "设备已连接: {}", deviceName);
+    }
+    
+    /**
+     * 在数据库中登记设备名称，供历史数据按设备查看
+     */
+    private void registerDevice(String deviceId, String deviceName) {
+        if (deviceId == null) {
+            return;
+        }
+        AppExecutors.get().io().execute(() -> databaseHelper.registerDevice(deviceId, deviceName));
     }
     
     @Override
     public void onDeviceDisconnected() {
         showProgress(false);
+        // 重连后设备会重新握手和声明记录布局
+        dataParser.reset();
+        historyDownloader.onDisconnected(bluetoothManager.isReconnecting());
+        thresholdCommander.cancelAll("连接已断开");
+        liveThresholds.clear();
         Toast.makeText(this, "设备已断开连接", Toast.LENGTH_SHORT).show();
         homeFragment.updateConnectionStatus(false, null);
     }
     
     @Override
-    public void onDataReceived(String data) {
-        Log.d(TAG, "收到数据: " + data);
+    public void onDataReceived(String data, FrameTrace trace) {
+        if (trace != null) {
+            trace.markDispatched();
+        }
+        if (launchNanos != 0) {
+            // 启动到收到第一帧数据的耗时
+            FIRST_DATA_MS.set((System.nanoTime() - launchNanos) / 1_000_000);
+            launchNanos = 0;
+        }
+        BtLog.v(TAG, "收到数据: {}", data);
         // 解析数据
-        dataParser.parse(data);
+        dataParser.parse(data, trace);
+    }
+    
+    @Override
+    public void onReconnecting(int attempt, long delayMs) {
+        homeFragment.updateConnectionStatus(false, null);
+        Toast.makeText(this, String.format(Locale.getDefault(),
+                "连接中断，%.1f 秒后第 %d 次重连", delayMs / 1000.0, attempt), Toast.LENGTH_SHORT).show();
     }
     
     @Override
     public void onError(String message) {
         showProgress(false);
         Toast.makeText(this, "错误: " + message, Toast.LENGTH_SHORT).show();
-        Log.e(TAG, "蓝牙错误: " + message);
+        BtLog.e(TAG, "蓝牙错误: {}", message);
     }
     
     @Override
     public void onScanFinished() {
         showProgress(false);
-        Toast.makeText(this, "扫描完成", Toast.LENGTH_SHORT).show();
+        Toast.makeText(this, "扫描完成，共 " + scanRegistry.size() + " 个设备", Toast.LENGTH_SHORT).show();
         
-        // 显示设备选择对话框
-        if (!discoveredDevices.isEmpty()) {
-            showDeviceSelectionDialog();
-        }
+        // 对话框仍在显示时立即刷新最终结果
+        refreshDeviceList();
     }
     
+    // ==================== 附加设备会话回调 ====================
+    
+    private final DeviceSession.Listener sessionListener = new DeviceSession.Listener() {
+        @Override
+        public void onSessionConnected(DeviceSession session) {
+            showProgress(false);
+            Toast.makeText(MainActivity.this, "已添加设备: " + session.getDeviceName(),
+                    Toast.LENGTH_SHORT).show();
+            registerDevice(session.getDeviceId(), session.getDeviceName());
+            session.getCommander().setListener(commandListener);
+        }
+        
+        @Override
+        public void onSessionDisconnected(DeviceSession session) {
+            Toast.makeText(MainActivity.this, session.getDeviceName() + " 已断开",
+                    Toast.LENGTH_SHORT).show();
+        }
+        
+        @Override
+        public void onSessionReconnecting(DeviceSession session, int attempt, long delayMs) {
+            BtLog.i(TAG, "附加设备 {} 第 {} 次重连", session.getDeviceId(), attempt);
+        }
+        
+        @Override
+        public void onSessionSensorData(DeviceSession session, SensorData data) {
+            // 会话已写库，这里只刷新界面
+            showSensorData(data);
+        }
+        
+        @Override
+        public void onSessionSensorBatch(DeviceSession session, List<SensorData> batch) {
+            showSensorBatch(batch);
+        }
+        
+        @Override
+        public void onSessionThresholdData(DeviceSession session, ThresholdData data) {
+            if (session.getDeviceId().equals(selectedDeviceId)) {
+                homeFragment.updateThresholdData(data);
+            }
+        }
+        
+        @Override
+        public void onSessionError(DeviceSession session, String message) {
+            showProgress(false);
+            Toast.makeText(MainActivity.this, session.getDeviceName() + ": " + message,
+                    Toast.LENGTH_SHORT).show();
+            // 连接失败且不再重连时移除会话
+            if (!session.isConnected() && !session.isReconnecting()) {
+                sessionManager.close(session.getDeviceId());
+            }
+        }
+    };
+    
     // ==================== 数据解析回调 ====================
     
     @Override
     public void onSensorDataParsed(SensorData data) {
-        Log.d(TAG, "传感器数据解析成功: " + data);
+        data.setDeviceId(bluetoothManager.getDeviceId());
         
-        // 更新主页显示
-        homeFragment.updateSensorData(data);
+        // 保存到数据库 (批量写库，保证顺序)
+        sensorDataWriter.enqueue(data);
         
-        // 保存到数据库
-        new Thread(() -> {
-            databaseHelper.insertSensorData(data);
-        }).start();
-        
-        // 通知历史页面
+        showSensorData(data);
+    }
+    
+    @Override
+    public void onSensorBatchParsed(List<SensorData> batch) {
+        String deviceId = bluetoothManager.getDeviceId();
+        for (SensorData data : batch) {
+            data.setDeviceId(deviceId);
+        }
+        sensorDataWriter.enqueueAll(batch);
+        showSensorBatch(batch);
+    }
+    
+    @Override
+    public void onLogChunkParsed(LogChunk chunk) {
+        historyDownloader.onChunk(chunk);
+    }
+    
+    /**
+     * 批量帧: 主页只显示最新一条，历史页面整批刷新一次
+     */
+    private void showSensorBatch(List<SensorData> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        SensorData latest = batch.get(batch.size() - 1);
+        if (isSelectedDevice(latest.getDeviceId())) {
+            homeFragment.updateSensorData(latest);
+        }
+        historyFragment.addNewData(batch);
+    }
+    
+    /**
+     * 刷新主页和历史页面，主页只显示选中设备的数据
+     */
+    private void showSensorData(SensorData data) {
+        if (isSelectedDevice(data.getDeviceId())) {
+            homeFragment.updateSensorData(data);
+        }
         historyFragment.addNewData(data);
     }
     
+    private boolean isSelectedDevice(String deviceId) {
+        return selectedDeviceId == null || selectedDeviceId.equals(deviceId);
+    }
+    
     @Override
     public void onThresholdDataParsed(ThresholdData data) {
-        Log.d(TAG, "阈值数据解析成功: " + data);
-        
+        // 回传的阈值确认已下发的指令
+        thresholdCommander.onThresholdData(data);
         // 更新主页阈值控制
-        homeFragment.updateThresholdData(data);
+        if (isSelectedDevice(bluetoothManager.getDeviceId())) {
+            homeFragment.updateThresholdData(data);
+        }
     }
     
     @Override
     public void onParseError(String message) {
-        Log.e(TAG, "数据解析错误: " + message);
+        BtLog.eLimited(TAG, "main.parse", "数据解析错误: {}", message);
     }
     
     // ==================== 阈值变化回调 ====================
     
     @Override
     public void onThresholdChanged(ThresholdItem item, int newValue) {
-        Log.d(TAG, "阈值变化: " + item.getKey() + " = " + newValue);
+        BtLog.d(TAG, "阈值变化: {} = {}", item.getKey(), newValue);
         
-        // 发送控制指令到设备
-        String command = item.generateCommand();
-        boolean success = bluetoothManager.sendData(command);
+        // 发送控制指令到设备，设备回传后确认
+        if (liveThresholds.containsKey(item.getKey())) {
+            liveThresholds.put(item.getKey(), newValue);
+        }
+        currentCommander().send(item.getKey(), newValue);
+    }
+    
+    @Override
+    public void onThresholdDragged(ThresholdItem item, int newValue) {
+        // 实时调节: 按键节流下发，中间值不提示
+        liveThresholds.put(item.getKey(), null);
+        currentCommander().stream(item.getKey(), newValue);
+    }
+    
+    /**
+     * 主页显示设备的阈值指令下发，选中附加设备时发给该设备
+     */
+    private ThresholdCommander currentCommander() {
+        DeviceSession session = sessionManager.get(selectedDeviceId);
+        return session != null ? session.getCommander() : thresholdCommander;
+    }
+    
+    private final CommandChannel.Listener commandListener = new CommandChannel.Listener() {
+        @Override
+        public void onCommandAcked(Map<String, Integer> values, long rttNanos, int attempts) {
+            if (isLiveIntermediate(values)) {
+                return;
+            }
+            long rttMs = TimeUnit.NANOSECONDS.toMillis(rttNanos);
+            BtLog.d(TAG, () -> "阈值已确认: " + values + ", 往返 " + rttMs + " ms (发送 " + attempts + " 次)");
+            Toast.makeText(MainActivity.this, "已生效: " + describe(values) + " (" + rttMs + " ms)",
+                    Toast.LENGTH_SHORT).show();
+        }
         
-        if (success) {
-            Toast.makeText(this, "已发送: " + item.getName() + " = " + newValue, 
+        @Override
+        public void onCommandFailed(Map<String, Integer> values, String reason) {
+            if (isLiveIntermediate(values)) {
+                return;
+            }
+            // 主页改为显示设备回传的值
+            for (String key : values.keySet()) {
+                homeFragment.clearPendingThreshold(key);
+            }
+            BtLog.w(TAG, "阈值未生效: {}, {}", values, reason);
+            Toast.makeText(MainActivity.this, "未生效: " + describe(values) + "，" + reason,
                     Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, "发送失败，请检查连接", Toast.LENGTH_SHORT).show();
         }
-    }
+        
+        /**
+         * 实时调节的中间值，不提示；最终值的结果提示后结束跟踪
+         */
+        private boolean isLiveIntermediate(Map<String, Integer> values) {
+            if (values.size() != 1) {
+                return false;
+            }
+            Map.Entry<String, Integer> entry = values.entrySet().iterator().next();
+            if (!liveThresholds.containsKey(entry.getKey())) {
+                return false;
+            }
+            Integer finalValue = liveThresholds.get(entry.getKey());
+            if (finalValue == null || !finalValue.equals(entry.getValue())) {
+                return true;
+            }
+            liveThresholds.remove(entry.getKey());
+            return false;
+        }
+        
+        private String describe(Map<String, Integer> values) {
+            if (values.size() == 1) {
+                Map.Entry<String, Integer> entry = values.entrySet().iterator().next();
+                return entry.getKey() + " = " + entry.getValue();
+            }
+            return values.size() + " 项阈值";
+        }
+    };
     
     // ==================== 生命周期 ====================
     
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        reportHandler.removeCallbacks(simulatorReportTask);
+        scanHandler.removeCallbacksAndMessages(null);
+        if (metricsDumper != null) {
+            metricsDumper.stop();
+            if (isFinishing()) {
+                metricsDumper.dumpNow();
+            }
+        }
+        if (historyDownloader != null) {
+            historyDownloader.cancel();
+        }
         if (bluetoothManager != null) {
             bluetoothManager.release();
         }
+        if (sessionManager != null) {
+            sessionManager.closeAll();
+        }
+        // 真正退出时才关闭线程池，配置变更重建不关闭
+        if (isFinishing()) {
+            AppExecutors.shutdown();
+        }
     }
 }
\ No newline at end of file
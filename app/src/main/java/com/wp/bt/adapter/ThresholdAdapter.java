@@ -13,22 +13,41 @@ import com.wp.bt.R;
 import com.wp.bt.model.ThresholdItem;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 阈值控制适配器
  * 用于显示和控制各个阈值项的滑动条
+ * 拖动和下发的值先显示在界面上，设备回传相同的值后才以回传为准，
+ * 拖动中收到的回传不会把滑动条拉回旧值
  */
 public class ThresholdAdapter extends RecyclerView.Adapter<ThresholdAdapter.ViewHolder> {
     
     private List<ThresholdItem> thresholdItems;
     private OnThresholdChangeListener listener;
     
+    // 拖动时是否实时回调 onThresholdDragged
+    private boolean liveAdjust;
+    
+    // 已拖动或下发、设备还没回传的值
+    private final Map<String, Integer> localValues = new HashMap<>();
+    
     /**
      * 阈值变化监听器
      */
     public interface OnThresholdChangeListener {
+        /**
+         * 松手时的最终值
+         */
         void onThresholdChanged(ThresholdItem item, int newValue);
+        
+        /**
+         * 实时调节模式下拖动中的值，每次进度变化都会回调，由接收方节流
+         */
+        default void onThresholdDragged(ThresholdItem item, int newValue) {
+        }
     }
     
     public ThresholdAdapter() {
@@ -39,12 +58,43 @@ public class ThresholdAdapter extends RecyclerView.Adapter<ThresholdAdapter.View
         this.listener = listener;
     }
     
+    public void setLiveAdjust(boolean liveAdjust) {
+        this.liveAdjust = liveAdjust;
+    }
+    
     public void setThresholdItems(List<ThresholdItem> items) {
         this.thresholdItems = items != null ? items : new ArrayList<>();
+        // 回传值与本地值一致时确认，否则继续显示本地值
+        for (ThresholdItem item : thresholdItems) {
+            Integer local = localValues.get(item.getKey());
+            if (local == null) {
+                continue;
+            }
+            if (local == item.getValue()) {
+                localValues.remove(item.getKey());
+            } else {
+                item.setValue(local);
+            }
+        }
         notifyDataSetChanged();
     }
     
+    /**
+     * 放弃本地值，之后以设备回传为准 (指令未生效时调用)
+     */
+    public void clearLocalValue(String key) {
+        localValues.remove(key);
+    }
+    
+    /**
+     * 当前显示的阈值项
+     */
+    public List<ThresholdItem> getThresholdItems() {
+        return thresholdItems;
+    }
+    
     public void updateItem(String key, int newValue) {
+        localValues.put(key, newValue);
         for (int i = 0; i < thresholdItems.size(); i++) {
             if (thresholdItems.get(i).getKey().equals(key)) {
                 thresholdItems.get(i).setValue(newValue);
@@ -109,6 +159,10 @@ public class ThresholdAdapter extends RecyclerView.Adapter<ThresholdAdapter.View
                     if (fromUser) {
                         int newValue = item.getMin() + progress * item.getStep();
                         tvValue.setText(newValue + " " + item.getUnit());
+                        localValues.put(item.getKey(), newValue);
+                        if (liveAdjust && listener != null) {
+                            listener.onThresholdDragged(item, newValue);
+                        }
                     }
                 }
                 
@@ -120,6 +174,7 @@ public class ThresholdAdapter extends RecyclerView.Adapter<ThresholdAdapter.View
                 public void onStopTrackingTouch(SeekBar seekBar) {
                     int newValue = item.getMin() + seekBar.getProgress() * item.getStep();
                     item.setValue(newValue);
+                    localValues.put(item.getKey(), newValue);
                     
                     if (listener != null) {
                         listener.onThresholdChanged(item, newValue);
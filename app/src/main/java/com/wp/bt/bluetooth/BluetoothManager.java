@@ -14,14 +14,36 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
-import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.wp.bt.capture.CaptureWriter;
+import com.wp.bt.capture.ReplaySource;
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.FrameTrace;
+import com.wp.bt.metrics.Gauge;
+import com.wp.bt.metrics.LatencyHistogram;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.parser.PayloadParser;
+import com.wp.bt.protocol.FrameDecoder;
+import com.wp.bt.protocol.LengthFrame;
+import com.wp.bt.protocol.PayloadCapabilities;
+import com.wp.bt.sim.DeviceSimulator;
+import com.wp.bt.sim.SimulatorConfig;
+import com.wp.bt.util.BtLog;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -36,16 +58,36 @@ public class BluetoothManager {
     
     private static final String TAG = "BluetoothManager";
     
+    // 握手回复帧的开头，读线程据此识别，不解析其他帧
+    private static final String CAPS_FRAME_PREFIX = "{\"" + PayloadParser.KEY_CAPS + "\"";
+    
     // SPP UUID - 标准串口服务UUID
-    private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    public static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    
+    // 服务记录查询失败时尝试的默认RFCOMM通道
+    private static final int DEFAULT_RFCOMM_CHANNEL = 1;
+    
+    // 模拟设备管道缓冲区大小
+    private static final int SIMULATOR_PIPE_SIZE = 64 * 1024;
+    
+    // 自动重连退避: 1秒起，每次翻倍，最长30秒，±20%随机
+    private static final long RECONNECT_INITIAL_DELAY_MS = 1000;
+    private static final long RECONNECT_MAX_DELAY_MS = 30_000;
+    
+    // 默认无数据超时，超过后认为连接已失效并重连
+    private static final long DEFAULT_STALL_TIMEOUT_MS = 10_000;
+    
+    // 看门狗最短检查间隔
+    private static final long MIN_WATCHDOG_INTERVAL_MS = 500;
+    
+    // 模拟设备和回放数据的设备标识
+    public static final String DEVICE_ID_SIMULATOR = "simulator";
+    public static final String DEVICE_ID_REPLAY = "replay";
     
     // 权限请求码
     public static final int REQUEST_BLUETOOTH_PERMISSIONS = 1001;
     public static final int REQUEST_ENABLE_BT = 1002;
     
-    // 数据结束标记
-    private static final String DATA_END_MARKER = "FFDD";
-    
     private Context context;
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothSocket bluetoothSocket;
@@ -57,11 +99,78 @@ public class BluetoothManager {
     private ConnectThread connectThread;
     private ReadThread readThread;
     
+    // 模拟设备 (压测用)，不为空时代替蓝牙Socket
+    private DeviceSimulator simulator;
+    
+    // 抓包: 记录收到的原始数据块，不为空时读线程会写入
+    private volatile CaptureWriter captureWriter;
+    
+    // 抓包回放
+    private ReplaySource replaySource;
+    
     private Handler mainHandler;
-    private StringBuilder dataBuffer;
+    
+    // 分帧器, 只在读线程中使用
+    private final FrameDecoder frameDecoder;
+    
+    // 未设置 FrameSink 时把帧投递到主线程，控制帧优先
+    private final FrameDispatcher frameDispatcher;
+    
+    // 运行指标
+    private static final Counter RX_BYTES = MetricsRegistry.get().counter("bt.rx.bytes");
+    private static final Counter RX_CHUNKS = MetricsRegistry.get().counter("bt.rx.chunks");
+    private static final Counter RX_FRAMES = MetricsRegistry.get().counter("bt.rx.frames");
+    private static final Counter READ_ERRORS = MetricsRegistry.get().counter("bt.read.errors");
+    private static final Gauge BUFFER_HIGH_WATER = MetricsRegistry.get().gauge("bt.buffer.high_water");
+    private static final LatencyHistogram CONNECT_TIMER = MetricsRegistry.get().timer("bt.connect");
+    private static final LatencyHistogram CONNECT_SDP_TIMER = MetricsRegistry.get().timer("bt.connect.service_record");
+    private static final LatencyHistogram CONNECT_CHANNEL_TIMER = MetricsRegistry.get().timer("bt.connect.channel");
+    private static final Counter CONNECT_ATTEMPTS = MetricsRegistry.get().counter("bt.connect.attempts");
+    private static final Counter CONNECT_FAILURES = MetricsRegistry.get().counter("bt.connect.failures");
+    private static final Counter RECONNECTS = MetricsRegistry.get().counter("bt.reconnects");
+    private static final Counter STALLS = MetricsRegistry.get().counter("bt.stalls");
+    private static final Counter SESSIONS = MetricsRegistry.get().counter("bt.sessions");
+    private static final Counter SESSION_UPTIME = MetricsRegistry.get().counter("bt.session.uptime_ms");
+    private static final Gauge LAST_SESSION_UPTIME = MetricsRegistry.get().gauge("bt.session.last_uptime_ms");
+    
+    // 上次连接的设备、连接方式和通道
+    private final LastDeviceStore lastDeviceStore;
+    private boolean rememberDevice = true;
+    
+    // 自动重连
+    private boolean autoReconnect = true;
+    // 重连目标，用户主动断开后清空
+    private BluetoothDevice reconnectDevice;
+    private final ReconnectBackoff backoff = new ReconnectBackoff(
+            RECONNECT_INITIAL_DELAY_MS, RECONNECT_MAX_DELAY_MS, 2.0, 0.2);
+    private final Runnable reconnectTask = this::reconnect;
+    
+    // 无数据看门狗
+    private long stallTimeoutMs = DEFAULT_STALL_TIMEOUT_MS;
+    private volatile long lastFrameNanos;
+    private final Runnable watchdogTask = this::checkStall;
+    
+    // 会话统计 (System.nanoTime)
+    private volatile long connectStartNanos;
+    private volatile long sessionStartNanos;
     
     private BluetoothCallback callback;
     
+    // 不为空时数据帧直接在读线程交给它处理，不再投递到主线程
+    private volatile FrameSink frameSink;
+    
+    // 连接后是否在握手中声明支持二进制负载
+    private volatile boolean binaryPayloadEnabled = true;
+    
+    // 连接后是否在握手中声明支持长度前缀分帧
+    private volatile boolean lengthFramingEnabled = true;
+    
+    // 连接后是否在握手中声明支持增量帧
+    private volatile boolean deltaFramesEnabled = true;
+    
+    // 连接后是否在握手中声明支持多采样批量帧
+    private volatile boolean batchFramesEnabled = true;
+    
     private boolean isConnected = false;
     private boolean isReading = false;
     
@@ -69,25 +178,88 @@ public class BluetoothManager {
      * 蓝牙回调接口
      */
     public interface BluetoothCallback {
-        void onDeviceFound(BluetoothDevice device);
+        /**
+         * 扫描到设备
+         * @param rssi 信号强度 (dBm)，未知时为 ScanRegistry.RSSI_UNKNOWN
+         */
+        void onDeviceFound(BluetoothDevice device, int rssi);
         void onDeviceConnected(BluetoothDevice device);
         void onDeviceDisconnected();
-        void onDataReceived(String data);
+        void onDataReceived(String data, FrameTrace trace);
+        void onReconnecting(int attempt, long delayMs);
         void onError(String message);
         void onScanFinished();
     }
     
+    /**
+     * 读线程上的数据帧处理器
+     * 多设备会话中每个设备在自己的读线程上解析，互不阻塞
+     */
+    public interface FrameSink {
+        void onFrame(String frame, FrameTrace trace);
+    }
+    
     public BluetoothManager(Context context) {
         this.context = context;
         this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         this.mainHandler = new Handler(Looper.getMainLooper());
-        this.dataBuffer = new StringBuilder();
+        this.lastDeviceStore = new LastDeviceStore(context);
+        this.frameDispatcher = new FrameDispatcher(mainHandler, (frame, trace) -> {
+            if (callback != null) {
+                callback.onDataReceived(frame, trace);
+            }
+        });
+        this.frameDecoder = new FrameDecoder(new FrameDecoder.FrameListener() {
+            @Override
+            public void onFrame(String frame, FrameTrace trace) {
+                onTypedFrame(frame, LengthFrame.TYPE_UNKNOWN, trace);
+            }
+            
+            @Override
+            public void onTypedFrame(String frame, int type, FrameTrace trace) {
+                RX_FRAMES.inc();
+                lastFrameNanos = trace != null ? trace.getArrivalNanos() : System.nanoTime();
+                if (frame.startsWith(CAPS_FRAME_PREFIX)) {
+                    applyCapsFraming(frame);
+                }
+                FrameSink sink = frameSink;
+                if (sink != null) {
+                    sink.onFrame(frame, trace);
+                } else if (callback != null) {
+                    frameDispatcher.dispatch(frame, type, trace);
+                }
+            }
+        });
+    }
+    
+    /**
+     * 读线程: 握手回复确认的分帧格式立即交给分帧器，
+     * 回复之后紧跟的长度前缀帧不用等主线程解析完握手回复
+     */
+    private void applyCapsFraming(String frame) {
+        try {
+            String framing = PayloadParser.parseCapsFraming(new JSONObject(frame));
+            frameDecoder.setLengthFraming(PayloadCapabilities.FRAMING_LENGTH.equals(framing));
+        } catch (JSONException e) {
+            // 格式错误的回复由解析器报告
+        }
     }
     
     public void setCallback(BluetoothCallback callback) {
         this.callback = callback;
     }
     
+    public void setFrameSink(FrameSink frameSink) {
+        this.frameSink = frameSink;
+    }
+    
+    /**
+     * 设置是否记录为"上次连接的设备"，附加的多设备会话不记录
+     */
+    public void setRememberDevice(boolean remember) {
+        this.rememberDevice = remember;
+    }
+    
     /**
      * 检查设备是否支持蓝牙
      */
@@ -201,7 +373,7 @@ public class BluetoothManager {
         
         // 开始扫描
         bluetoothAdapter.startDiscovery();
-        Log.d(TAG, "开始扫描蓝牙设备");
+        BtLog.d(TAG, "开始扫描蓝牙设备");
     }
     
     /**
@@ -230,7 +402,9 @@ public class BluetoothManager {
             if (BluetoothDevice.ACTION_FOUND.equals(action)) {
                 BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
                 if (device != null && callback != null) {
-                    callback.onDeviceFound(device);
+                    int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI,
+                            (short) ScanRegistry.RSSI_UNKNOWN);
+                    callback.onDeviceFound(device, rssi);
                 }
             } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
                 if (callback != null) {
@@ -258,18 +432,333 @@ public class BluetoothManager {
         // 断开现有连接
         disconnect();
         
-        // 启动连接线程
+        reconnectDevice = device;
+        backoff.reset();
+        startConnect(device);
+    }
+    
+    /**
+     * 连接上次使用的设备
+     * 设备需已配对，蓝牙已开启且有权限
+     * @return 是否已开始连接
+     */
+    @SuppressLint("MissingPermission")
+    public boolean connectLastDevice() {
+        String address = lastDeviceStore.getAddress();
+        if (address == null || !isBluetoothEnabled() || !hasBluetoothPermissions()) {
+            return false;
+        }
+        for (BluetoothDevice device : getPairedDevices()) {
+            if (address.equals(device.getAddress())) {
+                BtLog.i(TAG, "自动连接上次的设备: {}", address);
+                connect(device);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 上次连接的设备名称，没有时返回 null
+     */
+    public String getLastDeviceName() {
+        return lastDeviceStore.getName();
+    }
+    
+    /**
+     * 读取已连接Socket的RFCOMM通道
+     * BluetoothSocket 未公开通道号，通过隐藏字段 mPort 读取，失败返回 -1
+     */
+    private static int readChannel(BluetoothSocket socket) {
+        try {
+            Field field = BluetoothSocket.class.getDeclaredField("mPort");
+            field.setAccessible(true);
+            return field.getInt(socket);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * 启动连接线程
+     */
+    private void startConnect(BluetoothDevice device) {
+        connectStartNanos = System.nanoTime();
+        CONNECT_ATTEMPTS.inc();
         connectThread = new ConnectThread(device);
         connectThread.start();
     }
     
+    // ==================== 自动重连 ====================
+    
+    /**
+     * 设置是否在连接中断后自动重连上一台设备
+     */
+    public void setAutoReconnect(boolean enabled) {
+        autoReconnect = enabled;
+        if (!enabled) {
+            mainHandler.removeCallbacks(reconnectTask);
+        }
+    }
+    
+    public boolean isAutoReconnect() {
+        return autoReconnect;
+    }
+    
+    /**
+     * 是否正在等待重连
+     */
+    public boolean isReconnecting() {
+        return reconnectDevice != null && !isConnected;
+    }
+    
+    /**
+     * 设置无数据超时，超过该时间未收到完整数据帧则重连
+     * @param timeoutMs 小于等于0时关闭看门狗
+     */
+    public void setStallTimeoutMs(long timeoutMs) {
+        stallTimeoutMs = timeoutMs;
+        mainHandler.removeCallbacks(watchdogTask);
+        if (isConnected && bluetoothSocket != null) {
+            startWatchdog();
+        }
+    }
+    
+    /**
+     * 当前会话已连接时长，未连接时返回0
+     */
+    public long getSessionUptimeMs() {
+        long start = sessionStartNanos;
+        return start == 0 ? 0 : (System.nanoTime() - start) / 1_000_000;
+    }
+    
+    /**
+     * 连接中断处理 (主线程)
+     * 关闭当前连接，开启自动重连时按退避时间安排下一次连接
+     */
+    private void handleConnectionLost(String reason) {
+        BtLog.w(TAG, "连接中断: {}", reason);
+        BluetoothDevice target = reconnectDevice;
+        closeConnection();
+        // 回调前确定是否重连，回调中 isReconnecting() 可以区分暂时断开和彻底断开
+        reconnectDevice = autoReconnect ? target : null;
+        if (callback != null) {
+            callback.onDeviceDisconnected();
+        }
+        if (reconnectDevice != null) {
+            scheduleReconnect();
+        }
+    }
+    
+    private void scheduleReconnect() {
+        long delayMs = backoff.nextDelayMs();
+        int attempt = backoff.getAttempt();
+        RECONNECTS.inc();
+        BtLog.i(TAG, "{} 毫秒后进行第 {} 次重连", delayMs, attempt);
+        mainHandler.removeCallbacks(reconnectTask);
+        mainHandler.postDelayed(reconnectTask, delayMs);
+        if (callback != null) {
+            callback.onReconnecting(attempt, delayMs);
+        }
+    }
+    
+    private void reconnect() {
+        BluetoothDevice device = reconnectDevice;
+        if (device == null || isConnected || !autoReconnect) {
+            return;
+        }
+        if (!isBluetoothEnabled()) {
+            // 蓝牙被关闭，继续等待
+            scheduleReconnect();
+            return;
+        }
+        startConnect(device);
+    }
+    
+    private void startWatchdog() {
+        if (stallTimeoutMs > 0) {
+            mainHandler.removeCallbacks(watchdogTask);
+            mainHandler.postDelayed(watchdogTask, watchdogIntervalMs());
+        }
+    }
+    
+    /**
+     * 看门狗检查: 超时未收到数据帧则视为连接失效
+     */
+    private void checkStall() {
+        if (!isConnected || bluetoothSocket == null || stallTimeoutMs <= 0) {
+            return;
+        }
+        long idleMs = (System.nanoTime() - lastFrameNanos) / 1_000_000;
+        if (idleMs >= stallTimeoutMs) {
+            STALLS.inc();
+            handleConnectionLost(idleMs + " 毫秒未收到数据");
+            return;
+        }
+        mainHandler.postDelayed(watchdogTask, watchdogIntervalMs());
+    }
+    
+    private long watchdogIntervalMs() {
+        return Math.max(MIN_WATCHDOG_INTERVAL_MS, stallTimeoutMs / 4);
+    }
+    
+    /**
+     * 结束会话统计
+     */
+    private void endSession() {
+        long start = sessionStartNanos;
+        if (start == 0) {
+            return;
+        }
+        sessionStartNanos = 0;
+        long uptimeMs = (System.nanoTime() - start) / 1_000_000;
+        SESSIONS.inc();
+        SESSION_UPTIME.add(uptimeMs);
+        LAST_SESSION_UPTIME.set(uptimeMs);
+        BtLog.i(TAG, "会话结束, 连接时长 {} 毫秒", uptimeMs);
+    }
+    
+    /**
+     * 连接到模拟设备
+     * 模拟设备通过内存管道代替蓝牙Socket，数据走与真实设备相同的读取、分帧、解析流程
+     * 回调 onDeviceConnected 时 device 为 null
+     */
+    public void connectSimulator(SimulatorConfig config) {
+        stopScan();
+        disconnect();
+        
+        try {
+            PipedInputStream appIn = new PipedInputStream(SIMULATOR_PIPE_SIZE);
+            PipedOutputStream deviceOut = new PipedOutputStream(appIn);
+            PipedInputStream deviceIn = new PipedInputStream(SIMULATOR_PIPE_SIZE);
+            PipedOutputStream appOut = new PipedOutputStream(deviceIn);
+            
+            inputStream = appIn;
+            outputStream = appOut;
+            isConnected = true;
+            
+            simulator = new DeviceSimulator(config);
+            simulator.start(deviceOut, deviceIn);
+            
+            readThread = new ReadThread();
+            readThread.start();
+            requestPayloadCapabilities();
+            
+            BtLog.d(TAG, "模拟设备已启动");
+            mainHandler.post(() -> {
+                if (callback != null) {
+                    callback.onDeviceConnected(null);
+                }
+            });
+        } catch (IOException e) {
+            BtLog.e(TAG, "启动模拟设备失败", e);
+            disconnect();
+            if (callback != null) {
+                callback.onError("启动模拟设备失败: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 获取正在运行的模拟设备，未使用模拟设备时返回 null
+     */
+    public DeviceSimulator getSimulator() {
+        return simulator;
+    }
+    
+    /**
+     * 开始抓包
+     * 之后收到的每个数据块连同到达时间写入抓包文件，写盘在后台线程完成
+     */
+    public void startCapture(File file) throws IOException {
+        stopCapture();
+        captureWriter = new CaptureWriter(file);
+        BtLog.d(TAG, "开始抓包: {}", file);
+    }
+    
+    /**
+     * 停止抓包
+     * @return 抓包文件，未在抓包时返回 null
+     */
+    public File stopCapture() {
+        CaptureWriter writer = captureWriter;
+        captureWriter = null;
+        if (writer == null) {
+            return null;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            BtLog.e(TAG, "关闭抓包文件失败", e);
+        }
+        BtLog.i(TAG, () -> "停止抓包: " + writer.getChunksCaptured() + " 块, "
+                + writer.getBytesCaptured() + " 字节, 丢弃 " + writer.getChunksDropped() + " 块");
+        return writer.getFile();
+    }
+    
+    /**
+     * 是否正在抓包
+     */
+    public boolean isCapturing() {
+        return captureWriter != null;
+    }
+    
+    /**
+     * 回放抓包文件
+     * 数据块按读线程相同的方式送入分帧和解析流程，回放前会断开当前连接
+     * @param realtime true 按原始时间间隔回放，false 尽可能快
+     * @param listener 回放结束回调 (主线程)，可为 null
+     */
+    public void startReplay(File file, boolean realtime, ReplaySource.CompletionListener listener) {
+        stopScan();
+        disconnect();
+        
+        replaySource = new ReplaySource(file, realtime,
+                (data, length, arrivalNanos) -> processReceivedData(data, length, arrivalNanos));
+        replaySource.setCompletionListener(error -> {
+            if (error != null) {
+                BtLog.e(TAG, "回放失败", error);
+            }
+            if (listener != null) {
+                // 排在已回放的数据帧之后通知
+                frameDispatcher.postAfterData(() -> listener.onReplayFinished(error));
+            }
+        });
+        replaySource.start();
+        BtLog.d(TAG, "开始回放: {}{}", file, realtime ? " (原始时间)" : " (最快速度)");
+    }
+    
     /**
      * 断开连接
+     * 用户主动断开，不再自动重连
      */
     public void disconnect() {
+        reconnectDevice = null;
+        mainHandler.removeCallbacks(reconnectTask);
+        closeConnection();
+    }
+    
+    /**
+     * 关闭当前连接和读写线程
+     */
+    private void closeConnection() {
+        mainHandler.removeCallbacks(watchdogTask);
+        endSession();
         isReading = false;
         isConnected = false;
         
+        if (replaySource != null) {
+            replaySource.stop();
+            replaySource = null;
+        }
+        
+        if (simulator != null) {
+            simulator.stop();
+            BtLog.d(TAG, "模拟设备已停止");
+            simulator = null;
+        }
+        
+        ReadThread stoppedReader = readThread;
         if (readThread != null) {
             readThread.cancel();
             readThread = null;
@@ -286,7 +775,7 @@ public class BluetoothManager {
                 inputStream = null;
             }
         } catch (IOException e) {
-            Log.e(TAG, "关闭输入流失败", e);
+            BtLog.e(TAG, "关闭输入流失败", e);
         }
         
         try {
@@ -295,7 +784,7 @@ public class BluetoothManager {
                 outputStream = null;
             }
         } catch (IOException e) {
-            Log.e(TAG, "关闭输出流失败", e);
+            BtLog.e(TAG, "关闭输出流失败", e);
         }
         
         try {
@@ -304,11 +793,76 @@ public class BluetoothManager {
                 bluetoothSocket = null;
             }
         } catch (IOException e) {
-            Log.e(TAG, "关闭Socket失败", e);
+            BtLog.e(TAG, "关闭Socket失败", e);
         }
         
         connectedDevice = null;
-        dataBuffer.setLength(0);
+        // 分帧器只能在读线程上使用，等读线程退出后再重置，避免与正在进行的 feed 交错
+        if (stoppedReader != null) {
+            stoppedReader.awaitExit();
+        }
+        frameDecoder.reset();
+    }
+    
+    /**
+     * 连接后是否请求二进制负载，关闭后只声明支持JSON
+     */
+    public void setBinaryPayloadEnabled(boolean enabled) {
+        this.binaryPayloadEnabled = enabled;
+    }
+    
+    /**
+     * 连接后是否请求长度前缀分帧
+     * 分帧器始终能识别两种格式，这里只影响握手中的声明
+     */
+    public void setLengthFramingEnabled(boolean enabled) {
+        this.lengthFramingEnabled = enabled;
+    }
+    
+    /**
+     * 连接后是否声明支持增量帧
+     * 解析器始终能合并增量帧，这里只影响握手中的声明
+     */
+    public void setDeltaFramesEnabled(boolean enabled) {
+        this.deltaFramesEnabled = enabled;
+    }
+    
+    /**
+     * 连接后是否声明支持多采样批量帧
+     */
+    public void setBatchFramesEnabled(boolean enabled) {
+        this.batchFramesEnabled = enabled;
+    }
+    
+    /**
+     * 负载格式握手
+     * 支持的设备回复 Caps 和 Schema 后改发二进制记录，旧设备忽略此指令
+     */
+    private void requestPayloadCapabilities() {
+        List<String> features = new ArrayList<>();
+        if (binaryPayloadEnabled) {
+            features.add(PayloadCapabilities.MODE_BINARY);
+        }
+        if (lengthFramingEnabled) {
+            features.add(PayloadCapabilities.FRAMING_LENGTH);
+        }
+        if (deltaFramesEnabled) {
+            features.add(PayloadCapabilities.FEATURE_DELTA);
+        }
+        if (batchFramesEnabled) {
+            features.add(PayloadCapabilities.FEATURE_BATCH);
+        }
+        // 阈值批量指令只在设备确认后使用，总是声明
+        features.add(PayloadCapabilities.FEATURE_THRESHOLD_BATCH);
+        String request = PayloadCapabilities.request(features.toArray(new String[0]));
+        try {
+            outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            BtLog.d(TAG, "负载格式握手: {}", request);
+        } catch (IOException e) {
+            // 握手失败不影响JSON负载，读线程会发现连接问题
+            BtLog.w(TAG, "负载格式握手失败: {}", e.getMessage());
+        }
     }
     
     /**
@@ -323,12 +877,12 @@ public class BluetoothManager {
         }
         
         try {
-            outputStream.write(data.getBytes());
+            outputStream.write(data.getBytes(StandardCharsets.UTF_8));
             outputStream.flush();
-            Log.d(TAG, "发送数据: " + data);
+            BtLog.d(TAG, "发送数据: {}", data);
             return true;
         } catch (IOException e) {
-            Log.e(TAG, "发送数据失败", e);
+            BtLog.e(TAG, "发送数据失败", e);
             if (callback != null) {
                 mainHandler.post(() -> callback.onError("发送数据失败: " + e.getMessage()));
             }
@@ -352,6 +906,23 @@ public class BluetoothManager {
         return isConnected;
     }
     
+    /**
+     * 当前数据来源的设备标识: 蓝牙地址，模拟设备或回放为固定标识，未连接时为 null
+     */
+    public String getDeviceId() {
+        BluetoothDevice device = connectedDevice;
+        if (device != null) {
+            return device.getAddress();
+        }
+        if (simulator != null) {
+            return DEVICE_ID_SIMULATOR;
+        }
+        if (replaySource != null) {
+            return DEVICE_ID_REPLAY;
+        }
+        return null;
+    }
+    
     /**
      * 获取已连接的设备
      */
@@ -364,6 +935,7 @@ public class BluetoothManager {
      */
     public void release() {
         stopScan();
+        stopCapture();
         disconnect();
     }
     
@@ -373,19 +945,12 @@ public class BluetoothManager {
     @SuppressLint("MissingPermission")
     private class ConnectThread extends Thread {
         private final BluetoothDevice device;
-        private BluetoothSocket socket;
+        private volatile BluetoothSocket socket;
+        // 本次直连通道失败过，下次不再优先直连
+        private boolean channelFailed;
         
         public ConnectThread(BluetoothDevice device) {
             this.device = device;
-            BluetoothSocket tmp = null;
-            
-            try {
-                // 创建SPP Socket
-                tmp = device.createRfcommSocketToServiceRecord(SPP_UUID);
-            } catch (IOException e) {
-                Log.e(TAG, "创建Socket失败", e);
-            }
-            socket = tmp;
         }
         
         @Override
@@ -395,75 +960,131 @@ public class BluetoothManager {
                 bluetoothAdapter.cancelDiscovery();
             }
             
+            // 上次记录为直连且通道已知时先直连通道跳过SDP查询，失败再走服务记录
+            int knownChannel = lastDeviceStore.getChannel(device.getAddress());
+            boolean channelFirst = knownChannel > 0
+                    && lastDeviceStore.getMethod(device.getAddress()) == LastDeviceStore.ConnectMethod.CHANNEL;
+            LastDeviceStore.ConnectMethod first = channelFirst
+                    ? LastDeviceStore.ConnectMethod.CHANNEL
+                    : LastDeviceStore.ConnectMethod.SERVICE_RECORD;
+            LastDeviceStore.ConnectMethod second = channelFirst
+                    ? LastDeviceStore.ConnectMethod.SERVICE_RECORD
+                    : LastDeviceStore.ConnectMethod.CHANNEL;
+            int channel = channelFirst ? knownChannel : DEFAULT_RFCOMM_CHANNEL;
+            
             try {
-                // 连接到设备
-                socket.connect();
-                
-                // 连接成功
-                bluetoothSocket = socket;
-                connectedDevice = device;
-                inputStream = socket.getInputStream();
-                outputStream = socket.getOutputStream();
-                isConnected = true;
+                connectWith(first, channel);
+            } catch (Exception e) {
+                BtLog.e(TAG, "连接失败 (" + first + ")", e);
+                channelFailed = first == LastDeviceStore.ConnectMethod.CHANNEL;
                 
-                mainHandler.post(() -> {
-                    if (callback != null) {
-                        callback.onDeviceConnected(device);
-                    }
-                });
-                
-                // 启动读取线程
-                readThread = new ReadThread();
-                readThread.start();
-                
-            } catch (IOException e) {
-                Log.e(TAG, "连接失败", e);
-                
-                // 尝试使用反射方法连接 (兼容某些设备)
+                // 换另一种方式重试 (兼容某些设备)
                 try {
-                    socket = (BluetoothSocket) device.getClass()
-                            .getMethod("createRfcommSocket", int.class)
-                            .invoke(device, 1);
-                    socket.connect();
-                    
-                    bluetoothSocket = socket;
-                    connectedDevice = device;
-                    inputStream = socket.getInputStream();
-                    outputStream = socket.getOutputStream();
-                    isConnected = true;
-                    
-                    mainHandler.post(() -> {
-                        if (callback != null) {
-                            callback.onDeviceConnected(device);
-                        }
-                    });
-                    
-                    readThread = new ReadThread();
-                    readThread.start();
-                    
+                    connectWith(second, DEFAULT_RFCOMM_CHANNEL);
                 } catch (Exception e2) {
-                    Log.e(TAG, "备用连接方式也失败", e2);
-                    mainHandler.post(() -> {
-                        if (callback != null) {
-                            callback.onError("连接失败: " + e.getMessage());
-                        }
-                    });
+                    BtLog.e(TAG, "备用连接方式也失败", e2);
+                    CONNECT_FAILURES.inc();
                     cancel();
+                    mainHandler.post(() -> onConnectFailed(device, e.getMessage()));
                 }
             }
         }
         
+        /**
+         * 按指定方式创建Socket并连接，成功后记录下次的连接方式和通道
+         * 服务记录连上且读到了通道时，下次改为直连；本次直连失败过则保持服务记录
+         */
+        private void connectWith(LastDeviceStore.ConnectMethod method, int channel) throws Exception {
+            long start = System.nanoTime();
+            if (method == LastDeviceStore.ConnectMethod.CHANNEL) {
+                socket = (BluetoothSocket) device.getClass()
+                        .getMethod("createRfcommSocket", int.class)
+                        .invoke(device, channel);
+            } else {
+                socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
+            }
+            try {
+                socket.connect();
+            } catch (IOException e) {
+                cancel();
+                throw e;
+            }
+            
+            long elapsed = System.nanoTime() - start;
+            if (method == LastDeviceStore.ConnectMethod.CHANNEL) {
+                CONNECT_CHANNEL_TIMER.record(elapsed);
+            } else {
+                CONNECT_SDP_TIMER.record(elapsed);
+                channel = readChannel(socket);
+            }
+            if (rememberDevice) {
+                LastDeviceStore.ConnectMethod next = channel > 0 && !channelFailed
+                        ? LastDeviceStore.ConnectMethod.CHANNEL
+                        : LastDeviceStore.ConnectMethod.SERVICE_RECORD;
+                lastDeviceStore.save(device.getAddress(), device.getName(), next, channel);
+            }
+            onSocketConnected(socket);
+        }
+        
+        /**
+         * 连接成功: 保存Socket，启动读线程和看门狗
+         */
+        private void onSocketConnected(BluetoothSocket socket) throws IOException {
+            bluetoothSocket = socket;
+            connectedDevice = device;
+            inputStream = socket.getInputStream();
+            outputStream = socket.getOutputStream();
+            isConnected = true;
+            
+            long now = System.nanoTime();
+            CONNECT_TIMER.record(now - connectStartNanos);
+            sessionStartNanos = now;
+            lastFrameNanos = now;
+            
+            mainHandler.post(() -> {
+                backoff.reset();
+                startWatchdog();
+                if (callback != null) {
+                    callback.onDeviceConnected(device);
+                }
+            });
+            
+            // 启动读取线程
+            readThread = new ReadThread();
+            readThread.start();
+            requestPayloadCapabilities();
+        }
+        
         public void cancel() {
             try {
                 if (socket != null) {
                     socket.close();
                 }
             } catch (IOException e) {
-                Log.e(TAG, "关闭Socket失败", e);
+                BtLog.e(TAG, "关闭Socket失败", e);
             }
         }
     }
     
+    /**
+     * 连接失败处理 (主线程)
+     * 重连过程中失败则继续退避重连，首次连接失败直接报错
+     */
+    private void onConnectFailed(BluetoothDevice device, String message) {
+        connectThread = null;
+        if (autoReconnect && device == reconnectDevice && backoff.getAttempt() > 0) {
+            scheduleReconnect();
+            return;
+        }
+        // 首次连接失败不重连
+        if (device == reconnectDevice) {
+            reconnectDevice = null;
+        }
+        if (callback != null) {
+            callback.onError("连接失败: " + message);
+        }
+    }
+    
     /**
      * 数据读取线程
      */
@@ -481,8 +1102,12 @@ public class BluetoothManager {
                     if (inputStream != null && inputStream.available() > 0) {
                         bytes = inputStream.read(buffer);
                         if (bytes > 0) {
-                            String receivedData = new String(buffer, 0, bytes);
-                            processReceivedData(receivedData);
+                            long arrivalNanos = System.nanoTime();
+                            CaptureWriter writer = captureWriter;
+                            if (writer != null) {
+                                writer.write(buffer, 0, bytes, arrivalNanos);
+                            }
+                            processReceivedData(buffer, bytes, arrivalNanos);
                         }
                     } else {
                         // 短暂休眠避免CPU占用过高
@@ -490,13 +1115,10 @@ public class BluetoothManager {
                     }
                 } catch (IOException e) {
                     if (running) {
-                        Log.e(TAG, "读取数据失败", e);
-                        mainHandler.post(() -> {
-                            isConnected = false;
-                            if (callback != null) {
-                                callback.onDeviceDisconnected();
-                            }
-                        });
+                        READ_ERRORS.inc();
+                        BtLog.e(TAG, "读取数据失败", e);
+                        isConnected = false;
+                        mainHandler.post(() -> handleConnectionLost("读取数据失败: " + e.getMessage()));
                     }
                     break;
                 } catch (InterruptedException e) {
@@ -508,34 +1130,46 @@ public class BluetoothManager {
         
         public void cancel() {
             running = false;
+            interrupt();
+        }
+        
+        /**
+         * 等待读线程退出，流已关闭、休眠被中断，最多再处理完当前数据块
+         */
+        void awaitExit() {
+            if (this == Thread.currentThread()) {
+                return;
+            }
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
     
     /**
      * 处理接收到的数据
-     * 数据以 FFDD 结尾表示一条完整消息
+     * 数据以 FFDD 结尾或带长度前缀，分帧由 FrameDecoder 完成，两种格式自动识别
+     * @param arrivalNanos 本数据块到达时间 (System.nanoTime)
      */
-    private void processReceivedData(String data) {
-        dataBuffer.append(data);
-        
-        // 检查是否包含结束标记
-        String bufferStr = dataBuffer.toString();
-        int endIndex;
-        
-        while ((endIndex = bufferStr.indexOf(DATA_END_MARKER)) != -1) {
-            // 提取完整的数据包
-            String completeData = bufferStr.substring(0, endIndex).trim();
-            
-            // 移除已处理的数据
-            bufferStr = bufferStr.substring(endIndex + DATA_END_MARKER.length());
-            dataBuffer.setLength(0);
-            dataBuffer.append(bufferStr);
-            
-            // 回调通知
-            if (!completeData.isEmpty() && callback != null) {
-                final String finalData = completeData;
-                mainHandler.post(() -> callback.onDataReceived(finalData));
-            }
+    private void processReceivedData(byte[] buffer, int length, long arrivalNanos) {
+        RX_CHUNKS.inc();
+        RX_BYTES.add(length);
+        // 分帧前的缓冲长度即本次的缓冲区占用峰值
+        BUFFER_HIGH_WATER.updateMax(frameDecoder.getBufferedLength() + length);
+        long oversized = frameDecoder.getOversizedFrames();
+        long crcErrors = frameDecoder.getCrcErrors();
+        // 按字节分帧，完整的帧才做 UTF-8 解码
+        frameDecoder.feed(buffer, 0, length, arrivalNanos);
+        if (frameDecoder.getOversizedFrames() != oversized) {
+            // 乱码或结束标记丢失，分帧器已丢弃数据并重新同步
+            BtLog.eLimited(TAG, "frame_oversized", "数据帧超长, 累计丢弃 {} 字节",
+                    frameDecoder.getDiscardedLength());
+        }
+        if (frameDecoder.getCrcErrors() != crcErrors) {
+            BtLog.eLimited(TAG, "frame_crc", "数据帧CRC校验失败, 累计 {} 帧",
+                    frameDecoder.getCrcErrors());
         }
     }
 }
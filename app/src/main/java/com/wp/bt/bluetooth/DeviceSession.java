@@ -0,0 +1,220 @@
+package com.wp.bt.bluetooth;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.wp.bt.database.SensorDataWriter;
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.FrameTrace;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.model.SensorData;
+import com.wp.bt.model.ThresholdData;
+import com.wp.bt.parser.DataParser;
+import com.wp.bt.protocol.PayloadCapabilities;
+
+import java.util.List;
+
+/**
+ * 单个设备的连接会话
+ * 每个会话有独立的连接、读线程、分帧器和解析器，
+ * 数据帧在本设备的读线程上解析并交给共用的批量写入器，
+ * 只有解析结果投递到主线程，设备之间互不阻塞
+ */
+public class DeviceSession implements BluetoothManager.BluetoothCallback, DataParser.ParseCallback {
+    
+    /**
+     * 会话事件回调，在主线程执行
+     */
+    public interface Listener {
+        void onSessionConnected(DeviceSession session);
+        void onSessionDisconnected(DeviceSession session);
+        void onSessionReconnecting(DeviceSession session, int attempt, long delayMs);
+        void onSessionSensorData(DeviceSession session, SensorData data);
+        
+        /**
+         * 批量帧的多条数据，默认逐条交给 onSessionSensorData
+         */
+        default void onSessionSensorBatch(DeviceSession session, List<SensorData> batch) {
+            for (SensorData data : batch) {
+                onSessionSensorData(session, data);
+            }
+        }
+        
+        void onSessionThresholdData(DeviceSession session, ThresholdData data);
+        void onSessionError(DeviceSession session, String message);
+    }
+    
+    private final BluetoothDevice device;
+    private final String deviceId;
+    private final BluetoothManager manager;
+    private final DataParser parser;
+    private final SensorDataWriter writer;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThresholdCommander commander;
+    
+    // 本设备的帧计数
+    private final Counter frames;
+    
+    // 断开后置位，下一个连接的读线程在解析第一帧前重置解析器
+    // 解析器的状态只在读线程上访问，主线程不直接重置
+    private volatile boolean parserResetPending;
+    
+    DeviceSession(Context context, BluetoothDevice device, SensorDataWriter writer, Listener listener) {
+        this.device = device;
+        this.deviceId = device.getAddress();
+        this.writer = writer;
+        this.listener = listener;
+        this.frames = MetricsRegistry.get().counter("session." + deviceId + ".frames");
+        
+        this.parser = new DataParser();
+        this.parser.setCallback(this);
+        
+        this.manager = new BluetoothManager(context);
+        this.manager.setCallback(this);
+        this.manager.setRememberDevice(false);
+        this.manager.setFrameSink(this::onFrame);
+        this.commander = new ThresholdCommander(manager::sendData);
+    }
+    
+    void connect() {
+        manager.connect(device);
+    }
+    
+    void close() {
+        manager.release();
+    }
+    
+    public String getDeviceId() {
+        return deviceId;
+    }
+    
+    @SuppressLint("MissingPermission")
+    public String getDeviceName() {
+        String name = device.getName();
+        return name != null ? name : deviceId;
+    }
+    
+    public boolean isConnected() {
+        return manager.isConnected();
+    }
+    
+    public boolean isReconnecting() {
+        return manager.isReconnecting();
+    }
+    
+    public long getFrameCount() {
+        return frames.get();
+    }
+    
+    /**
+     * 向本设备发送数据
+     */
+    public boolean sendData(String data) {
+        return manager.sendData(data);
+    }
+    
+    /**
+     * 本设备的阈值指令下发 (主线程)
+     */
+    public ThresholdCommander getCommander() {
+        return commander;
+    }
+    
+    /**
+     * 设备是否支持阈值批量指令 (握手回复中确认)
+     */
+    public boolean isThresholdBatchSupported() {
+        // 断开后的握手结果已作废
+        return !parserResetPending && parser.isFeatureEnabled(PayloadCapabilities.FEATURE_THRESHOLD_BATCH);
+    }
+    
+    /**
+     * 读线程: 解析数据帧
+     */
+    private void onFrame(String frame, FrameTrace trace) {
+        if (parserResetPending) {
+            parserResetPending = false;
+            parser.reset();
+        }
+        frames.inc();
+        if (trace != null) {
+            trace.markDispatched();
+        }
+        parser.parse(frame, trace);
+    }
+    
+    // ==================== 解析回调 (读线程) ====================
+    
+    @Override
+    public void onSensorDataParsed(SensorData data) {
+        data.setDeviceId(deviceId);
+        writer.enqueue(data);
+        mainHandler.post(() -> listener.onSessionSensorData(this, data));
+    }
+    
+    @Override
+    public void onSensorBatchParsed(List<SensorData> batch) {
+        for (SensorData data : batch) {
+            data.setDeviceId(deviceId);
+        }
+        // 整批写库，只投递一次到主线程
+        writer.enqueueAll(batch);
+        mainHandler.post(() -> listener.onSessionSensorBatch(this, batch));
+    }
+    
+    @Override
+    public void onThresholdDataParsed(ThresholdData data) {
+        // 阈值回传插到主线程队列最前面，不排在本设备和其他设备的数据后面
+        mainHandler.postAtFrontOfQueue(() -> {
+            commander.onThresholdData(data);
+            listener.onSessionThresholdData(this, data);
+        });
+    }
+    
+    @Override
+    public void onParseError(String message) {
+        // 解析错误已由 DataParser 计数和限流记录
+    }
+    
+    // ==================== 连接回调 (主线程) ====================
+    
+    @Override
+    public void onDeviceConnected(BluetoothDevice device) {
+        listener.onSessionConnected(this);
+    }
+    
+    @Override
+    public void onDeviceDisconnected() {
+        // 重连后设备会重新握手和声明记录布局，解析器在新连接的读线程上重置
+        parserResetPending = true;
+        commander.cancelAll("连接已断开");
+        listener.onSessionDisconnected(this);
+    }
+    
+    @Override
+    public void onReconnecting(int attempt, long delayMs) {
+        listener.onSessionReconnecting(this, attempt, delayMs);
+    }
+    
+    @Override
+    public void onError(String message) {
+        listener.onSessionError(this, message);
+    }
+    
+    @Override
+    public void onDataReceived(String data, FrameTrace trace) {
+        // 已设置 FrameSink，不会走到这里
+    }
+    
+    @Override
+    public void onDeviceFound(BluetoothDevice device, int rssi) {
+    }
+    
+    @Override
+    public void onScanFinished() {
+    }
+}
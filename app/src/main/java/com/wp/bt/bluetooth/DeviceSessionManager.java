@@ -0,0 +1,82 @@
+package com.wp.bt.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+
+import com.wp.bt.database.SensorDataWriter;
+import com.wp.bt.util.BtLog;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多设备会话管理
+ * 同时维护多个SPP连接，按设备地址索引，所有会话共用一个批量写入器
+ * 只在主线程调用
+ */
+public class DeviceSessionManager {
+    
+    private static final String TAG = "DeviceSessionManager";
+    
+    private final Context context;
+    private final SensorDataWriter writer;
+    private final DeviceSession.Listener listener;
+    private final Map<String, DeviceSession> sessions = new LinkedHashMap<>();
+    
+    public DeviceSessionManager(Context context, SensorDataWriter writer, DeviceSession.Listener listener) {
+        this.context = context.getApplicationContext();
+        this.writer = writer;
+        this.listener = listener;
+    }
+    
+    /**
+     * 打开设备会话，已存在时直接返回
+     */
+    public DeviceSession open(BluetoothDevice device) {
+        DeviceSession session = sessions.get(device.getAddress());
+        if (session != null) {
+            return session;
+        }
+        session = new DeviceSession(context, device, writer, listener);
+        sessions.put(session.getDeviceId(), session);
+        session.connect();
+        BtLog.i(TAG, "打开设备会话: {}, 当前 {} 个", session.getDeviceId(), sessions.size());
+        return session;
+    }
+    
+    /**
+     * 关闭设备会话
+     */
+    public void close(String deviceId) {
+        DeviceSession session = sessions.remove(deviceId);
+        if (session != null) {
+            session.close();
+            BtLog.i(TAG, "关闭设备会话: {}, 剩余 {} 个", deviceId, sessions.size());
+        }
+    }
+    
+    public void closeAll() {
+        for (DeviceSession session : sessions.values()) {
+            session.close();
+        }
+        sessions.clear();
+    }
+    
+    public DeviceSession get(String deviceId) {
+        return deviceId == null ? null : sessions.get(deviceId);
+    }
+    
+    public boolean contains(String deviceId) {
+        return deviceId != null && sessions.containsKey(deviceId);
+    }
+    
+    public List<DeviceSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+    
+    public int size() {
+        return sessions.size();
+    }
+}
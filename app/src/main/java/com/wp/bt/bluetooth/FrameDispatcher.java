@@ -0,0 +1,167 @@
+package com.wp.bt.bluetooth;
+
+import android.os.Handler;
+
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.FrameTrace;
+import com.wp.bt.metrics.Gauge;
+import com.wp.bt.metrics.LatencyHistogram;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.parser.PayloadParser;
+import com.wp.bt.protocol.LengthFrame;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 数据帧投递到主线程
+ * 分帧器输出的帧分为两条队列:
+ *   控制帧 - 阈值回传，数量少、等待它的是用户操作
+ *   数据帧 - 传感器数据、批量帧、历史记录分块，以及握手回复和记录布局声明
+ * 控制帧插到主线程消息队列最前面，数据积压时也不用排在几百个数据帧后面；
+ * 数据帧合并成一个消息批量分发，每批有上限，批与批之间让出主线程
+ *
+ * 握手回复和记录布局决定之后的数据怎么解析，必须和数据帧保持到达顺序，
+ * 插队会让已排队的数据按新的布局解析
+ * 长度前缀帧按帧头的类型分类，旧格式帧看开头的键
+ *
+ * 数据帧之间保持到达顺序 (关键帧和增量帧依赖顺序)，控制帧之间也保持顺序
+ */
+class FrameDispatcher {
+    
+    /**
+     * 帧的接收者，在主线程执行
+     */
+    interface Target {
+        void onFrame(String frame, FrameTrace trace);
+    }
+    
+    // 每批最多分发的数据帧数和时长，超出后让出主线程
+    private static final int DATA_BATCH_FRAMES = 64;
+    private static final long DATA_BATCH_NANOS = 8_000_000L;
+    
+    
+    private static final Counter CONTROL_FRAMES = MetricsRegistry.get().counter("dispatch.control_frames");
+    private static final LatencyHistogram CONTROL_WAIT = MetricsRegistry.get().timer("dispatch.control_wait");
+    private static final LatencyHistogram DATA_WAIT = MetricsRegistry.get().timer("dispatch.data_wait");
+    private static final Gauge DATA_BACKLOG = MetricsRegistry.get().gauge("dispatch.data_backlog_max");
+    
+    private static final class Entry {
+        final String frame;
+        final FrameTrace trace;
+        final Runnable task;
+        final long queuedNanos;
+        
+        Entry(String frame, FrameTrace trace, Runnable task) {
+            this.frame = frame;
+            this.trace = trace;
+            this.task = task;
+            this.queuedNanos = System.nanoTime();
+        }
+    }
+    
+    private final Handler mainHandler;
+    private final Target target;
+    
+    private final ConcurrentLinkedQueue<Entry> controlQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Entry> dataQueue = new ConcurrentLinkedQueue<>();
+    // 数据队列长度，ConcurrentLinkedQueue.size() 需要遍历
+    private final AtomicInteger dataBacklog = new AtomicInteger();
+    private final AtomicBoolean controlScheduled = new AtomicBoolean();
+    private final AtomicBoolean dataScheduled = new AtomicBoolean();
+    
+    private final Runnable controlTask = this::drainControl;
+    private final Runnable dataTask = this::drainData;
+    
+    FrameDispatcher(Handler mainHandler, Target target) {
+        this.mainHandler = mainHandler;
+        this.target = target;
+    }
+    
+    /**
+     * 读线程: 分类并投递一帧
+     * @param type 长度前缀帧的 LengthFrame.TYPE_*，旧格式帧为 LengthFrame.TYPE_UNKNOWN
+     */
+    void dispatch(String frame, int type, FrameTrace trace) {
+        Entry entry = new Entry(frame, trace, null);
+        boolean control = type == LengthFrame.TYPE_UNKNOWN
+                ? isControlFrame(frame) : type == LengthFrame.TYPE_THRESHOLD;
+        if (control) {
+            CONTROL_FRAMES.inc();
+            controlQueue.add(entry);
+            if (controlScheduled.compareAndSet(false, true)) {
+                mainHandler.postAtFrontOfQueue(controlTask);
+            }
+        } else {
+            enqueueData(entry);
+        }
+    }
+    
+    /**
+     * 在已投递的数据帧全部分发之后执行 (如回放结束的通知)
+     */
+    void postAfterData(Runnable task) {
+        enqueueData(new Entry(null, null, task));
+    }
+    
+    private void enqueueData(Entry entry) {
+        dataQueue.add(entry);
+        dataBacklog.incrementAndGet();
+        if (dataScheduled.compareAndSet(false, true)) {
+            mainHandler.post(dataTask);
+        }
+    }
+    
+    /**
+     * 旧格式帧是否为控制帧: {"Threshold":...
+     * 只看开头，不扫描整帧
+     */
+    static boolean isControlFrame(String frame) {
+        int i = 0;
+        int length = frame.length();
+        while (i < length && Character.isWhitespace(frame.charAt(i))) {
+            i++;
+        }
+        if (i + 2 >= length || frame.charAt(i) != '{' || frame.charAt(i + 1) != '"') {
+            return false;
+        }
+        return frame.startsWith(PayloadParser.KEY_THRESHOLD, i + 2);
+    }
+    
+    private void drainControl() {
+        controlScheduled.set(false);
+        Entry entry;
+        while ((entry = controlQueue.poll()) != null) {
+            CONTROL_WAIT.record(System.nanoTime() - entry.queuedNanos);
+            target.onFrame(entry.frame, entry.trace);
+        }
+    }
+    
+    private void drainData() {
+        // 控制帧的消息可能还在后面，先处理掉
+        drainControl();
+        DATA_BACKLOG.updateMax(dataBacklog.get());
+        long start = System.nanoTime();
+        int count = 0;
+        Entry entry;
+        while (count < DATA_BATCH_FRAMES && System.nanoTime() - start < DATA_BATCH_NANOS
+                && (entry = dataQueue.poll()) != null) {
+            dataBacklog.decrementAndGet();
+            if (entry.task != null) {
+                entry.task.run();
+            } else {
+                DATA_WAIT.record(System.nanoTime() - entry.queuedNanos);
+                target.onFrame(entry.frame, entry.trace);
+            }
+            count++;
+            if (!controlQueue.isEmpty()) {
+                drainControl();
+            }
+        }
+        dataScheduled.set(false);
+        if (!dataQueue.isEmpty() && dataScheduled.compareAndSet(false, true)) {
+            mainHandler.post(dataTask);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.wp.bt.bluetooth;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.wp.bt.database.DatabaseHelper;
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.model.LogChunk;
+import com.wp.bt.model.SensorData;
+import com.wp.bt.protocol.HistoryCommand;
+import com.wp.bt.util.AppExecutors;
+import com.wp.bt.util.BtLog;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 设备历史记录下载
+ * 手机不在身边时设备在本地缓存记录，连接后按游标分段请求，
+ * 设备连续发送大分块，不受实时数据频率限制
+ *
+ * 每个分块和推进后的游标在 io 线程上的同一个事务中入库，
+ * 断线重连或应用被杀后从已入库的游标继续，不会重复也不会遗漏
+ * 连接未断但分块中断时，超时后从中断处重新请求，连续多次没有响应才算失败
+ * 断线后重连到其他设备、或用户主动断开时下载停止
+ *
+ * 只在主线程调用
+ */
+public class HistoryDownloader {
+    
+    private static final String TAG = "HistoryDownloader";
+    
+    // 每次请求的记录数，设备连续发送多个分块，最后一块到达时立即请求下一段
+    private static final int WINDOW_RECORDS = 5000;
+    
+    // 请求后没有收到分块的超时 (设备不支持或连接异常)
+    private static final long RESPONSE_TIMEOUT_MS = 5000;
+    
+    // 连接未断但分块中断时，从中断处重新请求的次数，收到分块后清零
+    private static final int MAX_TIMEOUT_RETRIES = 3;
+    
+    private static final Counter RECORDS = MetricsRegistry.get().counter("history.records");
+    private static final Counter BYTES = MetricsRegistry.get().counter("history.bytes");
+    private static final Counter CHUNKS = MetricsRegistry.get().counter("history.chunks");
+    private static final Counter STALE_CHUNKS = MetricsRegistry.get().counter("history.stale_chunks");
+    private static final Counter TIMEOUTS = MetricsRegistry.get().counter("history.timeouts");
+    private static final Counter RETRIES = MetricsRegistry.get().counter("history.retries");
+    
+    /**
+     * 下载进度回调，在主线程执行
+     */
+    public interface Listener {
+        void onDownloadProgress(long records, double mbPerSecond, double recordsPerSecond);
+        void onDownloadFinished(long records, double mbPerSecond, double recordsPerSecond);
+        void onDownloadFailed(String message);
+    }
+    
+    private final BluetoothManager manager;
+    private final DatabaseHelper databaseHelper;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable timeoutTask = this::onTimeout;
+    private Listener listener;
+    
+    private String deviceId;
+    // 下载进行中，断线等待续传时也为 true
+    private boolean active;
+    // 每次开始或停止下载时递增，丢弃上一次下载迟到的续传
+    private int session;
+    // 下一个分块的起始游标
+    private long expectedFrom;
+    // 连续超时重新请求的次数
+    private int timeoutRetries;
+    
+    // 本次下载的统计
+    private long records;
+    private long bytes;
+    private long startNanos;
+    
+    public HistoryDownloader(BluetoothManager manager, DatabaseHelper databaseHelper) {
+        this.manager = manager;
+        this.databaseHelper = databaseHelper;
+    }
+    
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    public boolean isActive() {
+        return active;
+    }
+    
+    /**
+     * 开始下载，从该设备上次入库的游标继续
+     * @return 已在下载中时返回 false
+     */
+    public boolean start(String deviceId) {
+        if (active || deviceId == null) {
+            return false;
+        }
+        this.deviceId = deviceId;
+        this.active = true;
+        this.records = 0;
+        this.timeoutRetries = 0;
+        this.bytes = 0;
+        this.startNanos = System.nanoTime();
+        session++;
+        BtLog.i(TAG, "开始下载设备历史: {}", deviceId);
+        requestFromStoredCursor();
+        return true;
+    }
+    
+    /**
+     * 停止下载，已入库的游标保留
+     */
+    public void cancel() {
+        active = false;
+        session++;
+        mainHandler.removeCallbacks(timeoutTask);
+    }
+    
+    /**
+     * 连接恢复: 下载中断过则从已入库的游标续传
+     * 连接的是其他设备时停止下载，游标只对原设备有效
+     * @param connectedDeviceId 当前连接的设备地址
+     */
+    public void onConnected(String connectedDeviceId) {
+        if (!active) {
+            return;
+        }
+        if (!deviceId.equals(connectedDeviceId)) {
+            cancel();
+            BtLog.i(TAG, "已连接其他设备 {}, 停止下载 {} 的历史", connectedDeviceId, deviceId);
+            if (listener != null) {
+                listener.onDownloadFailed("已连接其他设备，历史下载已停止");
+            }
+            return;
+        }
+        requestFromStoredCursor();
+    }
+    
+    /**
+     * 连接断开: 会自动重连时暂停等待续传，不算失败；不再重连时停止下载
+     * @param reconnecting 是否会自动重连
+     */
+    public void onDisconnected(boolean reconnecting) {
+        mainHandler.removeCallbacks(timeoutTask);
+        if (!active || reconnecting) {
+            return;
+        }
+        cancel();
+        BtLog.i(TAG, "连接已断开且不再重连, 停止下载设备历史, 游标 {}", expectedFrom);
+        if (listener != null) {
+            listener.onDownloadFailed("连接已断开，历史下载已停止");
+        }
+    }
+    
+    /**
+     * 从该设备已入库的游标请求
+     * 游标在 io 线程读取，保证排在已收到分块的入库之后
+     */
+    private void requestFromStoredCursor() {
+        String id = deviceId;
+        int current = session;
+        AppExecutors.get().io().execute(() -> {
+            long cursor = databaseHelper.getLogCursor(id);
+            mainHandler.post(() -> {
+                if (active && current == session) {
+                    BtLog.i(TAG, "请求设备历史, 游标 {}", cursor);
+                    request(cursor);
+                }
+            });
+        });
+    }
+    
+    /**
+     * 收到一个分块 (解析回调，主线程)
+     */
+    public void onChunk(LogChunk chunk) {
+        if (!active || chunk.getFrom() != expectedFrom) {
+            // 取消后或续传前的请求迟到的分块，续传会重新下载
+            STALE_CHUNKS.inc();
+            return;
+        }
+        mainHandler.removeCallbacks(timeoutTask);
+        expectedFrom = chunk.getNext();
+        timeoutRetries = 0;
+        
+        List<SensorData> batch = chunk.getRecords();
+        for (SensorData data : batch) {
+            data.setDeviceId(deviceId);
+        }
+        records += batch.size();
+        bytes += chunk.getByteCount();
+        CHUNKS.inc();
+        RECORDS.add(batch.size());
+        BYTES.add(chunk.getByteCount());
+        
+        String id = deviceId;
+        long next = chunk.getNext();
+        long total = records;
+        int current = session;
+        AppExecutors.get().io().execute(() -> {
+            // 记录和游标同一事务提交
+            databaseHelper.insertLogChunk(batch, id, next);
+            mainHandler.post(() -> {
+                // 取消后不再报告进度
+                if (current == session) {
+                    notifyProgress(total);
+                }
+            });
+        });
+        
+        if (!chunk.isLast()) {
+            mainHandler.postDelayed(timeoutTask, RESPONSE_TIMEOUT_MS);
+        } else if (chunk.hasMore()) {
+            // 不等入库完成，立即请求下一段，链路保持满载
+            request(next);
+        } else {
+            finish();
+        }
+    }
+    
+    private void request(long cursor) {
+        expectedFrom = cursor;
+        if (!manager.sendData(HistoryCommand.request(cursor, WINDOW_RECORDS))) {
+            // 未连接，等待 onConnected 续传
+            return;
+        }
+        mainHandler.removeCallbacks(timeoutTask);
+        mainHandler.postDelayed(timeoutTask, RESPONSE_TIMEOUT_MS);
+    }
+    
+    /**
+     * 最后一块已收到，在 io 线程排在最后一次入库之后报告结果
+     */
+    private void finish() {
+        active = false;
+        long total = records;
+        double seconds = elapsedSeconds();
+        double mbPerSecond = bytes / 1e6 / seconds;
+        double recordsPerSecond = total / seconds;
+        AppExecutors.get().io().execute(() -> mainHandler.post(() -> {
+            BtLog.i(TAG, "设备历史下载完成: {} 条, {}",
+                    total, String.format(Locale.US, "%.2f MB/s, %.0f 条/s", mbPerSecond, recordsPerSecond));
+            if (listener != null) {
+                listener.onDownloadFinished(total, mbPerSecond, recordsPerSecond);
+            }
+        }));
+    }
+    
+    private void onTimeout() {
+        if (!active) {
+            return;
+        }
+        TIMEOUTS.inc();
+        if (timeoutRetries < MAX_TIMEOUT_RETRIES) {
+            // 分块丢失或设备漏掉了请求: 从下一个缺少的分块重新请求，之前的分块已在入库队列中
+            timeoutRetries++;
+            RETRIES.inc();
+            BtLog.i(TAG, "历史下载超时, 从游标 {} 重新请求 (第 {} 次)", expectedFrom, timeoutRetries);
+            request(expectedFrom);
+            return;
+        }
+        active = false;
+        session++;
+        BtLog.w(TAG, "设备未响应历史下载, 游标 {}", expectedFrom);
+        if (listener != null) {
+            listener.onDownloadFailed("设备未响应历史下载请求");
+        }
+    }
+    
+    private void notifyProgress(long total) {
+        if (listener != null) {
+            double seconds = elapsedSeconds();
+            listener.onDownloadProgress(total, bytes / 1e6 / seconds, total / seconds);
+        }
+    }
+    
+    private double elapsedSeconds() {
+        return Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+    }
+}
@@ -0,0 +1,92 @@
+package com.wp.bt.bluetooth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * 上次连接设备记录
+ * 保存设备地址、下次优先使用的连接方式和RFCOMM通道，
+ * 启动时据此直接连接，跳过设备选择和SDP查询
+ */
+public class LastDeviceStore {
+
+    private static final String PREFS_NAME = "bt_last_device";
+    private static final String KEY_ADDRESS = "address";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_METHOD = "method";
+    private static final String KEY_CHANNEL = "channel";
+
+    /**
+     * 连接方式
+     */
+    public enum ConnectMethod {
+        // 通过SPP UUID查询服务记录 (SDP)，兼容性好但较慢
+        SERVICE_RECORD,
+        // 直接连接已知RFCOMM通道，跳过SDP
+        CHANNEL
+    }
+
+    private final SharedPreferences prefs;
+
+    public LastDeviceStore(Context context) {
+        this.prefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 上次连接的设备地址，没有时返回 null
+     */
+    public String getAddress() {
+        return prefs.getString(KEY_ADDRESS, null);
+    }
+
+    public String getName() {
+        return prefs.getString(KEY_NAME, null);
+    }
+
+    /**
+     * 指定设备下次优先使用的连接方式，未知设备返回 SERVICE_RECORD
+     */
+    public ConnectMethod getMethod(String address) {
+        if (address == null || !address.equals(getAddress())) {
+            return ConnectMethod.SERVICE_RECORD;
+        }
+        String method = prefs.getString(KEY_METHOD, null);
+        if (method == null) {
+            return ConnectMethod.SERVICE_RECORD;
+        }
+        try {
+            return ConnectMethod.valueOf(method);
+        } catch (IllegalArgumentException e) {
+            return ConnectMethod.SERVICE_RECORD;
+        }
+    }
+
+    /**
+     * 指定设备的已知RFCOMM通道，未知时返回 -1
+     */
+    public int getChannel(String address) {
+        if (address == null || !address.equals(getAddress())) {
+            return -1;
+        }
+        return prefs.getInt(KEY_CHANNEL, -1);
+    }
+
+    /**
+     * 记录一次成功的连接
+     * @param method 下次优先使用的连接方式
+     * @param channel RFCOMM通道，未知时传 -1
+     */
+    public void save(String address, String name, ConnectMethod method, int channel) {
+        prefs.edit()
+                .putString(KEY_ADDRESS, address)
+                .putString(KEY_NAME, name)
+                .putString(KEY_METHOD, method.name())
+                .putInt(KEY_CHANNEL, channel)
+                .apply();
+    }
+
+    public void clear() {
+        prefs.edit().clear().apply();
+    }
+}
@@ -0,0 +1,50 @@
+package com.wp.bt.bluetooth;
+
+import java.util.Random;
+
+/**
+ * 重连退避策略
+ * 指数退避: 第 n 次重连等待 initial * multiplier^n，不超过上限，
+ * 再乘以 [1-jitter, 1+jitter] 的随机系数，避免多台设备同时重连
+ */
+public class ReconnectBackoff {
+
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final double multiplier;
+    private final double jitter;
+    private final Random random = new Random();
+
+    private int attempt;
+
+    public ReconnectBackoff(long initialDelayMs, long maxDelayMs, double multiplier, double jitter) {
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+
+    /**
+     * 下一次重连前的等待时间，同时递增重连次数
+     */
+    public synchronized long nextDelayMs() {
+        double base = Math.min(maxDelayMs, initialDelayMs * Math.pow(multiplier, attempt));
+        attempt++;
+        double factor = 1 - jitter + random.nextDouble() * 2 * jitter;
+        return Math.max(0, Math.round(base * factor));
+    }
+
+    /**
+     * 已进行的重连次数
+     */
+    public synchronized int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * 连接成功后重置
+     */
+    public synchronized void reset() {
+        attempt = 0;
+    }
+}
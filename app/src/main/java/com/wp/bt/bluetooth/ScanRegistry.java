@@ -0,0 +1,200 @@
+package com.wp.bt.bluetooth;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 扫描结果登记表
+ * 按设备地址去重，记录信号强度和最后发现时间；
+ * 列表按信号强度从强到弱排序，可按名称和服务UUID过滤
+ * 只在主线程使用
+ */
+public class ScanRegistry {
+
+    /**
+     * 信号强度未知 (已配对但本次未扫描到的设备)
+     */
+    public static final int RSSI_UNKNOWN = Short.MIN_VALUE;
+
+    /**
+     * 一个扫描到的设备
+     */
+    public static class ScannedDevice {
+        private final BluetoothDevice device;
+        private final String address;
+        private String name;
+        private int rssi = RSSI_UNKNOWN;
+        private long lastSeen;
+        private ParcelUuid[] uuids;
+
+        ScannedDevice(BluetoothDevice device) {
+            this.device = device;
+            this.address = device.getAddress();
+        }
+
+        public BluetoothDevice getDevice() {
+            return device;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * 设备名称，未知时返回 "未知设备"
+         */
+        public String getName() {
+            return name == null || name.isEmpty() ? "未知设备" : name;
+        }
+
+        public int getRssi() {
+            return rssi;
+        }
+
+        public boolean hasRssi() {
+            return rssi != RSSI_UNKNOWN;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        boolean hasService(UUID uuid) {
+            if (uuids == null) {
+                return false;
+            }
+            for (ParcelUuid parcelUuid : uuids) {
+                if (uuid.equals(parcelUuid.getUuid())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 列表显示文本
+         */
+        public String getLabel() {
+            String label = getName() + "\n" + address;
+            return hasRssi() ? label + "  " + rssi + " dBm" : label;
+        }
+    }
+
+    // 信号强的在前，信号相同时最近发现的在前
+    private static final Comparator<ScannedDevice> BY_SIGNAL = (a, b) -> {
+        if (a.rssi != b.rssi) {
+            return Integer.compare(b.rssi, a.rssi);
+        }
+        return Long.compare(b.lastSeen, a.lastSeen);
+    };
+
+    private final Map<String, ScannedDevice> devices = new HashMap<>();
+
+    // 名称或地址过滤 (小写)，null 表示不过滤
+    private String nameFilter;
+    // 服务UUID过滤，null 表示不过滤
+    private UUID serviceFilter;
+
+    /**
+     * 登记一个扫描结果
+     * @param rssi 信号强度，未知时传 RSSI_UNKNOWN
+     * @return 是否是新设备
+     */
+    @SuppressLint("MissingPermission")
+    public boolean update(BluetoothDevice device, int rssi) {
+        ScannedDevice scanned = devices.get(device.getAddress());
+        boolean added = scanned == null;
+        if (added) {
+            scanned = new ScannedDevice(device);
+            devices.put(scanned.address, scanned);
+        }
+        // 名称和UUID可能在后续广播中才出现
+        String name = device.getName();
+        if (name != null) {
+            scanned.name = name;
+        }
+        ParcelUuid[] uuids = device.getUuids();
+        if (uuids != null) {
+            scanned.uuids = uuids;
+        }
+        if (rssi != RSSI_UNKNOWN) {
+            scanned.rssi = rssi;
+            scanned.lastSeen = System.currentTimeMillis();
+        }
+        return added;
+    }
+
+    /**
+     * 按名称或地址过滤，不区分大小写
+     * @param filter 为 null 或空时不过滤
+     */
+    public void setNameFilter(String filter) {
+        nameFilter = filter == null || filter.trim().isEmpty()
+                ? null : filter.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public String getNameFilter() {
+        return nameFilter;
+    }
+
+    /**
+     * 只显示提供指定服务的设备
+     * 服务列表来自系统缓存的SDP结果，从未查询过的设备不会出现
+     */
+    public void setServiceFilter(UUID uuid) {
+        serviceFilter = uuid;
+    }
+
+    public UUID getServiceFilter() {
+        return serviceFilter;
+    }
+
+    /**
+     * 过滤并按信号强度排序后的设备列表
+     */
+    public List<ScannedDevice> getSortedDevices() {
+        List<ScannedDevice> result = new ArrayList<>(devices.size());
+        for (ScannedDevice scanned : devices.values()) {
+            if (matches(scanned)) {
+                result.add(scanned);
+            }
+        }
+        Collections.sort(result, BY_SIGNAL);
+        return result;
+    }
+
+    private boolean matches(ScannedDevice scanned) {
+        if (nameFilter != null
+                && (scanned.name == null || !scanned.name.toLowerCase(Locale.ROOT).contains(nameFilter))
+                && !scanned.address.toLowerCase(Locale.ROOT).contains(nameFilter)) {
+            return false;
+        }
+        return serviceFilter == null || scanned.hasService(serviceFilter);
+    }
+
+    public ScannedDevice get(String address) {
+        return devices.get(address);
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    public boolean isEmpty() {
+        return devices.isEmpty();
+    }
+
+    public void clear() {
+        devices.clear();
+    }
+}
@@ -0,0 +1,157 @@
+package com.wp.bt.bluetooth;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.model.ThresholdData;
+import com.wp.bt.protocol.CommandChannel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个设备的阈值指令下发
+ * 在主线程上驱动 CommandChannel: 提交指令、转交回传的阈值帧、按最早的超时安排检查
+ * 拖动滑动条时的实时下发按键节流: 每个键每 STREAM_INTERVAL_MS 最多发送一次，
+ * 间隔内只保留最新值，到时发出；松手时的最终值总是立即发送
+ *
+ * 只在主线程调用
+ */
+public class ThresholdCommander {
+    
+    /**
+     * 实时下发的最小间隔 (每个键约 10Hz)
+     */
+    public static final long STREAM_INTERVAL_MS = 100;
+    private static final long STREAM_INTERVAL_NANOS = STREAM_INTERVAL_MS * 1_000_000L;
+    
+    // 节流间隔内被更新的值覆盖、没有发送的中间值
+    private static final Counter STREAM_DROPPED = MetricsRegistry.get().counter("command.stream_dropped");
+    
+    private final CommandChannel channel;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable timeoutTask = this::onTimeout;
+    private final Runnable streamTask = this::flushStream;
+    
+    // 实时下发: 等待间隔到期的最新值，和每个键上次发送的时间
+    private final Map<String, Integer> streamPending = new HashMap<>();
+    private final Map<String, Long> streamSentNanos = new HashMap<>();
+    
+    public ThresholdCommander(CommandChannel.Transport transport) {
+        this.channel = new CommandChannel(transport);
+    }
+    
+    public void setListener(CommandChannel.Listener listener) {
+        channel.setListener(listener);
+    }
+    
+    /**
+     * 下发阈值，等待设备回传确认
+     */
+    public void send(String key, int value) {
+        // 最终值取代还没发出的中间值
+        if (streamPending.remove(key) != null) {
+            STREAM_DROPPED.inc();
+        }
+        streamSentNanos.remove(key);
+        channel.submit(key, value, System.nanoTime());
+        schedule();
+    }
+    
+    /**
+     * 拖动中的实时下发，按键节流，中间值可能被丢弃
+     * 拖动结束后必须用 send 发送最终值
+     */
+    public void stream(String key, int value) {
+        long now = System.nanoTime();
+        Long last = streamSentNanos.get(key);
+        if (last == null || now - last >= STREAM_INTERVAL_NANOS) {
+            streamSentNanos.put(key, now);
+            channel.submit(key, value, now);
+            schedule();
+            return;
+        }
+        if (streamPending.put(key, value) != null) {
+            STREAM_DROPPED.inc();
+        }
+        scheduleStream(now);
+    }
+    
+    /**
+     * 一次下发一组阈值 (阈值方案)，设备回传后一次确认
+     * @param batchFormat 设备是否支持 ThresholdBatch 批量指令
+     */
+    public void sendBatch(Map<String, Integer> values, boolean batchFormat) {
+        channel.submitBatch(values, batchFormat, System.nanoTime());
+        schedule();
+    }
+    
+    /**
+     * 设备回传的阈值帧
+     */
+    public void onThresholdData(ThresholdData data) {
+        channel.onThresholdData(data, System.nanoTime());
+        schedule();
+    }
+    
+    /**
+     * 放弃所有未确认的指令 (断开连接时调用)
+     */
+    public void cancelAll(String reason) {
+        mainHandler.removeCallbacks(timeoutTask);
+        mainHandler.removeCallbacks(streamTask);
+        streamPending.clear();
+        streamSentNanos.clear();
+        channel.clear(reason);
+    }
+    
+    private void onTimeout() {
+        channel.checkTimeouts(System.nanoTime());
+        schedule();
+    }
+    
+    /**
+     * 发送间隔已到期的实时下发值
+     */
+    private void flushStream() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, Integer>> it = streamPending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Integer> entry = it.next();
+            Long last = streamSentNanos.get(entry.getKey());
+            if (last == null || now - last >= STREAM_INTERVAL_NANOS) {
+                it.remove();
+                streamSentNanos.put(entry.getKey(), now);
+                channel.submit(entry.getKey(), entry.getValue(), now);
+            }
+        }
+        schedule();
+        scheduleStream(now);
+    }
+    
+    private void scheduleStream(long nowNanos) {
+        mainHandler.removeCallbacks(streamTask);
+        long next = Long.MAX_VALUE;
+        for (String key : streamPending.keySet()) {
+            Long last = streamSentNanos.get(key);
+            next = Math.min(next, last != null ? last + STREAM_INTERVAL_NANOS : nowNanos);
+        }
+        if (next != Long.MAX_VALUE) {
+            long delayMs = TimeUnit.NANOSECONDS.toMillis(next - nowNanos);
+            mainHandler.postDelayed(streamTask, Math.max(0, delayMs) + 1);
+        }
+    }
+    
+    private void schedule() {
+        mainHandler.removeCallbacks(timeoutTask);
+        long deadline = channel.nextDeadlineNanos();
+        if (deadline != CommandChannel.NO_DEADLINE) {
+            long delayMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            mainHandler.postDelayed(timeoutTask, Math.max(0, delayMs) + 1);
+        }
+    }
+}
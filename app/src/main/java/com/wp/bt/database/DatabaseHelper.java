@@ -3,22 +3,34 @@ package com.wp.bt.database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.os.CancellationSignal;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.util.Log;
+import android.database.sqlite.SQLiteStatement;
 
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.Gauge;
+import com.wp.bt.metrics.LatencyHistogram;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.model.DeviceInfo;
 import com.wp.bt.model.SensorData;
+import com.wp.bt.parser.PayloadParser;
+import com.wp.bt.util.AppExecutors;
+import com.wp.bt.util.BtLog;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * SQLite数据库帮助类 - 通用版本
  * 使用JSON字符串存储动态传感器数据
+ * 每条数据关联 devices 表中的来源设备，按 (device_id, timestamp) 建索引
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
     
@@ -26,24 +38,81 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     
     // 数据库信息
     private static final String DATABASE_NAME = "bt_sensor.db";
-    private static final int DATABASE_VERSION = 2; // 版本升级
+    private static final int DATABASE_VERSION = 4; // 3: 增加设备表和设备索引 4: 设备表增加历史下载游标
     
     // 表名
     private static final String TABLE_SENSOR_DATA = "sensor_data";
+    private static final String TABLE_DEVICES = "devices";
     
-    // 列名 - 简化为只存储时间戳和原始JSON
+    // 列名 - 只存储时间戳、来源设备和原始JSON
     private static final String COLUMN_ID = "id";
     private static final String COLUMN_TIMESTAMP = "timestamp";
     private static final String COLUMN_RAW_JSON = "raw_json";
+    private static final String COLUMN_DEVICE_ID = "device_id";
+    
+    // 设备表列名
+    private static final String COLUMN_ADDRESS = "address";
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_LAST_SEEN = "last_seen";
+    private static final String COLUMN_LOG_CURSOR = "log_cursor";
+    
+    // 升级前的数据和来源不明的数据归入此设备
+    public static final String UNKNOWN_DEVICE_ADDRESS = "unknown";
+    
+    // 升级时新增列的默认值，表示尚未迁移
+    private static final long UNASSIGNED_DEVICE_ID = 0;
+    
+    // 后台迁移每批更新的行数，批次之间让出写库线程
+    private static final int MIGRATION_CHUNK_ROWS = 2000;
+    
+    // 数据保留: 每个设备只保留最近 30 天、最多 50 万条数据
+    private static final long RETENTION_MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    private static final int RETENTION_MAX_ROWS_PER_DEVICE = 500_000;
     
     // 创建表SQL
     private static final String CREATE_TABLE_SENSOR_DATA = 
             "CREATE TABLE " + TABLE_SENSOR_DATA + " (" +
             COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
             COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
-            COLUMN_RAW_JSON + " TEXT" +
+            COLUMN_RAW_JSON + " TEXT, " +
+            COLUMN_DEVICE_ID + " INTEGER NOT NULL DEFAULT " + UNASSIGNED_DEVICE_ID +
+            ")";
+    
+    private static final String CREATE_TABLE_DEVICES = 
+            "CREATE TABLE IF NOT EXISTS " + TABLE_DEVICES + " (" +
+            COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            COLUMN_ADDRESS + " TEXT NOT NULL UNIQUE, " +
+            COLUMN_NAME + " TEXT, " +
+            COLUMN_LAST_SEEN + " INTEGER NOT NULL DEFAULT 0, " +
+            COLUMN_LOG_CURSOR + " INTEGER NOT NULL DEFAULT 0" +
             ")";
     
+    // 按设备查询历史: WHERE device_id = ? ORDER BY timestamp
+    private static final String INDEX_DEVICE_TIME = "idx_sensor_data_device_time";
+    private static final String CREATE_INDEX_DEVICE_TIME = 
+            "CREATE INDEX IF NOT EXISTS " + INDEX_DEVICE_TIME + " ON " + TABLE_SENSOR_DATA +
+            " (" + COLUMN_DEVICE_ID + ", " + COLUMN_TIMESTAMP + ")";
+    
+    // 不分设备按时间查询
+    private static final String CREATE_INDEX_TIME = 
+            "CREATE INDEX IF NOT EXISTS idx_sensor_data_time ON " + TABLE_SENSOR_DATA +
+            " (" + COLUMN_TIMESTAMP + ")";
+    
+    // 运行指标
+    private static final LatencyHistogram INSERT_TIMER = MetricsRegistry.get().timer("db.insert.commit");
+    private static final Counter INSERT_ROWS = MetricsRegistry.get().counter("db.insert.rows");
+    private static final Counter INSERT_BATCHES = MetricsRegistry.get().counter("db.insert.batches");
+    private static final Gauge INSERT_BATCH_SIZE = MetricsRegistry.get().gauge("db.insert.batch_size");
+    private static final Gauge INSERT_BATCH_SIZE_MAX = MetricsRegistry.get().gauge("db.insert.batch_size_max");
+    private static final Gauge ROW_COUNT = MetricsRegistry.get().gauge("db.row_count");
+    
+    // 设备地址与数据库ID的双向缓存
+    private final Map<String, Long> deviceIds = new ConcurrentHashMap<>();
+    private final Map<Long, String> deviceAddresses = new ConcurrentHashMap<>();
+    
+    // 后台迁移已处理到的主键，只在写库线程访问
+    private long migrationLastId;
+    
     // 单例模式
     private static DatabaseHelper instance;
     
@@ -61,14 +130,239 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CREATE_TABLE_SENSOR_DATA);
-        Log.d(TAG, "数据库表创建成功");
+        db.execSQL(CREATE_TABLE_DEVICES);
+        db.execSQL(CREATE_INDEX_DEVICE_TIME);
+        db.execSQL(CREATE_INDEX_TIME);
+        BtLog.d(TAG, "数据库表创建成功");
     }
     
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // 删除旧表，创建新表
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SENSOR_DATA);
-        onCreate(db);
+        if (oldVersion < 2) {
+            // 版本1的表结构不兼容，删除旧表，创建新表
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_SENSOR_DATA);
+            onCreate(db);
+            return;
+        }
+        if (oldVersion < 3) {
+            // 只加列和建设备表，都是瞬时完成的；
+            // 已有数据的设备归属和索引在 startBackgroundMigration 中分批完成
+            db.execSQL(CREATE_TABLE_DEVICES);
+            db.execSQL("ALTER TABLE " + TABLE_SENSOR_DATA + " ADD COLUMN " + COLUMN_DEVICE_ID +
+                    " INTEGER NOT NULL DEFAULT " + UNASSIGNED_DEVICE_ID);
+            BtLog.i(TAG, "数据库升级到版本 {}, 旧数据将在后台迁移", newVersion);
+        } else if (oldVersion < 4) {
+            // 版本3的设备表没有游标列，版本3之前的设备表在上面按新结构创建
+            db.execSQL("ALTER TABLE " + TABLE_DEVICES + " ADD COLUMN " + COLUMN_LOG_CURSOR +
+                    " INTEGER NOT NULL DEFAULT 0");
+        }
+    }
+    
+    /**
+     * 后台迁移升级前的数据
+     * 在写库线程上分批把未归属设备的数据归入 UNKNOWN_DEVICE_ADDRESS，
+     * 每批之后重新排队，期间新数据的写入不会被长时间阻塞；完成后建立索引
+     * 新安装或已迁移完成时只做一次检查
+     * 迁移完成后按设备执行一次数据保留，删除依赖设备索引，所以排在迁移之后
+     */
+    public void startBackgroundMigration() {
+        // 先统计一次总行数作为 db.row_count 的初值，之后按写入和删除增减；
+        // 在写库线程上执行，统计之前排队的写入不会被重复计入
+        AppExecutors.get().io().execute(() -> getDataCount(null));
+        AppExecutors.get().io().execute(this::migrateChunk);
+    }
+    
+    private void migrateChunk() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (migrationLastId == 0 && isMigrated(db)) {
+            applyRetention();
+            return;
+        }
+        long unknownId = getDeviceRowId(db, null);
+        
+        long start = System.nanoTime();
+        // 按主键分页，每批只访问本批的行，不会反复扫描已迁移的部分
+        long endId = migrationChunkEnd(db, migrationLastId);
+        SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_SENSOR_DATA +
+                " SET " + COLUMN_DEVICE_ID + " = ?" +
+                " WHERE " + COLUMN_ID + " > ? AND " + COLUMN_ID + " <= ?" +
+                " AND " + COLUMN_DEVICE_ID + " = ?");
+        int updated;
+        try {
+            statement.bindLong(1, unknownId);
+            statement.bindLong(2, migrationLastId);
+            statement.bindLong(3, endId);
+            statement.bindLong(4, UNASSIGNED_DEVICE_ID);
+            updated = statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+        
+        if (endId != Long.MAX_VALUE) {
+            BtLog.d(TAG, "迁移旧数据 {} 行, 耗时 {} ms", updated, (System.nanoTime() - start) / 1_000_000);
+            migrationLastId = endId;
+            AppExecutors.get().io().execute(this::migrateChunk);
+            return;
+        }
+        
+        // 索引建好即表示迁移完成
+        db.execSQL(CREATE_INDEX_DEVICE_TIME);
+        db.execSQL(CREATE_INDEX_TIME);
+        migrationLastId = 0;
+        applyRetention();
+    }
+    
+    /**
+     * 按设备执行数据保留 (写库线程)
+     * 每个设备删除超过 RETENTION_MAX_AGE_MS 的数据，再只保留最新的 RETENTION_MAX_ROWS_PER_DEVICE 条
+     */
+    private void applyRetention() {
+        long before = System.currentTimeMillis() - RETENTION_MAX_AGE_MS;
+        for (DeviceInfo device : getDevices()) {
+            if (device.getSampleCount() == 0) {
+                continue;
+            }
+            int deleted = deleteOldData(device.getAddress(), before);
+            if (device.getSampleCount() - deleted > RETENTION_MAX_ROWS_PER_DEVICE) {
+                deleted += trimDeviceData(device.getAddress(), RETENTION_MAX_ROWS_PER_DEVICE);
+            }
+            if (deleted > 0) {
+                BtLog.i(TAG, "设备 {} 按保留策略删除 {} 条数据", device.getDisplayName(), deleted);
+            }
+        }
+    }
+    
+    /**
+     * 本批最后一行的主键: 从 afterId 之后数 MIGRATION_CHUNK_ROWS 行，沿主键顺序访问
+     * 剩余不足一批时返回 Long.MAX_VALUE
+     */
+    private long migrationChunkEnd(SQLiteDatabase db, long afterId) {
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + " FROM " + TABLE_SENSOR_DATA +
+                " WHERE " + COLUMN_ID + " > ? ORDER BY " + COLUMN_ID + " LIMIT 1 OFFSET ?",
+                new String[]{String.valueOf(afterId), String.valueOf(MIGRATION_CHUNK_ROWS - 1)});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : Long.MAX_VALUE;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * 设备索引在迁移完成后才建立，已存在时无需迁移
+     */
+    private boolean isMigrated(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{INDEX_DEVICE_TIME});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    // ==================== 设备 ====================
+    
+    /**
+     * 获取设备的数据库ID，不存在时创建
+     * @param address 设备标识，为 null 时归入 UNKNOWN_DEVICE_ADDRESS
+     */
+    private long getDeviceRowId(SQLiteDatabase db, String address) {
+        String key = address != null ? address : UNKNOWN_DEVICE_ADDRESS;
+        Long cached = deviceIds.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (deviceIds) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_ADDRESS, key);
+            db.insertWithOnConflict(TABLE_DEVICES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            long id = findDeviceRowId(db, key);
+            cacheDevice(id, key);
+            return id;
+        }
+    }
+    
+    /**
+     * 查找设备的数据库ID，不存在时返回 -1
+     */
+    private long findDeviceRowId(SQLiteDatabase db, String address) {
+        Long cached = deviceIds.get(address);
+        if (cached != null) {
+            return cached;
+        }
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + " FROM " + TABLE_DEVICES +
+                " WHERE " + COLUMN_ADDRESS + " = ?", new String[]{address});
+        try {
+            if (cursor.moveToFirst()) {
+                long id = cursor.getLong(0);
+                cacheDevice(id, address);
+                return id;
+            }
+            return -1;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    private String getDeviceAddress(SQLiteDatabase db, long deviceRowId) {
+        String cached = deviceAddresses.get(deviceRowId);
+        if (cached != null || deviceRowId == UNASSIGNED_DEVICE_ID) {
+            return cached;
+        }
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_ADDRESS + " FROM " + TABLE_DEVICES +
+                " WHERE " + COLUMN_ID + " = ?", new String[]{String.valueOf(deviceRowId)});
+        try {
+            if (cursor.moveToFirst()) {
+                String address = cursor.getString(0);
+                cacheDevice(deviceRowId, address);
+                return address;
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    private void cacheDevice(long id, String address) {
+        deviceIds.put(address, id);
+        deviceAddresses.put(id, address);
+    }
+    
+    /**
+     * 登记设备并更新名称
+     */
+    public void registerDevice(String address, String name) {
+        SQLiteDatabase db = getWritableDatabase();
+        long id = getDeviceRowId(db, address);
+        if (name != null) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_NAME, name);
+            db.update(TABLE_DEVICES, values, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+        }
+    }
+    
+    /**
+     * 查询所有设备及其数据条数，按最后数据时间倒序
+     */
+    public List<DeviceInfo> getDevices() {
+        List<DeviceInfo> devices = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        // 子查询走 (device_id, timestamp) 索引计数
+        String query = "SELECT d." + COLUMN_ID + ", d." + COLUMN_ADDRESS + ", d." + COLUMN_NAME +
+                ", d." + COLUMN_LAST_SEEN +
+                ", (SELECT COUNT(*) FROM " + TABLE_SENSOR_DATA + " s WHERE s." + COLUMN_DEVICE_ID +
+                " = d." + COLUMN_ID + ")" +
+                " FROM " + TABLE_DEVICES + " d ORDER BY d." + COLUMN_LAST_SEEN + " DESC";
+        Cursor cursor = db.rawQuery(query, null);
+        try {
+            while (cursor.moveToNext()) {
+                devices.add(new DeviceInfo(cursor.getLong(0), cursor.getString(1),
+                        cursor.getString(2), cursor.getLong(3), cursor.getInt(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return devices;
     }
     
     /**
@@ -79,13 +373,122 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         
         ContentValues values = new ContentValues();
         values.put(COLUMN_TIMESTAMP, data.getTimestamp());
-        values.put(COLUMN_RAW_JSON, data.getRawJson());
+        values.put(COLUMN_RAW_JSON, rawJsonOf(data));
+        values.put(COLUMN_DEVICE_ID, getDeviceRowId(db, data.getDeviceId()));
         
+        long start = System.nanoTime();
         long id = db.insert(TABLE_SENSOR_DATA, null, values);
-        Log.d(TAG, "插入数据成功, ID: " + id);
+        recordInsert(id != -1 ? 1 : 0, System.nanoTime() - start);
         return id;
     }
     
+    /**
+     * 批量插入传感器数据
+     * 在一个事务中提交，避免每行一次提交的开销
+     * @return 成功插入的行数
+     */
+    public int insertSensorDataBatch(List<SensorData> dataList) {
+        if (dataList.isEmpty()) {
+            return 0;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        int inserted;
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            inserted = insertRows(db, dataList);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        recordInsert(inserted, System.nanoTime() - start);
+        return inserted;
+    }
+    
+    /**
+     * 设备历史记录的一个分块入库，并在同一个事务中推进该设备的下载游标
+     * 中途崩溃时记录和游标一起回滚，续传不会重复也不会遗漏
+     * @param cursor 本分块之后的游标
+     * @return 成功插入的行数
+     */
+    public int insertLogChunk(List<SensorData> dataList, String deviceAddress, long cursor) {
+        SQLiteDatabase db = getWritableDatabase();
+        int inserted;
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            inserted = insertRows(db, dataList);
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_LOG_CURSOR, cursor);
+            db.update(TABLE_DEVICES, values, COLUMN_ID + " = ?",
+                    new String[]{String.valueOf(getDeviceRowId(db, deviceAddress))});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        recordInsert(inserted, System.nanoTime() - start);
+        return inserted;
+    }
+    
+    /**
+     * 设备历史记录已入库的游标，没有下载过时为 0
+     */
+    public long getLogCursor(String deviceAddress) {
+        SQLiteDatabase db = getReadableDatabase();
+        long deviceRowId = findDeviceRowId(db, deviceAddress);
+        if (deviceRowId < 0) {
+            return 0;
+        }
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_LOG_CURSOR + " FROM " + TABLE_DEVICES +
+                " WHERE " + COLUMN_ID + " = ?", new String[]{String.valueOf(deviceRowId)});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * 在调用方的事务中插入数据并更新各设备的最后数据时间
+     * @return 成功插入的行数
+     */
+    private int insertRows(SQLiteDatabase db, List<SensorData> dataList) {
+        ContentValues values = new ContentValues();
+        int inserted = 0;
+        // 每个设备本批最新的时间戳
+        Map<Long, Long> lastSeen = new HashMap<>();
+        for (SensorData data : dataList) {
+            long deviceRowId = getDeviceRowId(db, data.getDeviceId());
+            values.clear();
+            values.put(COLUMN_TIMESTAMP, data.getTimestamp());
+            values.put(COLUMN_RAW_JSON, rawJsonOf(data));
+            values.put(COLUMN_DEVICE_ID, deviceRowId);
+            if (db.insert(TABLE_SENSOR_DATA, null, values) != -1) {
+                inserted++;
+                Long seen = lastSeen.get(deviceRowId);
+                if (seen == null || data.getTimestamp() > seen) {
+                    lastSeen.put(deviceRowId, data.getTimestamp());
+                }
+            }
+        }
+        for (Map.Entry<Long, Long> entry : lastSeen.entrySet()) {
+            values.clear();
+            values.put(COLUMN_LAST_SEEN, entry.getValue());
+            db.update(TABLE_DEVICES, values, COLUMN_ID + " = ?",
+                    new String[]{String.valueOf(entry.getKey())});
+        }
+        return inserted;
+    }
+    
+    private void recordInsert(int rows, long nanos) {
+        INSERT_TIMER.record(nanos);
+        INSERT_BATCHES.inc();
+        INSERT_ROWS.add(rows);
+        INSERT_BATCH_SIZE.set(rows);
+        INSERT_BATCH_SIZE_MAX.updateMax(rows);
+        ROW_COUNT.add(rows);
+    }
+    
     /**
      * 查询所有传感器数据
      */
@@ -144,24 +547,58 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * 查询最近N条数据
      */
     public List<SensorData> getRecentSensorData(int limit) {
+        return getRecentSensorData(limit, null);
+    }
+    
+    /**
+     * 查询最近N条数据 (可取消)
+     * signal 被取消时抛出 OperationCanceledException
+     */
+    public List<SensorData> getRecentSensorData(int limit, CancellationSignal signal) {
+        return getRecentSensorData(limit, null, signal);
+    }
+    
+    /**
+     * 查询指定设备最近N条数据 (可取消)
+     * @param deviceAddress 设备标识，为 null 时不限设备
+     */
+    public List<SensorData> getRecentSensorData(int limit, String deviceAddress, CancellationSignal signal) {
         List<SensorData> dataList = new ArrayList<>();
         SQLiteDatabase db = getReadableDatabase();
         
-        String query = "SELECT * FROM " + TABLE_SENSOR_DATA + 
-                " ORDER BY " + COLUMN_TIMESTAMP + " DESC LIMIT ?";
-        
-        Cursor cursor = db.rawQuery(query, new String[]{String.valueOf(limit)});
-        
-        if (cursor.moveToFirst()) {
-            do {
-                SensorData data = cursorToSensorData(cursor);
-                if (data != null) {
-                    dataList.add(data);
-                }
-            } while (cursor.moveToNext());
+        Cursor cursor;
+        if (deviceAddress == null) {
+            String query = "SELECT * FROM " + TABLE_SENSOR_DATA + 
+                    " ORDER BY " + COLUMN_TIMESTAMP + " DESC LIMIT ?";
+            cursor = db.rawQuery(query, new String[]{String.valueOf(limit)}, signal);
+        } else {
+            long deviceRowId = findDeviceRowId(db, deviceAddress);
+            if (deviceRowId < 0) {
+                return dataList;
+            }
+            String query = "SELECT * FROM " + TABLE_SENSOR_DATA + 
+                    " WHERE " + COLUMN_DEVICE_ID + " = ?" +
+                    " ORDER BY " + COLUMN_TIMESTAMP + " DESC LIMIT ?";
+            cursor = db.rawQuery(query, new String[]{
+                    String.valueOf(deviceRowId), String.valueOf(limit)}, signal);
         }
         
-        cursor.close();
+        try {
+            if (cursor.moveToFirst()) {
+                do {
+                    // 逐行解析JSON较慢，每行检查一次是否已被取消
+                    if (signal != null) {
+                        signal.throwIfCanceled();
+                    }
+                    SensorData data = cursorToSensorData(cursor);
+                    if (data != null) {
+                        dataList.add(data);
+                    }
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
+        }
         
         // 反转列表，使时间顺序为升序
         List<SensorData> reversedList = new ArrayList<>();
@@ -186,8 +623,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     public int deleteSensorData(long id) {
         SQLiteDatabase db = getWritableDatabase();
-        return db.delete(TABLE_SENSOR_DATA, COLUMN_ID + " = ?", 
+        int deleted = db.delete(TABLE_SENSOR_DATA, COLUMN_ID + " = ?", 
                 new String[]{String.valueOf(id)});
+        ROW_COUNT.add(-deleted);
+        return deleted;
     }
     
     /**
@@ -195,33 +634,114 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     public int deleteAllSensorData() {
         SQLiteDatabase db = getWritableDatabase();
-        return db.delete(TABLE_SENSOR_DATA, null, null);
+        int deleted = db.delete(TABLE_SENSOR_DATA, null, null);
+        ROW_COUNT.set(0);
+        return deleted;
+    }
+    
+    /**
+     * 删除指定设备在指定时间之前的数据
+     */
+    public int deleteOldData(String deviceAddress, long beforeTimestamp) {
+        SQLiteDatabase db = getWritableDatabase();
+        long deviceRowId = findDeviceRowId(db, deviceAddress);
+        if (deviceRowId < 0) {
+            return 0;
+        }
+        int deleted = db.delete(TABLE_SENSOR_DATA, 
+                COLUMN_DEVICE_ID + " = ? AND " + COLUMN_TIMESTAMP + " < ?", 
+                new String[]{String.valueOf(deviceRowId), String.valueOf(beforeTimestamp)});
+        ROW_COUNT.add(-deleted);
+        return deleted;
+    }
+    
+    /**
+     * 指定设备只保留最新的 keep 条数据
+     * @return 删除的行数
+     */
+    public int trimDeviceData(String deviceAddress, int keep) {
+        SQLiteDatabase db = getWritableDatabase();
+        long deviceRowId = findDeviceRowId(db, deviceAddress);
+        if (deviceRowId < 0) {
+            return 0;
+        }
+        String id = String.valueOf(deviceRowId);
+        // 第 keep 条之后的数据，按索引倒序定位
+        int deleted = db.delete(TABLE_SENSOR_DATA, 
+                COLUMN_DEVICE_ID + " = ? AND " + COLUMN_ID + " IN (SELECT " + COLUMN_ID +
+                " FROM " + TABLE_SENSOR_DATA + " WHERE " + COLUMN_DEVICE_ID + " = ?" +
+                " ORDER BY " + COLUMN_TIMESTAMP + " DESC LIMIT -1 OFFSET ?)",
+                new String[]{id, id, String.valueOf(keep)});
+        ROW_COUNT.add(-deleted);
+        return deleted;
     }
     
     /**
-     * 删除指定时间之前的数据
+     * 删除指定时间之前的数据 (所有设备)
      */
     public int deleteOldData(long beforeTimestamp) {
         SQLiteDatabase db = getWritableDatabase();
-        return db.delete(TABLE_SENSOR_DATA, 
+        int deleted = db.delete(TABLE_SENSOR_DATA, 
                 COLUMN_TIMESTAMP + " < ?", 
                 new String[]{String.valueOf(beforeTimestamp)});
+        ROW_COUNT.add(-deleted);
+        return deleted;
     }
     
     /**
      * 获取数据总数
      */
     public int getDataCount() {
+        return getDataCount(null);
+    }
+    
+    /**
+     * 获取指定设备的数据条数 (可取消)
+     * @param deviceAddress 设备标识，为 null 时统计所有设备
+     */
+    public int getDataCount(String deviceAddress, CancellationSignal signal) {
+        if (deviceAddress == null) {
+            return getDataCount(signal);
+        }
         SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_SENSOR_DATA, null);
-        int count = 0;
-        if (cursor.moveToFirst()) {
-            count = cursor.getInt(0);
+        long deviceRowId = findDeviceRowId(db, deviceAddress);
+        if (deviceRowId < 0) {
+            return 0;
         }
-        cursor.close();
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_SENSOR_DATA +
+                " WHERE " + COLUMN_DEVICE_ID + " = ?",
+                new String[]{String.valueOf(deviceRowId)}, signal);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * 获取数据总数 (可取消)
+     */
+    public int getDataCount(CancellationSignal signal) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_SENSOR_DATA, null, signal);
+        int count;
+        try {
+            count = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+        ROW_COUNT.set(count);
         return count;
     }
     
+    /**
+     * 入库的JSON: 二进制记录解析的数据没有原始JSON，在写库线程上生成
+     */
+    private static String rawJsonOf(SensorData data) {
+        String rawJson = data.getRawJson();
+        return rawJson != null ? rawJson : PayloadParser.toSensorJson(data);
+    }
+    
     /**
      * 将Cursor转换为SensorData对象
      * 从JSON字符串重建动态数据
@@ -236,31 +756,20 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             String rawJson = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_RAW_JSON));
             data.setRawJson(rawJson);
             
+            long deviceRowId = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_DEVICE_ID));
+            data.setDeviceId(getDeviceAddress(getReadableDatabase(), deviceRowId));
+            
             // 从JSON重建数据项
             if (rawJson != null && !rawJson.isEmpty()) {
                 JSONObject json = new JSONObject(rawJson);
-                if (json.has("Date")) {
-                    JSONObject dateObj = json.getJSONObject("Date");
-                    Iterator<String> keys = dateObj.keys();
-                    while (keys.hasNext()) {
-                        String key = keys.next();
-                        Object valueObj = dateObj.get(key);
-                        
-                        if (valueObj instanceof JSONObject) {
-                            JSONObject itemObj = (JSONObject) valueObj;
-                            String value = String.valueOf(itemObj.opt("val"));
-                            String unit = itemObj.optString("unit", "");
-                            data.addItem(key, value, unit);
-                        } else {
-                            data.addItem(key, String.valueOf(valueObj), "");
-                        }
-                    }
+                if (json.has(PayloadParser.KEY_DATE)) {
+                    PayloadParser.fillSensorItems(data, json.getJSONObject(PayloadParser.KEY_DATE));
                 }
             }
             
             return data;
         } catch (JSONException e) {
-            Log.e(TAG, "解析数据库JSON失败", e);
+            BtLog.e(TAG, "解析数据库JSON失败", e);
             return null;
         }
     }
@@ -0,0 +1,230 @@
+package com.wp.bt.database;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 查询调度器 - "最新优先"
+ * 同一时刻最多执行一个查询，等待中的请求只保留最新一个，
+ * 被新请求取代的查询会通过 CancellationSignal 取消，
+ * 只有最新一次请求的结果才会投递到主线程
+ */
+public class QueryScheduler<T> {
+
+    /**
+     * 查询任务, 在后台线程执行
+     */
+    public interface Query<T> {
+        T run(CancellationSignal signal);
+    }
+
+    /**
+     * 查询结果回调, 在主线程执行
+     */
+    public interface ResultCallback<T> {
+        void onResult(T result);
+    }
+
+    private static class Request<T> {
+        final long generation;
+        final Query<T> query;
+        final ResultCallback<T> callback;
+
+        Request(long generation, Query<T> query, ResultCallback<T> callback) {
+            this.generation = generation;
+            this.query = query;
+            this.callback = callback;
+        }
+    }
+
+    private final Executor executor;
+    private final Handler mainHandler;
+
+    // 请求代数, 每次提交递增, 用于判断结果是否已过期
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicReference<Request<T>> pending = new AtomicReference<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private volatile CancellationSignal runningSignal;
+
+    // 统计
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong totalQueryNanos = new AtomicLong();
+    private final AtomicLong maxQueryNanos = new AtomicLong();
+    private volatile long lastQueryNanos;
+
+    public QueryScheduler(Executor executor) {
+        this.executor = executor;
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * 提交查询
+     * 尚未开始的旧请求被合并, 正在执行的旧查询被取消
+     */
+    public void submit(Query<T> query, ResultCallback<T> callback) {
+        submittedCount.incrementAndGet();
+        long gen = generation.incrementAndGet();
+
+        Request<T> replaced = pending.getAndSet(new Request<>(gen, query, callback));
+        if (replaced != null) {
+            coalescedCount.incrementAndGet();
+        }
+
+        CancellationSignal signal = runningSignal;
+        if (signal != null) {
+            signal.cancel();
+        }
+
+        scheduleDrain();
+    }
+
+    /**
+     * 取消所有未完成的请求, 已在途的结果也不会再投递
+     */
+    public void cancelAll() {
+        generation.incrementAndGet();
+        if (pending.getAndSet(null) != null) {
+            coalescedCount.incrementAndGet();
+        }
+        CancellationSignal signal = runningSignal;
+        if (signal != null) {
+            signal.cancel();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // 线程池已满或已关闭，丢弃本次请求，下次提交时重新调度
+                draining.set(false);
+                if (pending.getAndSet(null) != null) {
+                    discardedCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * 依次执行等待中的最新请求, 直到没有新请求
+     */
+    private void drain() {
+        try {
+            Request<T> request;
+            while ((request = pending.getAndSet(null)) != null) {
+                execute(request);
+            }
+        } finally {
+            draining.set(false);
+            // 退出前可能又有新请求到达
+            if (pending.get() != null) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private void execute(Request<T> request) {
+        if (request.generation != generation.get()) {
+            coalescedCount.incrementAndGet();
+            return;
+        }
+
+        CancellationSignal signal = new CancellationSignal();
+        runningSignal = signal;
+        executedCount.incrementAndGet();
+
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = request.query.run(signal);
+        } catch (OperationCanceledException e) {
+            cancelledCount.incrementAndGet();
+            return;
+        } finally {
+            runningSignal = null;
+            recordDuration(System.nanoTime() - start);
+        }
+
+        if (request.generation != generation.get()) {
+            discardedCount.incrementAndGet();
+            return;
+        }
+
+        mainHandler.post(() -> {
+            // 投递前再次确认没有更新的请求
+            if (request.generation == generation.get()) {
+                deliveredCount.incrementAndGet();
+                request.callback.onResult(result);
+            } else {
+                discardedCount.incrementAndGet();
+            }
+        });
+    }
+
+    private void recordDuration(long nanos) {
+        lastQueryNanos = nanos;
+        totalQueryNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxQueryNanos.get();
+        } while (nanos > max && !maxQueryNanos.compareAndSet(max, nanos));
+    }
+
+    // ==================== 统计 ====================
+
+    public long getSubmittedCount() { return submittedCount.get(); }
+    public long getExecutedCount() { return executedCount.get(); }
+    public long getDeliveredCount() { return deliveredCount.get(); }
+
+    /**
+     * 被跳过的查询数 = 合并 + 取消 + 结果过期丢弃
+     */
+    public long getSkippedCount() {
+        return coalescedCount.get() + cancelledCount.get() + discardedCount.get();
+    }
+
+    public long getCoalescedCount() { return coalescedCount.get(); }
+    public long getCancelledCount() { return cancelledCount.get(); }
+    public long getDiscardedCount() { return discardedCount.get(); }
+
+    public double getLastQueryMillis() {
+        return lastQueryNanos / 1_000_000.0;
+    }
+
+    public double getAverageQueryMillis() {
+        long executed = executedCount.get();
+        return executed == 0 ? 0 : totalQueryNanos.get() / 1_000_000.0 / executed;
+    }
+
+    public double getMaxQueryMillis() {
+        return maxQueryNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * 统计摘要, 用于日志输出
+     */
+    public String getStatsSummary() {
+        return String.format(Locale.US,
+                "submitted=%d, executed=%d, delivered=%d, skipped=%d "
+                        + "(coalesced=%d, cancelled=%d, discarded=%d), "
+                        + "query ms last=%.2f avg=%.2f max=%.2f",
+                getSubmittedCount(), getExecutedCount(), getDeliveredCount(), getSkippedCount(),
+                getCoalescedCount(), getCancelledCount(), getDiscardedCount(),
+                getLastQueryMillis(), getAverageQueryMillis(), getMaxQueryMillis());
+    }
+}
@@ -0,0 +1,95 @@
+package com.wp.bt.database;
+
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.model.SensorData;
+import com.wp.bt.util.AppExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 传感器数据批量写入器
+ * 所有设备共用一个写入器，数据先进入无锁队列，
+ * io 线程一次取出全部并在一个事务中提交
+ * 增量帧合并后没有任何字段变化的数据不入库，历史中保留上一条即可
+ */
+public class SensorDataWriter {
+    
+    // 单次事务最多写入的行数
+    private static final int MAX_BATCH = 200;
+    
+    private static final Counter SKIPPED_UNCHANGED = MetricsRegistry.get().counter("db.skipped_unchanged");
+    
+    private final DatabaseHelper databaseHelper;
+    private final ConcurrentLinkedQueue<SensorData> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    
+    public SensorDataWriter(DatabaseHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+    
+    /**
+     * 加入写库队列，可在任意线程调用
+     */
+    public void enqueue(SensorData data) {
+        if (data.isUnchanged()) {
+            SKIPPED_UNCHANGED.inc();
+            return;
+        }
+        pending.add(data);
+        schedule();
+    }
+    
+    /**
+     * 整批加入写库队列 (批量帧)，只调度一次写库
+     */
+    public void enqueueAll(List<SensorData> batch) {
+        for (SensorData data : batch) {
+            if (data.isUnchanged()) {
+                SKIPPED_UNCHANGED.inc();
+            } else {
+                pending.add(data);
+            }
+        }
+        schedule();
+    }
+    
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            AppExecutors.get().io().execute(this::flush);
+        }
+    }
+    
+    /**
+     * 批量写库，在 io 线程执行
+     * 写库期间到达的数据会在同一轮中一并提交
+     */
+    private void flush() {
+        scheduled.set(false);
+        List<SensorData> batch = new ArrayList<>();
+        SensorData data;
+        while ((data = pending.poll()) != null) {
+            batch.add(data);
+            if (batch.size() >= MAX_BATCH) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+        commit(batch);
+    }
+    
+    private void commit(List<SensorData> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        databaseHelper.insertSensorDataBatch(batch);
+        for (SensorData item : batch) {
+            if (item.getTrace() != null) {
+                item.getTrace().markPersisted();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.wp.bt.database;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.wp.bt.util.BtLog;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 阈值方案
+ * 一组命名的阈值保存在本地，应用方案时只下发与设备当前值不同的阈值
+ * 每个方案保存为一个JSON对象: {"KEY":VALUE,...}，保持保存时的顺序
+ */
+public class ThresholdPresetStore {
+
+    private static final String TAG = "ThresholdPresetStore";
+    private static final String PREFS_NAME = "bt_threshold_presets";
+
+    private final SharedPreferences prefs;
+
+    public ThresholdPresetStore(Context context) {
+        this.prefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 所有方案名，按名称排序
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<>(prefs.getAll().keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * 保存方案，同名方案被覆盖
+     */
+    public void save(String name, Map<String, Integer> values) {
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<String, Integer> entry : values.entrySet()) {
+                json.put(entry.getKey(), entry.getValue().intValue());
+            }
+        } catch (JSONException e) {
+            BtLog.w(TAG, "阈值方案保存失败: {}", e.getMessage());
+            return;
+        }
+        prefs.edit().putString(name, json.toString()).apply();
+    }
+
+    /**
+     * 读取方案，不存在或内容损坏时返回 null
+     */
+    public Map<String, Integer> load(String name) {
+        String stored = prefs.getString(name, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(stored);
+            Map<String, Integer> values = new LinkedHashMap<>();
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                values.put(key, json.getInt(key));
+            }
+            return values;
+        } catch (JSONException e) {
+            BtLog.w(TAG, "阈值方案已损坏: {}", name);
+            return null;
+        }
+    }
+
+    public void delete(String name) {
+        prefs.edit().remove(name).apply();
+    }
+}
@@ -31,7 +31,12 @@ import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
 import com.wp.bt.R;
 import com.wp.bt.adapter.HistoryAdapter;
 import com.wp.bt.database.DatabaseHelper;
+import com.wp.bt.database.QueryScheduler;
+import com.wp.bt.metrics.LatencyHistogram;
+import com.wp.bt.metrics.MetricsRegistry;
 import com.wp.bt.model.SensorData;
+import com.wp.bt.util.AppExecutors;
+import com.wp.bt.util.BtLog;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -47,6 +52,14 @@ import java.util.Set;
  */
 public class HistoryFragment extends Fragment {
     
+    private static final String TAG = "HistoryFragment";
+    
+    // 历史列表显示的最大条数
+    private static final int RECENT_LIMIT = 100;
+    
+    // 列表和图表刷新耗时
+    private static final LatencyHistogram RENDER_TIMER = MetricsRegistry.get().timer("ui.history.render");
+    
     // 图表
     private LineChart lineChart;
     
@@ -57,6 +70,9 @@ public class HistoryFragment extends Fragment {
     // 数据库
     private DatabaseHelper databaseHelper;
     
+    // 查询调度 - 合并重复请求，只投递最新结果
+    private QueryScheduler<HistorySnapshot> queryScheduler;
+    
     // 数据统计
     private TextView tvDataCount;
     
@@ -67,6 +83,9 @@ public class HistoryFragment extends Fragment {
     // 当前选中的数据键名 (null表示显示全部)
     private String currentSelectedKey = null;
     
+    // 当前显示的设备 (null表示全部设备)
+    private String deviceFilter = null;
+    
     // 图表颜色数组
     private static final int[] CHART_COLORS = {
             Color.parseColor("#FF5722"),
@@ -84,6 +103,19 @@ public class HistoryFragment extends Fragment {
     // 已知的数据键名集合
     private Set<String> knownKeys = new HashSet<>();
     
+    /**
+     * 一次查询的结果
+     */
+    private static class HistorySnapshot {
+        final List<SensorData> dataList;
+        final int totalCount;
+        
+        HistorySnapshot(List<SensorData> dataList, int totalCount) {
+            this.dataList = dataList;
+            this.totalCount = totalCount;
+        }
+    }
+    
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, 
@@ -96,6 +128,7 @@ public class HistoryFragment extends Fragment {
         super.onViewCreated(view, savedInstanceState);
         
         databaseHelper = DatabaseHelper.getInstance(requireContext());
+        queryScheduler = new QueryScheduler<>(AppExecutors.get().query());
         
         initViews(view);
         setupChart();
@@ -111,6 +144,16 @@ public class HistoryFragment extends Fragment {
         loadData();
     }
     
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (queryScheduler != null) {
+            queryScheduler.cancelAll();
+            BtLog.d(TAG, () -> "查询统计: " + queryScheduler.getStatsSummary());
+            queryScheduler = null;
+        }
+    }
+    
     /**
      * 初始化视图
      */
@@ -254,21 +297,30 @@ public class HistoryFragment extends Fragment {
     
     /**
      * 加载数据
+     * 短时间内的多次调用会被合并，只有最后一次的结果会刷新界面
      */
     public void loadData() {
-        new Thread(() -> {
-            List<SensorData> dataList = databaseHelper.getRecentSensorData(100);
-            int totalCount = databaseHelper.getDataCount();
-            
-            if (getActivity() != null) {
-                getActivity().runOnUiThread(() -> {
-                    historyAdapter.setDataList(dataList);
-                    tvDataCount.setText("共 " + totalCount + " 条记录");
-                    updateFilterButtons(dataList);
-                    updateChartWithData(dataList);
-                });
+        if (queryScheduler == null) {
+            return;
+        }
+        
+        String device = deviceFilter;
+        queryScheduler.submit(signal -> {
+            List<SensorData> dataList = databaseHelper.getRecentSensorData(RECENT_LIMIT, device, signal);
+            signal.throwIfCanceled();
+            int totalCount = databaseHelper.getDataCount(device, signal);
+            return new HistorySnapshot(dataList, totalCount);
+        }, snapshot -> {
+            if (!isAdded() || getView() == null) {
+                return;
             }
-        }).start();
+            long start = System.nanoTime();
+            historyAdapter.setDataList(snapshot.dataList);
+            tvDataCount.setText("共 " + snapshot.totalCount + " 条记录");
+            updateFilterButtons(snapshot.dataList);
+            updateChartWithData(snapshot.dataList);
+            RENDER_TIMER.record(System.nanoTime() - start);
+        });
     }
     
     /**
@@ -364,7 +416,7 @@ public class HistoryFragment extends Fragment {
                 .setTitle("删除确认")
                 .setMessage("确定要删除这条记录吗？")
                 .setPositiveButton("删除", (dialog, which) -> {
-                    new Thread(() -> {
+                    AppExecutors.get().io().execute(() -> {
                         databaseHelper.deleteSensorData(data.getId());
                         if (getActivity() != null) {
                             getActivity().runOnUiThread(() -> {
@@ -373,7 +425,7 @@ public class HistoryFragment extends Fragment {
                                 loadData();
                             });
                         }
-                    }).start();
+                    });
                 })
                 .setNegativeButton("取消", null)
                 .show();
@@ -387,7 +439,7 @@ public class HistoryFragment extends Fragment {
                 .setTitle("清空确认")
                 .setMessage("确定要清空所有历史记录吗？此操作不可恢复！")
                 .setPositiveButton("清空", (dialog, which) -> {
-                    new Thread(() -> {
+                    AppExecutors.get().io().execute(() -> {
                         databaseHelper.deleteAllSensorData();
                         if (getActivity() != null) {
                             getActivity().runOnUiThread(() -> {
@@ -400,16 +452,28 @@ public class HistoryFragment extends Fragment {
                                 Toast.makeText(getContext(), "已清空所有记录", Toast.LENGTH_SHORT).show();
                             });
                         }
-                    }).start();
+                    });
                 })
                 .setNegativeButton("取消", null)
                 .show();
     }
     
+    /**
+     * 只显示指定设备的数据
+     * @param deviceId 设备标识，null 表示全部设备
+     */
+    public void setDeviceFilter(String deviceId) {
+        deviceFilter = deviceId;
+        loadData();
+    }
+    
     /**
      * 添加新数据并刷新显示
      */
     public void addNewData(SensorData data) {
+        if (deviceFilter != null && !deviceFilter.equals(data.getDeviceId())) {
+            return;
+        }
         if (getActivity() != null) {
             getActivity().runOnUiThread(() -> {
                 historyAdapter.addData(data);
@@ -418,6 +482,27 @@ public class HistoryFragment extends Fragment {
         }
     }
     
+    /**
+     * 批量帧的多条数据，整批只刷新一次
+     */
+    public void addNewData(List<SensorData> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        String deviceId = batch.get(0).getDeviceId();
+        if (deviceFilter != null && !deviceFilter.equals(deviceId)) {
+            return;
+        }
+        if (getActivity() != null) {
+            getActivity().runOnUiThread(() -> {
+                for (SensorData data : batch) {
+                    historyAdapter.addData(data);
+                }
+                loadData();
+            });
+        }
+    }
+    
     private int dpToPx(int dp) {
         return (int) (dp * getResources().getDisplayMetrics().density);
     }
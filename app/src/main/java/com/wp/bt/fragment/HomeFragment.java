@@ -21,10 +21,13 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.wp.bt.R;
 import com.wp.bt.adapter.ThresholdAdapter;
+import com.wp.bt.metrics.LatencyHistogram;
+import com.wp.bt.metrics.MetricsRegistry;
 import com.wp.bt.model.SensorData;
 import com.wp.bt.model.ThresholdData;
 import com.wp.bt.model.ThresholdItem;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -47,6 +50,12 @@ public class HomeFragment extends Fragment {
     // 阈值变化回调
     private OnThresholdChangeListener thresholdChangeListener;
     
+    // 拖动滑动条时实时下发，视图创建前设置时先记下
+    private boolean liveAdjust;
+    
+    // 数据卡片刷新耗时
+    private static final LatencyHistogram RENDER_TIMER = MetricsRegistry.get().timer("ui.home.render");
+    
     // 颜色数组，用于不同传感器项
     private static final int[] SENSOR_COLORS = {
             Color.parseColor("#FF5722"), // 橙红
@@ -66,6 +75,12 @@ public class HomeFragment extends Fragment {
      */
     public interface OnThresholdChangeListener {
         void onThresholdChanged(ThresholdItem item, int newValue);
+        
+        /**
+         * 实时调节模式下拖动中的值
+         */
+        default void onThresholdDragged(ThresholdItem item, int newValue) {
+        }
     }
     
     public void setOnThresholdChangeListener(OnThresholdChangeListener listener) {
@@ -106,11 +121,22 @@ public class HomeFragment extends Fragment {
      */
     private void setupThresholdRecyclerView() {
         thresholdAdapter = new ThresholdAdapter();
-        thresholdAdapter.setOnThresholdChangeListener((item, newValue) -> {
-            if (thresholdChangeListener != null) {
-                thresholdChangeListener.onThresholdChanged(item, newValue);
+        thresholdAdapter.setOnThresholdChangeListener(new ThresholdAdapter.OnThresholdChangeListener() {
+            @Override
+            public void onThresholdChanged(ThresholdItem item, int newValue) {
+                if (thresholdChangeListener != null) {
+                    thresholdChangeListener.onThresholdChanged(item, newValue);
+                }
+            }
+            
+            @Override
+            public void onThresholdDragged(ThresholdItem item, int newValue) {
+                if (thresholdChangeListener != null) {
+                    thresholdChangeListener.onThresholdDragged(item, newValue);
+                }
             }
         });
+        thresholdAdapter.setLiveAdjust(liveAdjust);
         
         rvThreshold.setLayoutManager(new LinearLayoutManager(getContext()));
         rvThreshold.setAdapter(thresholdAdapter);
@@ -143,6 +169,7 @@ public class HomeFragment extends Fragment {
         if (getActivity() == null || data == null) return;
         
         getActivity().runOnUiThread(() -> {
+            long start = System.nanoTime();
             // 清空现有视图
             gridSensorData.removeAllViews();
             
@@ -168,6 +195,11 @@ public class HomeFragment extends Fragment {
                 gridSensorData.addView(card, params);
                 colorIndex++;
             }
+            RENDER_TIMER.record(System.nanoTime() - start);
+            
+            if (data.getTrace() != null) {
+                data.getTrace().markRendered();
+            }
         });
     }
     
@@ -254,6 +286,44 @@ public class HomeFragment extends Fragment {
         });
     }
     
+    /**
+     * 当前显示的阈值项，还没收到阈值时为空列表
+     */
+    public List<ThresholdItem> getThresholdItems() {
+        if (thresholdAdapter == null) {
+            return new ArrayList<>();
+        }
+        return thresholdAdapter.getThresholdItems();
+    }
+    
+    /**
+     * 拖动滑动条时是否实时下发
+     */
+    public void setLiveAdjust(boolean liveAdjust) {
+        this.liveAdjust = liveAdjust;
+        if (thresholdAdapter != null) {
+            thresholdAdapter.setLiveAdjust(liveAdjust);
+        }
+    }
+    
+    /**
+     * 指令未生效，该阈值改为显示设备回传的值
+     */
+    public void clearPendingThreshold(String key) {
+        if (thresholdAdapter != null) {
+            thresholdAdapter.clearLocalValue(key);
+        }
+    }
+    
+    /**
+     * 更新单个阈值的显示 (下发后、设备回传前先显示新值)
+     */
+    public void updateThresholdItem(String key, int value) {
+        if (thresholdAdapter != null) {
+            thresholdAdapter.updateItem(key, value);
+        }
+    }
+    
     /**
      * 显示提示消息
      */
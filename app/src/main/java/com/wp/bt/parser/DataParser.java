@@ -1,19 +1,33 @@
 package com.wp.bt.parser;
 
-import android.util.Log;
 
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.FrameTrace;
+import com.wp.bt.metrics.LatencyHistogram;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.metrics.WallClock;
+import com.wp.bt.model.LogChunk;
 import com.wp.bt.model.SensorData;
 import com.wp.bt.model.ThresholdData;
-import com.wp.bt.model.ThresholdItem;
+import com.wp.bt.protocol.BinaryPayloadCodec;
+import com.wp.bt.protocol.PayloadCapabilities;
+import com.wp.bt.protocol.PayloadSchema;
+import com.wp.bt.util.BtLog;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 数据解析器 - 通用版本
  * 负责解析从蓝牙串口接收的JSON数据
+ * JSON到数据模型的转换由 core 模块的 PayloadParser 完成，这里负责日志和回调
  * 支持动态字段，不限制字段数量和名称
  * 
  * 传感器数据格式:
@@ -21,21 +35,55 @@ import java.util.Iterator;
  * 
  * 阈值数据格式:
  * {"Threshold":{"XXX":{"val":xx,"min":xx,"max":xx,"step":xx},...}}
+ * 
+ * 二进制负载 (握手协商后使用，见 PayloadCapabilities):
+ * {"Schema":{...}} 声明字段布局，之后的 ~0100fb... 记录只含数值，
+ * 按 Schema 直接解码为 SensorData，不经过JSON
+ * 
+ * 增量帧 (握手声明 delta1 后设备可能使用):
+ * {"Date":{...},"Key":7} 为关键帧，{"Delta":{...},"Key":7} 只含变化的字段，
+ * 合并到关键帧上后输出完整的 SensorData，见 DeltaMerger
+ * 
+ * 多采样批量帧 (握手声明 batch1 后设备可能使用):
+ * {"Batch":{"keys":[...],"units":[...],"samples":[[t,v,...],...]}}
+ * 一帧解析为多条 SensorData，作为一批交给回调和写库
+ * 
+ * 分帧格式 (FFDD 或长度前缀) 由 FrameDecoder 自动识别，这里收到的都是完整的帧
  */
 public class DataParser {
     
     private static final String TAG = "DataParser";
     
     // JSON键名常量
-    private static final String KEY_DATE = "Date";
-    private static final String KEY_THRESHOLD = "Threshold";
+    private static final String KEY_DATE = PayloadParser.KEY_DATE;
+    private static final String KEY_THRESHOLD = PayloadParser.KEY_THRESHOLD;
+    private static final String KEY_CAPS = PayloadParser.KEY_CAPS;
+    private static final String KEY_SCHEMA = PayloadParser.KEY_SCHEMA;
+    private static final String KEY_DELTA = PayloadParser.KEY_DELTA;
+    private static final String KEY_BATCH = PayloadParser.KEY_BATCH;
+    private static final String KEY_LOG = PayloadParser.KEY_LOG;
     
-    // 值字段
-    private static final String FIELD_VAL = "val";
-    private static final String FIELD_UNIT = "unit";
-    private static final String FIELD_MIN = "min";
-    private static final String FIELD_MAX = "max";
-    private static final String FIELD_STEP = "step";
+    // 运行指标
+    private static final LatencyHistogram PARSE_TIMER = MetricsRegistry.get().timer("parser.parse");
+    private static final Counter PARSED_SENSOR = MetricsRegistry.get().counter("parser.sensor");
+    private static final Counter PARSED_THRESHOLD = MetricsRegistry.get().counter("parser.threshold");
+    private static final Counter ERROR_EMPTY = MetricsRegistry.get().counter("parser.errors.empty");
+    private static final Counter ERROR_JSON = MetricsRegistry.get().counter("parser.errors.json");
+    private static final Counter ERROR_UNKNOWN = MetricsRegistry.get().counter("parser.errors.unknown_format");
+    private static final Counter ERROR_SENSOR = MetricsRegistry.get().counter("parser.errors.sensor");
+    private static final Counter ERROR_THRESHOLD = MetricsRegistry.get().counter("parser.errors.threshold");
+    private static final Counter PARSED_BINARY = MetricsRegistry.get().counter("parser.binary");
+    private static final Counter PARSED_SCHEMA = MetricsRegistry.get().counter("parser.schema");
+    private static final Counter ERROR_BINARY = MetricsRegistry.get().counter("parser.errors.binary");
+    private static final Counter ERROR_NO_SCHEMA = MetricsRegistry.get().counter("parser.errors.unknown_schema");
+    private static final Counter PARSED_DELTA = MetricsRegistry.get().counter("parser.delta");
+    private static final Counter ERROR_DELTA_NO_BASE = MetricsRegistry.get().counter("parser.errors.delta_no_base");
+    private static final Counter PARSED_BATCH = MetricsRegistry.get().counter("parser.batch");
+    private static final Counter PARSED_BATCH_SAMPLES = MetricsRegistry.get().counter("parser.batch_samples");
+    private static final Counter ERROR_BATCH = MetricsRegistry.get().counter("parser.errors.batch");
+    private static final Counter PARSED_LOG_CHUNKS = MetricsRegistry.get().counter("parser.log_chunks");
+    private static final Counter PARSED_LOG_RECORDS = MetricsRegistry.get().counter("parser.log_records");
+    private static final Counter ERROR_LOG = MetricsRegistry.get().counter("parser.errors.log");
     
     /**
      * 解析数据回调接口
@@ -44,10 +92,44 @@ public class DataParser {
         void onSensorDataParsed(SensorData data);
         void onThresholdDataParsed(ThresholdData data);
         void onParseError(String message);
+        
+        /**
+         * 批量帧解析出的多条数据，按采样顺序排列
+         * 默认逐条交给 onSensorDataParsed，需要整批写库的实现应覆盖
+         */
+        default void onSensorBatchParsed(List<SensorData> batch) {
+            for (SensorData data : batch) {
+                onSensorDataParsed(data);
+            }
+        }
+        
+        /**
+         * 设备历史记录分块，由 HistoryDownloader 入库，不进入实时数据流程
+         */
+        default void onLogChunkParsed(LogChunk chunk) {
+        }
     }
     
     private ParseCallback callback;
     
+    // 设备声明的二进制记录布局，按 schema id 查找
+    private final Map<Integer, PayloadSchema> schemas = new ConcurrentHashMap<>();
+    
+    // 握手协商的负载格式，旧设备不回复握手，保持JSON
+    private volatile String payloadMode = PayloadCapabilities.MODE_JSON;
+    
+    // 增量帧合并，只在解析线程访问
+    private final DeltaMerger deltaMerger = new DeltaMerger();
+    
+    // 设备时钟估计，只在解析线程访问
+    private final DeviceClock deviceClock = new DeviceClock();
+    
+    // 握手协商的分帧格式，分帧器由 BluetoothManager 在读线程上切换，这里只用于诊断
+    private volatile String framing = PayloadCapabilities.FRAMING_MARKER;
+    
+    // 握手回复中设备确认的特性，如 FEATURE_THRESHOLD_BATCH，整体替换
+    private volatile Set<String> features = Collections.emptySet();
+    
     public DataParser() {
     }
     
@@ -60,11 +142,24 @@ public class DataParser {
      * 自动判断数据类型并调用相应的解析方法
      */
     public void parse(String rawData) {
+        parse(rawData, null);
+    }
+    
+    /**
+     * 解析接收到的数据，并在帧追踪上记录解析完成时间
+     */
+    public void parse(String rawData, FrameTrace trace) {
         if (rawData == null || rawData.isEmpty()) {
+            ERROR_EMPTY.inc();
             notifyError("数据为空");
             return;
         }
         
+        long start = System.nanoTime();
+        if (BinaryPayloadCodec.isTextRecord(rawData)) {
+            parseBinaryRecord(rawData, trace, start);
+            return;
+        }
         try {
             // 清理数据，移除可能的空白字符
             String cleanData = rawData.trim();
@@ -76,25 +171,247 @@ public class DataParser {
             if (json.has(KEY_DATE)) {
                 // 传感器数据
                 SensorData sensorData = parseSensorData(json, cleanData);
-                if (sensorData != null && callback != null) {
-                    callback.onSensorDataParsed(sensorData);
+                if (sensorData != null) {
+                    // 完整帧同时作为之后增量帧的基准
+                    deltaMerger.onKeyframe(sensorData, PayloadParser.parseKeyframe(json));
                 }
+                dispatchSensorData(sensorData, json, trace, start);
+            } else if (json.has(KEY_DELTA)) {
+                // 增量帧
+                dispatchSensorData(parseDelta(json), json, trace, start);
+            } else if (json.has(KEY_BATCH)) {
+                // 多采样批量帧
+                parseBatch(json, trace, start);
+            } else if (json.has(KEY_LOG)) {
+                // 历史记录分块
+                parseLogChunk(json, cleanData.length(), trace, start);
             } else if (json.has(KEY_THRESHOLD)) {
                 // 阈值数据
                 ThresholdData thresholdData = parseThresholdData(json);
+                PARSE_TIMER.record(System.nanoTime() - start);
+                if (thresholdData != null && trace != null) {
+                    trace.markParsed();
+                }
                 if (thresholdData != null && callback != null) {
                     callback.onThresholdDataParsed(thresholdData);
                 }
+            } else if (json.has(KEY_SCHEMA)) {
+                // 二进制记录布局声明
+                PayloadSchema schema = PayloadParser.parseSchema(json);
+                schemas.put(schema.getId(), schema);
+                PARSED_SCHEMA.inc();
+                BtLog.i(TAG, "二进制记录布局: {}", schema);
+            } else if (json.has(KEY_CAPS)) {
+                // 握手回复
+                payloadMode = PayloadParser.parseCapsMode(json);
+                framing = PayloadParser.parseCapsFraming(json);
+                features = new HashSet<>(PayloadParser.parseCapsFeatures(json));
+                BtLog.i(TAG, "设备负载格式: {}, 分帧: {}", payloadMode, framing);
+                if (!features.isEmpty()) {
+                    BtLog.i(TAG, "设备特性: {}", features);
+                }
             } else {
+                ERROR_UNKNOWN.inc();
                 notifyError("未知的数据格式");
             }
-            
+        
         } catch (JSONException e) {
-            Log.e(TAG, "JSON解析失败: " + rawData, e);
+            ERROR_JSON.inc();
+            BtLog.eLimited(TAG, "parser.json", "JSON解析失败: {}", rawData, e);
             notifyError("JSON解析失败: " + e.getMessage());
         }
     }
     
+    private void dispatchSensorData(SensorData sensorData, JSONObject json, FrameTrace trace, long start) {
+        PARSE_TIMER.record(System.nanoTime() - start);
+        if (sensorData != null) {
+            sensorData.setTimestamp(timestampOf(json, trace));
+        }
+        if (sensorData != null && trace != null) {
+            trace.markParsed();
+            sensorData.setTrace(trace);
+        }
+        if (sensorData != null && callback != null) {
+            callback.onSensorDataParsed(sensorData);
+        }
+    }
+    
+    /**
+     * 解析批量帧，整批交给回调
+     * 帧追踪只挂在最后一条数据上，一帧只统计一次链路延迟
+     */
+    private void parseBatch(JSONObject json, FrameTrace trace, long start) {
+        List<SensorData> batch;
+        try {
+            batch = PayloadParser.parseBatch(json, deviceClock, arrivalMillis(trace));
+        } catch (JSONException e) {
+            ERROR_BATCH.inc();
+            BtLog.eLimited(TAG, "parser.batch", "批量帧解析失败", null, e);
+            notifyError("批量帧解析失败: " + e.getMessage());
+            return;
+        }
+        PARSE_TIMER.record(System.nanoTime() - start);
+        if (batch.isEmpty()) {
+            return;
+        }
+        PARSED_BATCH.inc();
+        PARSED_BATCH_SAMPLES.add(batch.size());
+        PARSED_SENSOR.add(batch.size());
+        if (trace != null) {
+            trace.markParsed();
+            batch.get(batch.size() - 1).setTrace(trace);
+        }
+        if (callback != null) {
+            callback.onSensorBatchParsed(batch);
+        }
+    }
+    
+    /**
+     * 解析历史记录分块
+     * @param byteCount 帧长度，用于统计下载速度
+     */
+    private void parseLogChunk(JSONObject json, int byteCount, FrameTrace trace, long start) {
+        LogChunk chunk;
+        try {
+            chunk = PayloadParser.parseLogChunk(json, deviceClock, arrivalMillis(trace));
+        } catch (JSONException e) {
+            ERROR_LOG.inc();
+            BtLog.eLimited(TAG, "parser.log", "历史记录分块解析失败", null, e);
+            notifyError("历史记录分块解析失败: " + e.getMessage());
+            return;
+        }
+        PARSE_TIMER.record(System.nanoTime() - start);
+        chunk.setByteCount(byteCount);
+        PARSED_LOG_CHUNKS.inc();
+        PARSED_LOG_RECORDS.add(chunk.getRecords().size());
+        if (callback != null) {
+            callback.onLogChunkParsed(chunk);
+        }
+    }
+    
+    /**
+     * 合并增量帧
+     * 还没有关键帧或引用的关键帧已丢失时丢弃，设备的下一个关键帧到达后恢复
+     */
+    private SensorData parseDelta(JSONObject json) throws JSONException {
+        SensorData data = deltaMerger.merge(json.getJSONObject(KEY_DELTA), PayloadParser.parseKeyframe(json));
+        if (data == null) {
+            ERROR_DELTA_NO_BASE.inc();
+            BtLog.eLimited(TAG, "parser.delta", "增量帧没有对应的关键帧, 等待下一个关键帧", null);
+            return null;
+        }
+        PARSED_SENSOR.inc();
+        PARSED_DELTA.inc();
+        return data;
+    }
+    
+    /**
+     * 解析二进制记录
+     * 按记录中的 schema id 取布局，数值直接填入 SensorData
+     */
+    private void parseBinaryRecord(String rawData, FrameTrace trace, long start) {
+        try {
+            byte[] record = BinaryPayloadCodec.fromText(rawData);
+            int schemaId = BinaryPayloadCodec.readSchemaId(record, 0, record.length);
+            PayloadSchema schema = schemas.get(schemaId);
+            if (schema == null) {
+                // 还没收到布局声明 (如连接中途切换了应用)，设备重新握手后会再次声明
+                ERROR_NO_SCHEMA.inc();
+                notifyError("未知的记录布局: " + schemaId);
+                return;
+            }
+            SensorData sensorData = BinaryPayloadCodec.decode(schema, record, 0, record.length);
+            sensorData.setTimestamp(arrivalMillis(trace));
+            PARSE_TIMER.record(System.nanoTime() - start);
+            PARSED_SENSOR.inc();
+            PARSED_BINARY.inc();
+            if (trace != null) {
+                trace.markParsed();
+                sensorData.setTrace(trace);
+            }
+            if (callback != null) {
+                callback.onSensorDataParsed(sensorData);
+            }
+        } catch (IllegalArgumentException e) {
+            ERROR_BINARY.inc();
+            BtLog.eLimited(TAG, "parser.binary", "二进制记录解析失败: {}", rawData, e);
+            notifyError("二进制记录解析失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 帧尾到达时的系统时间
+     * 在读线程按单调时钟记录，不受主线程排队和解析耗时影响；没有帧追踪时取当前时间
+     */
+    private static long arrivalMillis(FrameTrace trace) {
+        return trace != null ? WallClock.toWallMillis(trace.getArrivalNanos()) : WallClock.nowMillis();
+    }
+    
+    /**
+     * 传感器数据的时间戳
+     * 帧带设备时间时计入设备时钟估计，按设备时钟换算，消除链路延迟抖动；否则取到达时间
+     */
+    private long timestampOf(JSONObject json, FrameTrace trace) {
+        long arrival = arrivalMillis(trace);
+        long deviceTime = PayloadParser.parseDeviceTime(json);
+        if (deviceTime == PayloadParser.NO_DEVICE_TIME) {
+            return arrival;
+        }
+        deviceClock.update(deviceTime, arrival);
+        return deviceClock.toWallMillis(deviceTime);
+    }
+    
+    /**
+     * 设备时钟相对手机的偏差 (毫秒)，帧不带设备时间时为 0
+     */
+    public long getClockOffsetMillis() {
+        return deviceClock.getOffsetMillis();
+    }
+    
+    /**
+     * 设备时钟漂移 (ppm)
+     */
+    public double getClockDriftPpm() {
+        return deviceClock.getDriftPpm();
+    }
+    
+    /**
+     * 握手协商的负载格式，见 PayloadCapabilities
+     */
+    public String getPayloadMode() {
+        return payloadMode;
+    }
+    
+    /**
+     * 握手协商的分帧格式，见 PayloadCapabilities
+     */
+    public String getFraming() {
+        return framing;
+    }
+    
+    /**
+     * 设备是否在握手回复中确认了该特性，见 PayloadCapabilities
+     */
+    public boolean isFeatureEnabled(String feature) {
+        return features.contains(feature);
+    }
+    
+    /**
+     * 清除握手结果、记录布局、增量帧基准和设备时钟估计 (断开连接时调用)
+     */
+    public void reset() {
+        schemas.clear();
+        deltaMerger.reset();
+        if (deviceClock.isSynced()) {
+            BtLog.i(TAG, "设备时钟偏差: {} ms, 漂移: {} ppm",
+                    deviceClock.getOffsetMillis(), Math.round(deviceClock.getDriftPpm()));
+        }
+        deviceClock.reset();
+        payloadMode = PayloadCapabilities.MODE_JSON;
+        framing = PayloadCapabilities.FRAMING_MARKER;
+        features = Collections.emptySet();
+    }
+    
     /**
      * 解析传感器数据 - 通用版本
      * 动态遍历所有字段，不限制字段名称和数量
@@ -102,33 +419,14 @@ public class DataParser {
      */
     private SensorData parseSensorData(JSONObject json, String rawJson) {
         try {
-            JSONObject dateObj = json.getJSONObject(KEY_DATE);
-            SensorData data = new SensorData();
-            data.setRawJson(rawJson);
-            
-            // 动态遍历所有字段
-            Iterator<String> keys = dateObj.keys();
-            while (keys.hasNext()) {
-                String key = keys.next();
-                Object valueObj = dateObj.get(key);
-                
-                if (valueObj instanceof JSONObject) {
-                    // 标准格式: {"val":xx,"unit":"xx"}
-                    JSONObject itemObj = (JSONObject) valueObj;
-                    String value = String.valueOf(itemObj.opt(FIELD_VAL));
-                    String unit = itemObj.optString(FIELD_UNIT, "");
-                    data.addItem(key, value, unit);
-                } else {
-                    // 简单格式: 直接是值
-                    data.addItem(key, String.valueOf(valueObj), "");
-                }
-            }
-            
-            Log.d(TAG, "传感器数据解析成功: " + data);
+            SensorData data = PayloadParser.parseSensorData(json, rawJson);
+            PARSED_SENSOR.inc();
+            BtLog.d(TAG, "传感器数据解析成功: {}", data);
             return data;
-            
+        
         } catch (JSONException e) {
-            Log.e(TAG, "传感器数据解析失败", e);
+            ERROR_SENSOR.inc();
+            BtLog.eLimited(TAG, "parser.sensor", "传感器数据解析失败", null, e);
             notifyError("传感器数据解析失败: " + e.getMessage());
             return null;
         }
@@ -141,47 +439,14 @@ public class DataParser {
      */
     private ThresholdData parseThresholdData(JSONObject json) {
         try {
-            JSONObject thresholdObj = json.getJSONObject(KEY_THRESHOLD);
-            ThresholdData data = new ThresholdData();
-            
-            // 动态遍历所有阈值项
-            Iterator<String> keys = thresholdObj.keys();
-            while (keys.hasNext()) {
-                String key = keys.next();
-                Object valueObj = thresholdObj.get(key);
-                
-                ThresholdItem item = new ThresholdItem();
-                item.setKey(key);
-                item.setName(key); // 直接使用原始键名作为显示名称
-                
-                if (valueObj instanceof JSONObject) {
-                    JSONObject itemObj = (JSONObject) valueObj;
-                    item.setValue(itemObj.optInt(FIELD_VAL, 0));
-                    item.setMin(itemObj.optInt(FIELD_MIN, 0));
-                    item.setMax(itemObj.optInt(FIELD_MAX, 100));
-                    item.setStep(itemObj.optInt(FIELD_STEP, 1));
-                    item.setUnit(itemObj.optString(FIELD_UNIT, ""));
-                } else {
-                    // 简单格式
-                    try {
-                        item.setValue(Integer.parseInt(String.valueOf(valueObj)));
-                    } catch (NumberFormatException e) {
-                        item.setValue(0);
-                    }
-                    item.setMin(0);
-                    item.setMax(100);
-                    item.setStep(1);
-                    item.setUnit("");
-                }
-                
-                data.addThresholdItem(item);
-            }
-            
-            Log.d(TAG, "阈值数据解析成功: " + data);
+            ThresholdData data = PayloadParser.parseThresholdData(json);
+            PARSED_THRESHOLD.inc();
+            BtLog.d(TAG, "阈值数据解析成功: {}", data);
             return data;
-            
+        
         } catch (JSONException e) {
-            Log.e(TAG, "阈值数据解析失败", e);
+            ERROR_THRESHOLD.inc();
+            BtLog.eLimited(TAG, "parser.threshold", "阈值数据解析失败", null, e);
             notifyError("阈值数据解析失败: " + e.getMessage());
             return null;
         }
@@ -191,7 +456,7 @@ public class DataParser {
      * 通知解析错误
      */
     private void notifyError(String message) {
-        Log.e(TAG, message);
+        BtLog.eLimited(TAG, "parser.error", "{}", message);
         if (callback != null) {
             callback.onParseError(message);
         }
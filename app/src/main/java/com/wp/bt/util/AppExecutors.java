@@ -0,0 +1,104 @@
+package com.wp.bt.util;
+
+import android.os.Process;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局线程池
+ * 替代各处直接 new Thread 的写法，所有后台任务统一提交到这里
+ *
+ * io      - 单线程写库，保证写入顺序
+ * query   - 数据库查询
+ */
+public final class AppExecutors {
+    
+    private static final String TAG = "AppExecutors";
+    
+    // 关闭时等待写库任务完成的最长时间
+    private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+    
+    private static AppExecutors instance;
+    
+    private final NamedThreadPool io;
+    private final NamedThreadPool query;
+    
+    /**
+     * 获取实例，已关闭时重新创建
+     */
+    public static synchronized AppExecutors get() {
+        if (instance == null || instance.isShutdown()) {
+            instance = new AppExecutors();
+        }
+        return instance;
+    }
+    
+    private AppExecutors() {
+        // 写库: 单线程保证顺序，队列无界，宁可占内存也不丢数据；
+        // 不能用 CallerRunsPolicy，由调用方执行会越过队列中的写入，破坏顺序；
+        // 也不能阻塞提交方，写库任务会在 io 线程上继续提交 (如分批迁移)
+        // 写入在 SensorDataWriter 中合批，队列长度在 getStatsSummary 中可见；只在关闭后拒绝，直接丢弃
+        io = new NamedThreadPool("io", 1, NamedThreadPool.UNBOUNDED,
+                Process.THREAD_PRIORITY_BACKGROUND,
+                new ThreadPoolExecutor.DiscardPolicy());
+        
+        // 查询: 队列满时抛出 RejectedExecutionException，由调用方决定是否重试
+        query = new NamedThreadPool("query", 2, 16,
+                Process.THREAD_PRIORITY_BACKGROUND,
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    public NamedThreadPool io() {
+        return io;
+    }
+    
+    public NamedThreadPool query() {
+        return query;
+    }
+    
+    private boolean isShutdown() {
+        return io.isShutdown() || query.isShutdown();
+    }
+    
+    /**
+     * 所有线程池的统计摘要
+     */
+    public String getStatsSummary() {
+        return io.getStatsSummary() + "\n"
+                + query.getStatsSummary();
+    }
+    
+    /**
+     * 关闭全局线程池
+     * 查询任务直接取消，写库任务继续执行完毕；
+     * 在后台线程上等待写库结束，超时后取消剩余任务，调用方 (主线程) 不阻塞
+     */
+    public static void shutdown() {
+        AppExecutors executors;
+        synchronized (AppExecutors.class) {
+            executors = instance;
+            instance = null;
+        }
+        if (executors == null) {
+            return;
+        }
+        
+        BtLog.d(TAG, "关闭线程池\n{}", executors.getStatsSummary());
+        executors.query.shutdownNow();
+        NamedThreadPool io = executors.io;
+        io.shutdown();
+        Thread waiter = new Thread(() -> {
+            try {
+                if (!io.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    BtLog.w(TAG, "写库任务未在超时内完成, 剩余 {} 个", io.getQueuedCount());
+                    io.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                io.shutdownNow();
+            }
+        }, "io-shutdown");
+        waiter.setDaemon(true);
+        waiter.start();
+    }
+}
@@ -0,0 +1,316 @@
+package com.wp.bt.util;
+
+import android.util.Log;
+
+import com.wp.bt.BuildConfig;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 日志门面
+ * 替代直接调用 android.util.Log，热路径上不再无条件拼接字符串:
+ *
+ * 1. 级别控制: release 包编译期关闭 VERBOSE/DEBUG (DEBUG_ENABLED 为常量)，
+ *    运行时再由 setMinLevel 控制
+ * 2. 延迟格式化: 消息使用 {} 占位符或 Supplier，只有级别开启时才生成字符串
+ * 3. 限流: 同一 key 的日志在时间窗口内超过上限后被忽略，下次输出时附带忽略条数
+ * 4. 环形缓冲: 保留最近的日志事件，用于诊断界面和问题反馈
+ *
+ * 用法:
+ *   BtLog.d(TAG, "收到数据: {}", data);
+ *   BtLog.d(TAG, () -> "统计: " + buildReport());
+ *   BtLog.eLimited(TAG, "parse", "JSON解析失败: {}", raw, e);
+ */
+public final class BtLog {
+
+    /**
+     * 编译期开关: release 包中 DEBUG 以下级别的调用会被整段消除
+     */
+    public static final boolean DEBUG_ENABLED = BuildConfig.DEBUG;
+
+    // 限流: 每个 key 在一个窗口内最多输出的条数
+    private static final long RATE_WINDOW_MS = 5000;
+    private static final int RATE_MAX_PER_WINDOW = 5;
+
+    // 环形缓冲容量
+    private static final int RING_CAPACITY = 256;
+
+    private static volatile int minLevel = DEBUG_ENABLED ? Log.DEBUG : Log.INFO;
+    private static volatile boolean ringEnabled = true;
+
+    private static final Map<String, RateLimit> rateLimits = new ConcurrentHashMap<>();
+    private static final Entry[] ring = new Entry[RING_CAPACITY];
+    private static long ringWrites;
+
+    /**
+     * 环形缓冲中的一条日志
+     */
+    private static final class Entry {
+        final long timeMillis;
+        final int level;
+        final String tag;
+        final String message;
+
+        Entry(long timeMillis, int level, String tag, String message) {
+            this.timeMillis = timeMillis;
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+        }
+    }
+
+    /**
+     * 单个 key 的限流状态
+     */
+    private static final class RateLimit {
+        long windowStart;
+        int count;
+        int suppressed;
+    }
+
+    private BtLog() {
+    }
+
+    // ==================== 级别控制 ====================
+
+    /**
+     * 设置最低输出级别，取值为 android.util.Log 的 VERBOSE..ERROR
+     */
+    public static void setMinLevel(int level) {
+        minLevel = level;
+    }
+
+    public static int getMinLevel() {
+        return minLevel;
+    }
+
+    public static boolean isLoggable(int level) {
+        if (level < Log.INFO && !DEBUG_ENABLED) {
+            return false;
+        }
+        return level >= minLevel;
+    }
+
+    public static void setRingBufferEnabled(boolean enabled) {
+        ringEnabled = enabled;
+    }
+
+    // ==================== VERBOSE / DEBUG ====================
+
+    public static void v(String tag, String format, Object arg) {
+        if (DEBUG_ENABLED && isLoggable(Log.VERBOSE)) {
+            write(Log.VERBOSE, tag, format(format, arg, null), null);
+        }
+    }
+
+    public static void d(String tag, String message) {
+        if (DEBUG_ENABLED && isLoggable(Log.DEBUG)) {
+            write(Log.DEBUG, tag, message, null);
+        }
+    }
+
+    public static void d(String tag, String format, Object arg) {
+        if (DEBUG_ENABLED && isLoggable(Log.DEBUG)) {
+            write(Log.DEBUG, tag, format(format, arg, null), null);
+        }
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        if (DEBUG_ENABLED && isLoggable(Log.DEBUG)) {
+            write(Log.DEBUG, tag, format(format, arg1, arg2), null);
+        }
+    }
+
+    public static void d(String tag, Supplier<String> message) {
+        if (DEBUG_ENABLED && isLoggable(Log.DEBUG)) {
+            write(Log.DEBUG, tag, message.get(), null);
+        }
+    }
+
+    // ==================== INFO / WARN / ERROR ====================
+
+    public static void i(String tag, String message) {
+        if (isLoggable(Log.INFO)) {
+            write(Log.INFO, tag, message, null);
+        }
+    }
+
+    public static void i(String tag, String format, Object arg) {
+        if (isLoggable(Log.INFO)) {
+            write(Log.INFO, tag, format(format, arg, null), null);
+        }
+    }
+
+    public static void i(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(Log.INFO)) {
+            write(Log.INFO, tag, format(format, arg1, arg2), null);
+        }
+    }
+
+    public static void i(String tag, Supplier<String> message) {
+        if (isLoggable(Log.INFO)) {
+            write(Log.INFO, tag, message.get(), null);
+        }
+    }
+
+    public static void w(String tag, String message) {
+        if (isLoggable(Log.WARN)) {
+            write(Log.WARN, tag, message, null);
+        }
+    }
+
+    public static void w(String tag, String format, Object arg) {
+        if (isLoggable(Log.WARN)) {
+            write(Log.WARN, tag, format(format, arg, null), null);
+        }
+    }
+
+    public static void w(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(Log.WARN)) {
+            write(Log.WARN, tag, format(format, arg1, arg2), null);
+        }
+    }
+
+    public static void e(String tag, String message) {
+        if (isLoggable(Log.ERROR)) {
+            write(Log.ERROR, tag, message, null);
+        }
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        if (isLoggable(Log.ERROR)) {
+            write(Log.ERROR, tag, message, error);
+        }
+    }
+
+    public static void e(String tag, String format, Object arg) {
+        if (isLoggable(Log.ERROR)) {
+            write(Log.ERROR, tag, format(format, arg, null), null);
+        }
+    }
+
+    /**
+     * 限流的错误日志，用于每帧都可能重复出现的错误 (如解析失败)
+     * @param key 限流分组，同一 key 共享配额
+     */
+    public static void eLimited(String tag, String key, String format, Object arg, Throwable error) {
+        if (!isLoggable(Log.ERROR)) {
+            return;
+        }
+        int suppressed = acquire(key);
+        if (suppressed < 0) {
+            return;
+        }
+        String message = format(format, arg, null);
+        if (suppressed > 0) {
+            message += " (已忽略 " + suppressed + " 条重复日志)";
+        }
+        write(Log.ERROR, tag, message, error);
+    }
+
+    public static void eLimited(String tag, String key, String format, Object arg) {
+        eLimited(tag, key, format, arg, null);
+    }
+
+    /**
+     * 申请一次输出配额
+     * @return -1 表示被限流; 否则为上一窗口中被忽略的条数
+     */
+    private static int acquire(String key) {
+        RateLimit limit = rateLimits.computeIfAbsent(key, k -> new RateLimit());
+        long now = System.currentTimeMillis();
+        synchronized (limit) {
+            if (now - limit.windowStart >= RATE_WINDOW_MS) {
+                limit.windowStart = now;
+                limit.count = 0;
+            }
+            if (limit.count >= RATE_MAX_PER_WINDOW) {
+                limit.suppressed++;
+                return -1;
+            }
+            limit.count++;
+            int suppressed = limit.suppressed;
+            limit.suppressed = 0;
+            return suppressed;
+        }
+    }
+
+    // ==================== 输出 ====================
+
+    private static void write(int level, String tag, String message, Throwable error) {
+        if (error != null) {
+            Log.println(level, tag, message + '\n' + Log.getStackTraceString(error));
+        } else {
+            Log.println(level, tag, message);
+        }
+        if (ringEnabled) {
+            String text = error != null ? message + ": " + error : message;
+            synchronized (ring) {
+                ring[(int) (ringWrites++ % RING_CAPACITY)] =
+                        new Entry(System.currentTimeMillis(), level, tag, text);
+            }
+        }
+    }
+
+    /**
+     * 替换 {} 占位符，最多两个参数
+     */
+    private static String format(String format, Object arg1, Object arg2) {
+        int first = format.indexOf("{}");
+        if (first < 0) {
+            return format;
+        }
+        StringBuilder sb = new StringBuilder(format.length() + 32);
+        sb.append(format, 0, first).append(arg1);
+        int second = format.indexOf("{}", first + 2);
+        if (second < 0) {
+            sb.append(format, first + 2, format.length());
+        } else {
+            sb.append(format, first + 2, second).append(arg2)
+              .append(format, second + 2, format.length());
+        }
+        return sb.toString();
+    }
+
+    // ==================== 环形缓冲 ====================
+
+    /**
+     * 最近的日志事件，按时间先后排列
+     */
+    public static String dumpRecent() {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        StringBuilder sb = new StringBuilder();
+        synchronized (ring) {
+            long start = Math.max(0, ringWrites - RING_CAPACITY);
+            for (long i = start; i < ringWrites; i++) {
+                Entry entry = ring[(int) (i % RING_CAPACITY)];
+                sb.append(timeFormat.format(new Date(entry.timeMillis)))
+                  .append(' ').append(levelChar(entry.level))
+                  .append('/').append(entry.tag)
+                  .append(": ").append(entry.message).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    public static void clearRecent() {
+        synchronized (ring) {
+            ringWrites = 0;
+        }
+    }
+
+    private static char levelChar(int level) {
+        switch (level) {
+            case Log.VERBOSE: return 'V';
+            case Log.DEBUG: return 'D';
+            case Log.INFO: return 'I';
+            case Log.WARN: return 'W';
+            default: return 'E';
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.wp.bt.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.metrics.MetricsSnapshot;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 运行指标定时导出
+ * 按固定间隔把 MetricsRegistry 快照追加写入应用私有目录:
+ *   metrics.jsonl - 每行一个JSON快照
+ *   metrics.csv   - 每个指标一行
+ * 写文件在 io 线程执行，单个文件超过上限时轮转为 .1
+ */
+public class MetricsDumper {
+
+    private static final String TAG = "MetricsDumper";
+
+    private static final String JSON_FILE = "metrics.jsonl";
+    private static final String CSV_FILE = "metrics.csv";
+
+    // 单个文件大小上限
+    private static final long MAX_FILE_BYTES = 1024 * 1024;
+
+    private final File dir;
+    private final long intervalMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private MetricsSnapshot previous;
+    private boolean running;
+
+    private final Runnable dumpTask = new Runnable() {
+        @Override
+        public void run() {
+            dumpNow();
+            handler.postDelayed(this, intervalMs);
+        }
+    };
+
+    public MetricsDumper(File dir, long intervalMs) {
+        this.dir = dir;
+        this.intervalMs = intervalMs;
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        previous = MetricsRegistry.get().snapshot();
+        handler.postDelayed(dumpTask, intervalMs);
+    }
+
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(dumpTask);
+    }
+
+    /**
+     * 立即导出一次，需在主线程调用
+     */
+    public void dumpNow() {
+        MetricsSnapshot snapshot = MetricsRegistry.get().snapshot();
+        MetricsSnapshot last = previous;
+        previous = snapshot;
+
+        // 直方图在写文件时才读取，格式化放到 io 线程
+        AppExecutors.get().io().execute(() -> {
+            try {
+                if (!dir.exists()) {
+                    dir.mkdirs();
+                }
+                append(new File(dir, JSON_FILE), null, snapshot.toJson(last) + "\n");
+                append(new File(dir, CSV_FILE), MetricsSnapshot.csvHeader() + "\n", snapshot.toCsv(last));
+            } catch (IOException e) {
+                BtLog.e(TAG, "导出运行指标失败", e);
+            }
+        });
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    private static void append(File file, String header, String content) throws IOException {
+        if (file.length() > MAX_FILE_BYTES) {
+            File rotated = new File(file.getPath() + ".1");
+            rotated.delete();
+            file.renameTo(rotated);
+        }
+        boolean writeHeader = header != null && !file.exists();
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            if (writeHeader) {
+                writer.write(header);
+            }
+            writer.write(content);
+        }
+    }
+}
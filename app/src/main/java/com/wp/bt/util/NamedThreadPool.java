@@ -0,0 +1,110 @@
+package com.wp.bt.util;
+
+import android.os.Process;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带名称和统计的线程池
+ * 线程命名为 "名称-序号"，队列有界时拒绝任务会计数后交给指定的拒绝策略，
+ * 容量为 UNBOUNDED 时队列无界，只在关闭后拒绝
+ */
+public class NamedThreadPool extends ThreadPoolExecutor {
+    
+    private static final String TAG = "NamedThreadPool";
+    
+    // 无界队列的容量
+    public static final int UNBOUNDED = 0;
+    
+    private final String name;
+    private final int queueCapacity;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    
+    public NamedThreadPool(String name, int threads, int queueCapacity, int threadPriority,
+                           RejectedExecutionHandler rejectionPolicy) {
+        super(threads, threads, 30, TimeUnit.SECONDS,
+                createQueue(queueCapacity),
+                new PoolThreadFactory(name, threadPriority));
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        // 空闲线程允许回收，避免后台常驻
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler((r, executor) -> {
+            rejectedCount.incrementAndGet();
+            if (!executor.isShutdown()) {
+                BtLog.eLimited(TAG, "pool." + name, "{} 线程池已满，执行拒绝策略", name);
+            }
+            rejectionPolicy.rejectedExecution(r, executor);
+        });
+    }
+    
+    private static BlockingQueue<Runnable> createQueue(int capacity) {
+        return capacity == UNBOUNDED ? new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(capacity);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * 等待执行的任务数
+     */
+    public int getQueuedCount() {
+        return getQueue().size();
+    }
+    
+    /**
+     * 队列容量，无界时为 UNBOUNDED
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+    
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+    
+    /**
+     * 统计摘要
+     */
+    public String getStatsSummary() {
+        return String.format(Locale.US,
+                "%s: active=%d, queued=%d/%s, completed=%d, rejected=%d, threads=%d",
+                name, getActiveCount(), getQueuedCount(),
+                queueCapacity == UNBOUNDED ? "unbounded" : String.valueOf(queueCapacity),
+                getCompletedTaskCount(), getRejectedCount(), getPoolSize());
+    }
+    
+    /**
+     * 线程工厂 - 设置名称和优先级
+     */
+    private static class PoolThreadFactory implements ThreadFactory {
+        private final String name;
+        private final int priority;
+        private final AtomicInteger index = new AtomicInteger(1);
+        
+        PoolThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(priority);
+                r.run();
+            }, name + "-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.wp.bt.benchmark;
+
+import com.wp.bt.protocol.FrameDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ * 分帧基准: 把按1KB切分的帧流送入 FrameDecoder
+ * 结果为每秒处理的帧数
+ * framing=ffdd 为逐字节查找结束标记，len1 为长度前缀分帧 (带 CRC)
+ */
+@State(Scope.Thread)
+public class FrameScanBenchmark {
+    
+    private static final int FRAMES = 64;
+    
+    @Param({"5", "20", "100"})
+    public int keyCount;
+    
+    @Param({"ffdd", "len1"})
+    public String framing;
+    
+    private List<byte[]> chunks;
+    private FrameDecoder decoder;
+    private Blackhole blackhole;
+    
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        chunks = "len1".equals(framing)
+                ? Payloads.lengthFrameStreamChunks(keyCount, FRAMES, 42)
+                : Payloads.markerFrameStreamChunks(keyCount, FRAMES, 42);
+        decoder = new FrameDecoder((frame, trace) -> this.blackhole.consume(frame));
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int scan() {
+        int frames = 0;
+        long now = System.nanoTime();
+        for (byte[] chunk : chunks) {
+            frames += decoder.feed(chunk, 0, chunk.length, now);
+        }
+        return frames;
+    }
+}
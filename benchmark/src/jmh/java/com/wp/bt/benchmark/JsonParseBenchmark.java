@@ -0,0 +1,43 @@
+package com.wp.bt.benchmark;
+
+import com.wp.bt.model.SensorData;
+import com.wp.bt.parser.PayloadParser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * JSON解析基准
+ * tokenize      - 只构建 JSONObject
+ * parseSensor   - JSONObject + 转换为 SensorData，与 DataParser 路径一致
+ */
+@State(Scope.Thread)
+public class JsonParseBenchmark {
+    
+    @Param({"5", "20", "100"})
+    public int keyCount;
+    
+    private String payload;
+    
+    @Setup
+    public void setUp() {
+        payload = Payloads.sensorJson(keyCount, new Random(42));
+    }
+    
+    @Benchmark
+    public JSONObject tokenize() throws JSONException {
+        return new JSONObject(payload);
+    }
+    
+    @Benchmark
+    public SensorData parseSensor() throws JSONException {
+        return PayloadParser.parseSensorData(new JSONObject(payload), payload);
+    }
+}
@@ -0,0 +1,71 @@
+package com.wp.bt.benchmark;
+
+import com.wp.bt.model.SensorData;
+import com.wp.bt.parser.PayloadParser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 数据模型构建基准
+ * build         - 从已解析的键值直接构建 SensorData
+ * fillFromDate  - 从 Date 对象填充，与 DatabaseHelper 读库路径一致
+ * itemList      - 界面刷新时获取数据项列表
+ */
+@State(Scope.Thread)
+public class ModelBuildBenchmark {
+    
+    @Param({"5", "20", "100"})
+    public int keyCount;
+    
+    private String[] keys;
+    private String[] values;
+    private String[] units;
+    private JSONObject dateObj;
+    private SensorData prebuilt;
+    
+    @Setup
+    public void setUp() throws JSONException {
+        Random random = new Random(42);
+        keys = new String[keyCount];
+        values = new String[keyCount];
+        units = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = Payloads.key(i);
+            values[i] = Payloads.value(random, i);
+            units[i] = Payloads.unit(i);
+        }
+        String payload = Payloads.sensorJson(keyCount, random);
+        dateObj = new JSONObject(payload).getJSONObject(PayloadParser.KEY_DATE);
+        prebuilt = build();
+    }
+    
+    @Benchmark
+    public SensorData build() {
+        SensorData data = new SensorData();
+        for (int i = 0; i < keys.length; i++) {
+            data.addItem(keys[i], values[i], units[i]);
+        }
+        return data;
+    }
+    
+    @Benchmark
+    public SensorData fillFromDate() throws JSONException {
+        SensorData data = new SensorData();
+        PayloadParser.fillSensorItems(data, dateObj);
+        return data;
+    }
+    
+    @Benchmark
+    public List<SensorData.SensorItem> itemList() {
+        return prebuilt.getItemList();
+    }
+}
@@ -0,0 +1,106 @@
+package com.wp.bt.benchmark;
+
+import com.wp.bt.protocol.LengthFrame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 基准测试用的数据负载
+ * 按设备实际格式生成: {"Date":{"XXX":{"val":xx,"unit":"xx"},...}}FFDD
+ */
+final class Payloads {
+    
+    // 串口单次读取的数据块大小，与 BluetoothManager.ReadThread 一致
+    static final int READ_CHUNK_SIZE = 1024;
+    
+    private static final String[] NAMES = {"Temp", "Hum", "Light", "CO2", "Volt", "Curr", "Press", "Soil"};
+    private static final String[] UNITS = {"℃", "%", "lux", "ppm", "V", "A", "kPa", "%"};
+    
+    private Payloads() {
+    }
+    
+    static String key(int index) {
+        return NAMES[index % NAMES.length] + (index / NAMES.length);
+    }
+    
+    static String unit(int index) {
+        return UNITS[index % UNITS.length];
+    }
+    
+    static String value(Random random, int index) {
+        return String.format(Locale.US, "%.1f", random.nextDouble() * 100);
+    }
+    
+    /**
+     * 生成一帧传感器数据JSON (不含结束标记)
+     */
+    static String sensorJson(int keyCount, Random random) {
+        StringBuilder sb = new StringBuilder("{\"Date\":{");
+        for (int i = 0; i < keyCount; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(key(i)).append("\":{\"val\":")
+              .append(value(random, i))
+              .append(",\"unit\":\"").append(unit(i)).append("\"}");
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+    
+    /**
+     * 生成连续的帧流，并按读取块大小切分
+     */
+    static List<String> frameStreamChunks(int keyCount, int frameCount, long seed) {
+        Random random = new Random(seed);
+        StringBuilder stream = new StringBuilder();
+        for (int i = 0; i < frameCount; i++) {
+            stream.append(sensorJson(keyCount, random)).append("FFDD");
+        }
+        
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < stream.length(); i += READ_CHUNK_SIZE) {
+            chunks.add(stream.substring(i, Math.min(stream.length(), i + READ_CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+    
+    /**
+     * 生成连续的长度前缀帧流 (带 CRC)，并按读取块大小切分
+     */
+    static List<byte[]> lengthFrameStreamChunks(int keyCount, int frameCount, long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < frameCount; i++) {
+            byte[] payload = sensorJson(keyCount, random).getBytes(StandardCharsets.UTF_8);
+            byte[] frame = LengthFrame.encode(LengthFrame.TYPE_SENSOR, payload, true);
+            stream.write(frame, 0, frame.length);
+        }
+        return split(stream.toByteArray());
+    }
+    
+    /**
+     * 生成连续的 FFDD 帧流，按 UTF-8 编码后按读取块大小切分
+     */
+    static List<byte[]> markerFrameStreamChunks(int keyCount, int frameCount, long seed) {
+        StringBuilder stream = new StringBuilder();
+        for (String chunk : frameStreamChunks(keyCount, frameCount, seed)) {
+            stream.append(chunk);
+        }
+        return split(stream.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static List<byte[]> split(byte[] stream) {
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < stream.length; i += READ_CHUNK_SIZE) {
+            chunks.add(Arrays.copyOfRange(stream, i, Math.min(stream.length, i + READ_CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,84 @@
+package com.wp.bt.benchmark;
+
+import com.wp.bt.capture.CaptureWriter;
+import com.wp.bt.capture.ReplaySource;
+import com.wp.bt.parser.PayloadParser;
+import com.wp.bt.protocol.FrameDecoder;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 抓包回放基准: 以最快速度回放抓包文件，经过分帧和解析
+ * 默认使用合成的抓包，可通过 -Dbt.capture=文件路径 使用现场抓包
+ * 结果为每秒回放的完整抓包文件数
+ */
+@State(Scope.Thread)
+public class ReplayBenchmark {
+    
+    private static final int FRAMES = 256;
+    
+    @Param({"20"})
+    public int keyCount;
+    
+    private File captureFile;
+    private boolean generated;
+    private FrameDecoder decoder;
+    
+    @Setup
+    public void setUp(Blackhole blackhole) throws IOException {
+        String path = System.getProperty("bt.capture");
+        if (path != null) {
+            captureFile = new File(path);
+        } else {
+            captureFile = File.createTempFile("replay", ".btcap");
+            generated = true;
+            List<String> chunks = Payloads.frameStreamChunks(keyCount, FRAMES, 42);
+            try (CaptureWriter writer = new CaptureWriter(captureFile)) {
+                long nanos = System.nanoTime();
+                for (String chunk : chunks) {
+                    byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+                    writer.write(bytes, 0, bytes.length, nanos);
+                    nanos += 1_000_000;
+                }
+            }
+        }
+        
+        decoder = new FrameDecoder((frame, trace) -> {
+            try {
+                JSONObject json = new JSONObject(frame);
+                if (json.has(PayloadParser.KEY_DATE)) {
+                    blackhole.consume(PayloadParser.parseSensorData(json, frame));
+                }
+            } catch (JSONException e) {
+                blackhole.consume(e);
+            }
+        });
+    }
+    
+    @TearDown
+    public void tearDown() {
+        if (generated) {
+            captureFile.delete();
+        }
+    }
+    
+    @Benchmark
+    public long replay() throws IOException {
+        ReplaySource source = new ReplaySource(captureFile, false,
+                (data, length, arrivalNanos) -> decoder.feed(data, 0, length, arrivalNanos));
+        return source.replay();
+    }
+}
@@ -0,0 +1,108 @@
+package com.wp.bt.benchmark;
+
+import com.wp.bt.metrics.PipelineTracer;
+import com.wp.bt.model.SensorData;
+import com.wp.bt.parser.PayloadParser;
+import com.wp.bt.protocol.FrameDecoder;
+import com.wp.bt.sim.DeviceSimulator;
+import com.wp.bt.sim.SimulatorConfig;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 长时间运行/吞吐测试
+ * 模拟设备通过本地Socket发送数据，按应用相同的方式读取、分帧、解析，
+ * 频率逐步升高，用于找到纯Java处理链路的饱和点
+ *
+ * 运行: ./gradlew :benchmark:soak -Pkeys=20 -Prate=100 -Pstep=100 -Pseconds=60
+ */
+public class SoakRunner {
+    
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 100;
+        double step = args.length > 2 ? Double.parseDouble(args[2]) : 100;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        
+        SimulatorConfig config = SimulatorConfig.builder()
+                .keyCount(keys)
+                .frameRateHz(rate)
+                .ramp(step, 2000)
+                .chunkSize(32, 512)
+                .jitterMs(1)
+                .malformedRatio(0.001)
+                .build();
+        
+        AtomicLong processed = new AtomicLong();
+        AtomicLong parseErrors = new AtomicLong();
+        
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            DeviceSimulator simulator = new DeviceSimulator(config);
+            Thread acceptThread = new Thread(() -> {
+                try {
+                    Socket device = server.accept();
+                    simulator.start(device.getOutputStream(), device.getInputStream());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "soak-accept");
+            acceptThread.start();
+            
+            try (Socket socket = new Socket(server.getInetAddress(), server.getLocalPort())) {
+                acceptThread.join();
+                Thread reader = new Thread(() -> readLoop(socket, processed, parseErrors), "soak-reader");
+                reader.setDaemon(true);
+                reader.start();
+                
+                for (int i = 0; i < seconds; i++) {
+                    Thread.sleep(1000);
+                    System.out.println(simulator.getSummary(processed.get())
+                            + " parseErrors=" + parseErrors.get());
+                }
+                simulator.stop();
+            }
+        }
+        
+        System.out.println();
+        System.out.print(PipelineTracer.get().getReport());
+    }
+    
+    /**
+     * 与 BluetoothManager.ReadThread 相同: 1KB读取 -> 分帧 -> 解析
+     */
+    private static void readLoop(Socket socket, AtomicLong processed, AtomicLong parseErrors) {
+        FrameDecoder decoder = new FrameDecoder((frame, trace) -> {
+            try {
+                trace.markDispatched();
+                JSONObject json = new JSONObject(frame);
+                if (json.has(PayloadParser.KEY_DATE)) {
+                    SensorData data = PayloadParser.parseSensorData(json, frame);
+                    trace.markParsed();
+                    data.setTrace(trace);
+                    processed.incrementAndGet();
+                }
+            } catch (JSONException e) {
+                parseErrors.incrementAndGet();
+            }
+        });
+        
+        byte[] buffer = new byte[1024];
+        try {
+            InputStream in = socket.getInputStream();
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                decoder.feed(buffer, 0, n, System.nanoTime());
+            }
+        } catch (IOException e) {
+            // 连接关闭
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.wp.bt.capture;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 抓包文件格式
+ *
+ * 文件头: "BTCAP" | 版本(1字节) | 开始时的系统时间毫秒(8字节)
+ * 记录:   距上一块的纳秒数(变长) | 数据长度(变长) | 原始字节
+ *
+ * 变长整数为 7 位一组的小端编码 (同 protobuf varint)，
+ * 典型的 1KB 数据块只有 2~6 字节的额外开销
+ */
+final class CaptureFormat {
+    
+    static final byte[] MAGIC = {'B', 'T', 'C', 'A', 'P'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 1 + 8;
+    
+    // 单条记录头的最大长度: 10字节 varlong + 5字节 varint
+    static final int MAX_RECORD_HEADER = 15;
+    
+    private CaptureFormat() {
+    }
+    
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+    
+    static long readVarLong(DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+}
@@ -0,0 +1,92 @@
+package com.wp.bt.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 抓包文件读取器
+ * 按顺序读出每个数据块及其相对抓包开始的时间
+ */
+public class CaptureReader implements Closeable {
+    
+    /**
+     * 一条抓包记录
+     * data 在下一次调用 next 时会被复用
+     */
+    public static class Record {
+        long offsetNanos;
+        byte[] data = new byte[1024];
+        int length;
+        
+        /** 距抓包开始的纳秒数 */
+        public long getOffsetNanos() { return offsetNanos; }
+        public byte[] getData() { return data; }
+        public int getLength() { return length; }
+    }
+    
+    private final DataInputStream in;
+    private final long startWallMillis;
+    private long offsetNanos;
+    
+    public CaptureReader(File file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        
+        byte[] magic = new byte[CaptureFormat.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, CaptureFormat.MAGIC)) {
+            in.close();
+            throw new IOException("不是抓包文件: " + file.getName());
+        }
+        int version = in.readUnsignedByte();
+        if (version != CaptureFormat.VERSION) {
+            in.close();
+            throw new IOException("不支持的抓包文件版本: " + version);
+        }
+        startWallMillis = in.readLong();
+    }
+    
+    /**
+     * 抓包开始时的系统时间 (毫秒)
+     */
+    public long getStartWallMillis() {
+        return startWallMillis;
+    }
+    
+    /**
+     * 读取下一条记录
+     * @return 文件结束返回 false
+     */
+    public boolean next(Record record) throws IOException {
+        long delta;
+        try {
+            delta = CaptureFormat.readVarLong(in);
+        } catch (EOFException e) {
+            return false;
+        }
+        int length = (int) CaptureFormat.readVarLong(in);
+        if (record.data.length < length) {
+            record.data = new byte[length];
+        }
+        // 写入中断导致的半条记录视为文件结束
+        try {
+            in.readFully(record.data, 0, length);
+        } catch (EOFException e) {
+            return false;
+        }
+        offsetNanos += delta;
+        record.offsetNanos = offsetNanos;
+        record.length = length;
+        return true;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
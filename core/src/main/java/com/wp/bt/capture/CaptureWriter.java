@@ -0,0 +1,158 @@
+package com.wp.bt.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 抓包写入器
+ * 读线程只把数据块编码后放入队列，由后台线程通过 FileChannel 批量写盘，
+ * 队列满时丢弃并计数，保证读线程永远不会因为写文件而阻塞
+ */
+public class CaptureWriter implements Closeable {
+    
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private volatile boolean closed;
+    
+    // 只在调用 write 的线程中访问
+    private long lastArrivalNanos;
+    
+    private final AtomicLong chunksCaptured = new AtomicLong();
+    private final AtomicLong bytesCaptured = new AtomicLong();
+    private final AtomicLong chunksDropped = new AtomicLong();
+    private volatile IOException lastError;
+    
+    public CaptureWriter(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        
+        ByteBuffer header = ByteBuffer.allocate(CaptureFormat.HEADER_SIZE);
+        header.put(CaptureFormat.MAGIC);
+        header.put((byte) CaptureFormat.VERSION);
+        header.putLong(System.currentTimeMillis());
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        
+        writerThread = new Thread(this::writeLoop, "capture-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * 记录一个数据块 (读线程调用，不阻塞)
+     * @param arrivalNanos 数据块到达时间 (System.nanoTime)
+     */
+    public void write(byte[] data, int offset, int length, long arrivalNanos) {
+        if (closed) {
+            return;
+        }
+        long delta = lastArrivalNanos == 0 ? 0 : Math.max(0, arrivalNanos - lastArrivalNanos);
+        lastArrivalNanos = arrivalNanos;
+        
+        ByteBuffer record = ByteBuffer.allocate(CaptureFormat.MAX_RECORD_HEADER + length);
+        CaptureFormat.putVarLong(record, delta);
+        CaptureFormat.putVarLong(record, length);
+        record.put(data, offset, length);
+        
+        byte[] encoded = new byte[record.position()];
+        record.flip();
+        record.get(encoded);
+        
+        if (queue.offer(encoded)) {
+            chunksCaptured.incrementAndGet();
+            bytesCaptured.addAndGet(length);
+        } else {
+            chunksDropped.incrementAndGet();
+        }
+    }
+    
+    /**
+     * 后台写盘: 尽量攒满缓冲区再写，队列空时立即写出
+     */
+    private void writeLoop() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                byte[] record = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (record != null) {
+                    append(record);
+                    while ((record = queue.poll()) != null) {
+                        append(record);
+                    }
+                }
+                flushBuffer();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            lastError = e;
+        }
+    }
+    
+    private void append(byte[] record) throws IOException {
+        if (record.length > writeBuffer.remaining()) {
+            flushBuffer();
+        }
+        if (record.length > writeBuffer.capacity()) {
+            ByteBuffer large = ByteBuffer.wrap(record);
+            while (large.hasRemaining()) {
+                channel.write(large);
+            }
+        } else {
+            writeBuffer.put(record);
+        }
+    }
+    
+    private void flushBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+    
+    /**
+     * 停止抓包，写完队列中剩余的数据后关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writerThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (lastError != null) {
+            throw lastError;
+        }
+    }
+    
+    public long getChunksCaptured() { return chunksCaptured.get(); }
+    public long getBytesCaptured() { return bytesCaptured.get(); }
+    public long getChunksDropped() { return chunksDropped.get(); }
+}
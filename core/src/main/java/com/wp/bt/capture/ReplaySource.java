@@ -0,0 +1,135 @@
+package com.wp.bt.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 抓包回放
+ * 把抓包文件中的数据块按原始时间间隔或尽可能快地送回分帧解析流程
+ */
+public class ReplaySource {
+    
+    /**
+     * 数据块接收方，与读线程收到数据时的处理相同
+     */
+    public interface ChunkSink {
+        void onChunk(byte[] data, int length, long arrivalNanos);
+    }
+    
+    /**
+     * 回放结束回调 (在回放线程中调用)
+     * @param error 正常结束为 null；接收方抛出的运行时异常包装为 IOException
+     */
+    public interface CompletionListener {
+        void onReplayFinished(IOException error);
+    }
+    
+    private final File file;
+    private final boolean realtime;
+    private final ChunkSink sink;
+    private CompletionListener completionListener;
+    private Thread thread;
+    private volatile boolean running;
+    
+    private final AtomicLong chunksReplayed = new AtomicLong();
+    private final AtomicLong bytesReplayed = new AtomicLong();
+    
+    /**
+     * @param realtime true 按原始时间间隔回放，false 尽可能快
+     */
+    public ReplaySource(File file, boolean realtime, ChunkSink sink) {
+        this.file = file;
+        this.realtime = realtime;
+        this.sink = sink;
+    }
+    
+    public void setCompletionListener(CompletionListener listener) {
+        this.completionListener = listener;
+    }
+    
+    /**
+     * 在后台线程中回放
+     * running 在这里置位，线程启动前调用 stop() 也能生效
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(() -> {
+            IOException error = null;
+            try {
+                replayFile();
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException("回放数据处理失败", e);
+            } finally {
+                running = false;
+                if (completionListener != null) {
+                    completionListener.onReplayFinished(error);
+                }
+            }
+        }, "capture-replay");
+        thread.start();
+    }
+    
+    /**
+     * 停止回放并等待回放线程退出，返回后不会再有数据块送入接收方
+     */
+    public void stop() {
+        Thread replayThread;
+        synchronized (this) {
+            running = false;
+            replayThread = thread;
+            thread = null;
+        }
+        if (replayThread == null || replayThread == Thread.currentThread()) {
+            return;
+        }
+        replayThread.interrupt();
+        try {
+            replayThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * 在当前线程中回放整个文件
+     * @return 回放的数据块数
+     */
+    public long replay() throws IOException {
+        running = true;
+        return replayFile();
+    }
+    
+    private long replayFile() throws IOException {
+        try (CaptureReader reader = new CaptureReader(file)) {
+            CaptureReader.Record record = new CaptureReader.Record();
+            long baseNanos = System.nanoTime();
+            while (running && reader.next(record)) {
+                if (realtime) {
+                    long target = baseNanos + record.getOffsetNanos();
+                    long wait;
+                    while (running && (wait = target - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                sink.onChunk(record.getData(), record.getLength(), System.nanoTime());
+                chunksReplayed.incrementAndGet();
+                bytesReplayed.addAndGet(record.getLength());
+            }
+        }
+        return chunksReplayed.get();
+    }
+    
+    public long getChunksReplayed() { return chunksReplayed.get(); }
+    public long getBytesReplayed() { return bytesReplayed.get(); }
+}
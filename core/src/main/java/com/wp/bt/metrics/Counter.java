@@ -0,0 +1,37 @@
+package com.wp.bt.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 计数器
+ * 基于 LongAdder，多线程并发累加无锁竞争
+ */
+public final class Counter {
+    
+    private final String name;
+    private final LongAdder adder = new LongAdder();
+    
+    Counter(String name) {
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public void inc() {
+        adder.increment();
+    }
+    
+    public void add(long delta) {
+        adder.add(delta);
+    }
+    
+    public long get() {
+        return adder.sum();
+    }
+    
+    void reset() {
+        adder.reset();
+    }
+}
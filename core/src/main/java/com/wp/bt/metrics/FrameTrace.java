@@ -0,0 +1,72 @@
+package com.wp.bt.metrics;
+
+/**
+ * 单帧的处理时间戳
+ * 从首字节到达开始，依次记录分帧、分发、解析、入库、界面刷新的时刻
+ * 时间基准为 System.nanoTime()，每打一个点就把对应阶段的耗时记入 PipelineTracer
+ */
+public class FrameTrace {
+    
+    private final long firstByteNanos;  // 帧首字节所在数据块到达时间
+    private final long arrivalNanos;    // 帧尾 (FFDD) 所在数据块到达时间
+    private volatile long framedNanos;
+    private volatile long dispatchedNanos;
+    private volatile long parsedNanos;
+    private volatile long persistedNanos;
+    private volatile long renderedNanos;
+    
+    public FrameTrace(long firstByteNanos, long arrivalNanos) {
+        this.firstByteNanos = firstByteNanos;
+        this.arrivalNanos = arrivalNanos;
+        PipelineTracer.get().record(PipelineTracer.Stage.LINK, arrivalNanos - firstByteNanos);
+    }
+    
+    public long getFirstByteNanos() { return firstByteNanos; }
+    public long getArrivalNanos() { return arrivalNanos; }
+    public long getFramedNanos() { return framedNanos; }
+    public long getDispatchedNanos() { return dispatchedNanos; }
+    public long getParsedNanos() { return parsedNanos; }
+    public long getPersistedNanos() { return persistedNanos; }
+    public long getRenderedNanos() { return renderedNanos; }
+    
+    /**
+     * 分帧完成 (读线程)
+     */
+    public void markFramed() {
+        framedNanos = System.nanoTime();
+        PipelineTracer.get().record(PipelineTracer.Stage.FRAMING, framedNanos - arrivalNanos);
+    }
+    
+    /**
+     * 主线程开始处理
+     */
+    public void markDispatched() {
+        dispatchedNanos = System.nanoTime();
+        PipelineTracer.get().record(PipelineTracer.Stage.DISPATCH, dispatchedNanos - framedNanos);
+    }
+    
+    /**
+     * 解析完成
+     */
+    public void markParsed() {
+        parsedNanos = System.nanoTime();
+        PipelineTracer.get().record(PipelineTracer.Stage.PARSE, parsedNanos - dispatchedNanos);
+    }
+    
+    /**
+     * 写入数据库完成 (包含写库队列等待)
+     */
+    public void markPersisted() {
+        persistedNanos = System.nanoTime();
+        PipelineTracer.get().record(PipelineTracer.Stage.PERSIST, persistedNanos - parsedNanos);
+    }
+    
+    /**
+     * 界面刷新完成，同时记录端到端延迟
+     */
+    public void markRendered() {
+        renderedNanos = System.nanoTime();
+        PipelineTracer.get().record(PipelineTracer.Stage.UI, renderedNanos - parsedNanos);
+        PipelineTracer.get().record(PipelineTracer.Stage.END_TO_END, renderedNanos - firstByteNanos);
+    }
+}
@@ -0,0 +1,47 @@
+package com.wp.bt.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 瞬时值
+ * 用于当前值 (如行数) 和高水位 (如缓冲区峰值)
+ */
+public final class Gauge {
+    
+    private final String name;
+    private final AtomicLong value = new AtomicLong();
+    
+    Gauge(String name) {
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public void set(long newValue) {
+        value.set(newValue);
+    }
+    
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+    
+    /**
+     * 只在新值更大时更新，用于记录峰值
+     */
+    public void updateMax(long candidate) {
+        long current;
+        do {
+            current = value.get();
+        } while (candidate > current && !value.compareAndSet(current, candidate));
+    }
+    
+    public long get() {
+        return value.get();
+    }
+    
+    void reset() {
+        value.set(0);
+    }
+}
@@ -0,0 +1,143 @@
+package com.wp.bt.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图 (HDR风格)
+ * 按2的幂分段，每段再等分为32个子桶，相对误差约3%
+ * 记录只做一次桶下标计算和原子自增，可在热路径调用
+ * 单位: 纳秒
+ */
+public class LatencyHistogram {
+    
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    
+    // 可记录的最大值: 约68秒，超出的值计入最后一个桶
+    private static final long MAX_TRACKABLE_NANOS = (1L << 36) - 1;
+    
+    private final String name;
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    
+    public LatencyHistogram(String name) {
+        this.name = name;
+        this.counts = new AtomicLongArray(bucketIndex(MAX_TRACKABLE_NANOS) + 1);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * 记录一个延迟值
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        } else if (nanos > MAX_TRACKABLE_NANOS) {
+            nanos = MAX_TRACKABLE_NANOS;
+        }
+        counts.incrementAndGet(bucketIndex(nanos));
+        totalCount.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+    
+    public long getCount() {
+        return totalCount.get();
+    }
+    
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+    
+    public double getMeanNanos() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalNanos.get() / count;
+    }
+    
+    /**
+     * 获取百分位值
+     * @param percentile 0~100, 如 50, 99, 99.9
+     * @return 所在桶的上界 (纳秒)
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        if (target < 1) {
+            target = 1;
+        }
+        
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+    
+    /**
+     * 清空统计
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+    
+    /**
+     * 统计摘要 (毫秒)
+     */
+    public String getSummary() {
+        return String.format(Locale.US,
+                "%-10s count=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms",
+                name, getCount(), getMeanNanos() / 1e6,
+                getPercentileNanos(50) / 1e6,
+                getPercentileNanos(99) / 1e6,
+                getPercentileNanos(99.9) / 1e6,
+                getMaxNanos() / 1e6);
+    }
+    
+    /**
+     * 计算值所在的桶下标
+     * 小于32的值每个值一个桶，之后每个2的幂区间分为32个桶
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+    
+    /**
+     * 桶的上界 (包含)
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,75 @@
+package com.wp.bt.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 运行指标注册表
+ * 计数器、瞬时值、耗时直方图按名称注册，记录操作全部无锁
+ *
+ * 热路径上应把 counter()/gauge()/timer() 的返回值保存在静态字段中，
+ * 避免每次记录都做一次哈希查找
+ */
+public final class MetricsRegistry {
+    
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+    
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    
+    public static MetricsRegistry get() {
+        return INSTANCE;
+    }
+    
+    private MetricsRegistry() {
+    }
+    
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+    
+    public Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, Gauge::new);
+    }
+    
+    /**
+     * 耗时直方图，单位纳秒
+     */
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, LatencyHistogram::new);
+    }
+    
+    /**
+     * 获取当前所有指标的快照
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Counter counter : counters.values()) {
+            counterValues.put(counter.getName(), counter.get());
+        }
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        for (Gauge gauge : gauges.values()) {
+            gaugeValues.put(gauge.getName(), gauge.get());
+        }
+        Map<String, LatencyHistogram> timerValues = new TreeMap<>(timers);
+        return new MetricsSnapshot(System.currentTimeMillis(), System.nanoTime(),
+                counterValues, gaugeValues, timerValues);
+    }
+    
+    /**
+     * 清空所有指标 (保留注册)
+     */
+    public void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Gauge gauge : gauges.values()) {
+            gauge.reset();
+        }
+        for (LatencyHistogram timer : timers.values()) {
+            timer.reset();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.wp.bt.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 指标快照
+ * 计数器和瞬时值在创建时复制，耗时直方图只保留引用，格式化时读取
+ * 与上一次快照比较可得到计数器的每秒速率
+ */
+public final class MetricsSnapshot {
+    
+    private final long wallMillis;
+    private final long nanos;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, LatencyHistogram> timers;
+    
+    MetricsSnapshot(long wallMillis, long nanos, Map<String, Long> counters,
+                    Map<String, Long> gauges, Map<String, LatencyHistogram> timers) {
+        this.wallMillis = wallMillis;
+        this.nanos = nanos;
+        this.counters = counters;
+        this.gauges = gauges;
+        this.timers = timers;
+    }
+    
+    public long getWallMillis() { return wallMillis; }
+    public Map<String, Long> getCounters() { return counters; }
+    public Map<String, Long> getGauges() { return gauges; }
+    public Map<String, LatencyHistogram> getTimers() { return timers; }
+    
+    /**
+     * 计数器相对上一次快照的每秒速率
+     * @param previous 上一次快照，为 null 时返回 0
+     */
+    public double rate(MetricsSnapshot previous, String counter) {
+        if (previous == null || nanos <= previous.nanos) {
+            return 0;
+        }
+        Long now = counters.get(counter);
+        Long before = previous.counters.get(counter);
+        long delta = (now != null ? now : 0) - (before != null ? before : 0);
+        return delta * 1e9 / (nanos - previous.nanos);
+    }
+    
+    /**
+     * 可读文本，用于诊断界面
+     */
+    public String toText(MetricsSnapshot previous) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[计数器]  总数 / 每秒\n");
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            sb.append(String.format(Locale.US, "%-28s %12d %10.1f/s\n",
+                    entry.getKey(), entry.getValue(), rate(previous, entry.getKey())));
+        }
+        sb.append("\n[瞬时值]\n");
+        for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+            sb.append(String.format(Locale.US, "%-28s %12d\n", entry.getKey(), entry.getValue()));
+        }
+        sb.append("\n[耗时]\n");
+        for (LatencyHistogram timer : timers.values()) {
+            sb.append(timer.getSummary()).append('\n');
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * 单行JSON
+     */
+    public String toJson(MetricsSnapshot previous) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"time\":").append(wallMillis);
+        
+        sb.append(",\"counters\":{");
+        appendJsonEntries(sb, counters);
+        sb.append("},\"rates\":{");
+        boolean first = true;
+        for (String name : counters.keySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(name).append("\":")
+              .append(String.format(Locale.US, "%.3f", rate(previous, name)));
+        }
+        sb.append("},\"gauges\":{");
+        appendJsonEntries(sb, gauges);
+        sb.append("},\"timers\":{");
+        first = true;
+        for (LatencyHistogram timer : timers.values()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(timer.getName()).append("\":")
+              .append(String.format(Locale.US,
+                      "{\"count\":%d,\"mean_ms\":%.3f,\"p50_ms\":%.3f,\"p99_ms\":%.3f,\"p999_ms\":%.3f,\"max_ms\":%.3f}",
+                      timer.getCount(), timer.getMeanNanos() / 1e6,
+                      timer.getPercentileNanos(50) / 1e6, timer.getPercentileNanos(99) / 1e6,
+                      timer.getPercentileNanos(99.9) / 1e6, timer.getMaxNanos() / 1e6));
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+    
+    /**
+     * CSV表头，与 toCsv 的列对应
+     */
+    public static String csvHeader() {
+        return "time,type,name,value,rate_per_s,p50_ms,p99_ms,p999_ms";
+    }
+    
+    /**
+     * CSV行，每个指标一行
+     */
+    public String toCsv(MetricsSnapshot previous) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            sb.append(String.format(Locale.US, "%d,counter,%s,%d,%.3f,,,\n",
+                    wallMillis, entry.getKey(), entry.getValue(), rate(previous, entry.getKey())));
+        }
+        for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+            sb.append(String.format(Locale.US, "%d,gauge,%s,%d,,,,\n",
+                    wallMillis, entry.getKey(), entry.getValue()));
+        }
+        for (LatencyHistogram timer : timers.values()) {
+            sb.append(String.format(Locale.US, "%d,timer,%s,%d,,%.3f,%.3f,%.3f\n",
+                    wallMillis, timer.getName(), timer.getCount(),
+                    timer.getPercentileNanos(50) / 1e6, timer.getPercentileNanos(99) / 1e6,
+                    timer.getPercentileNanos(99.9) / 1e6));
+        }
+        return sb.toString();
+    }
+    
+    private static void appendJsonEntries(StringBuilder sb, Map<String, Long> values) {
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.wp.bt.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 数据链路延迟统计
+ * 每个处理阶段一个延迟直方图，可随时查询或导出到文件
+ *
+ * LINK       - 一帧从首字节到帧尾到达的时间 (链路传输)
+ * FRAMING    - 帧尾到达到分帧完成
+ * DISPATCH   - 分帧完成到主线程开始处理 (主线程排队)
+ * PARSE      - JSON解析
+ * PERSIST    - 解析完成到写库完成
+ * UI         - 解析完成到界面刷新完成
+ * END_TO_END - 首字节到达到界面刷新完成
+ */
+public final class PipelineTracer {
+    
+    public enum Stage {
+        LINK, FRAMING, DISPATCH, PARSE, PERSIST, UI, END_TO_END
+    }
+    
+    private static final PipelineTracer INSTANCE = new PipelineTracer();
+    
+    private final LatencyHistogram[] histograms;
+    
+    public static PipelineTracer get() {
+        return INSTANCE;
+    }
+    
+    private PipelineTracer() {
+        Stage[] stages = Stage.values();
+        histograms = new LatencyHistogram[stages.length];
+        for (Stage stage : stages) {
+            histograms[stage.ordinal()] = new LatencyHistogram(stage.name());
+        }
+    }
+    
+    /**
+     * 记录某阶段耗时
+     */
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+    
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+    
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+    
+    /**
+     * 各阶段统计报告
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        for (LatencyHistogram histogram : histograms) {
+            sb.append(histogram.getSummary()).append('\n');
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * 导出统计报告到文件 (追加写入)
+     */
+    public void dumpTo(File file) throws IOException {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writer.write("# " + sdf.format(new Date()) + "\n");
+            writer.write(getReport());
+            writer.write("\n");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.wp.bt.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 单调时钟到系统时间的换算
+ * 帧到达时刻在读线程用 System.nanoTime() 记录，需要入库时再换算成系统时间，
+ * 时间戳不受主线程排队、解析快慢的影响，也不会因为系统时间被调整而倒退
+ *
+ * 换算基准在首次使用时取一次，之后按单调时钟推算
+ * Android 上 System.nanoTime() 在深度休眠时停止计时，应用层通过 setSuspendClock 传入
+ * 包含休眠时间的单调时钟 (SystemClock.elapsedRealtimeNanos)，换算时补上基准之后累计的休眠时长，
+ * 熄屏长时间运行后时间戳也不会落后
+ */
+public final class WallClock {
+    
+    private static final long BASE_MILLIS;
+    private static final long BASE_NANOS;
+    
+    /**
+     * 包含休眠时间的时钟，与 System.nanoTime() 之差的增量即为累计休眠时长
+     */
+    private static final class SuspendClock {
+        final LongSupplier source;
+        // 基准时刻两个时钟之差
+        final long baseOffset;
+        
+        SuspendClock(LongSupplier source, long baseOffset) {
+            this.source = source;
+            this.baseOffset = baseOffset;
+        }
+        
+        long suspendedNanos() {
+            return Math.max(0, source.getAsLong() - System.nanoTime() - baseOffset);
+        }
+    }
+    
+    private static volatile SuspendClock suspendClock;
+    
+    static {
+        // 两次读取之间被抢占会带来误差，取间隔最短的一次
+        long bestMillis = 0;
+        long bestNanos = 0;
+        long bestGap = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long before = System.nanoTime();
+            long millis = System.currentTimeMillis();
+            long after = System.nanoTime();
+            if (after - before < bestGap) {
+                bestGap = after - before;
+                bestMillis = millis;
+                bestNanos = before + (after - before) / 2;
+            }
+        }
+        BASE_MILLIS = bestMillis;
+        BASE_NANOS = bestNanos;
+    }
+    
+    private WallClock() {
+    }
+    
+    /**
+     * 设置包含休眠时间的单调时钟，只有第一次调用生效 (Activity 重建时不会丢失已累计的休眠)
+     * 设置之前的休眠无法补偿，应在启动时尽早调用
+     * @param elapsedRealtimeNanos 如 SystemClock::elapsedRealtimeNanos
+     */
+    public static synchronized void setSuspendClock(LongSupplier elapsedRealtimeNanos) {
+        if (suspendClock != null) {
+            return;
+        }
+        long offset = elapsedRealtimeNanos.getAsLong() - System.nanoTime();
+        suspendClock = new SuspendClock(elapsedRealtimeNanos, offset);
+    }
+    
+    /**
+     * System.nanoTime() 时刻对应的系统时间 (毫秒)
+     * 休眠时长按换算时刻累计，到达与换算之间发生的休眠会被多算，帧在到达后很快被解析和换算，可以忽略
+     */
+    public static long toWallMillis(long nanos) {
+        SuspendClock clock = suspendClock;
+        long suspended = clock != null ? clock.suspendedNanos() : 0;
+        return BASE_MILLIS + TimeUnit.NANOSECONDS.toMillis(nanos - BASE_NANOS + suspended);
+    }
+    
+    /**
+     * 当前系统时间，按单调时钟推算
+     */
+    public static long nowMillis() {
+        return toWallMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,40 @@
+package com.wp.bt.model;
+
+/**
+ * 设备信息模型
+ * 对应数据库 devices 表，附带该设备的数据条数
+ */
+public class DeviceInfo {
+    
+    private long id;             // 数据库ID
+    private String address;      // 设备标识 (蓝牙地址)
+    private String name;         // 设备名称，可能为空
+    private long lastSeen;       // 最后一条数据的时间戳
+    private int sampleCount;     // 数据条数
+    
+    public DeviceInfo(long id, String address, String name, long lastSeen, int sampleCount) {
+        this.id = id;
+        this.address = address;
+        this.name = name;
+        this.lastSeen = lastSeen;
+        this.sampleCount = sampleCount;
+    }
+    
+    public long getId() { return id; }
+    public String getAddress() { return address; }
+    public String getName() { return name; }
+    public long getLastSeen() { return lastSeen; }
+    public int getSampleCount() { return sampleCount; }
+    
+    /**
+     * 显示名称，没有名称时使用地址
+     */
+    public String getDisplayName() {
+        return name != null && !name.isEmpty() ? name : address;
+    }
+    
+    @Override
+    public String toString() {
+        return "DeviceInfo{" + address + ", name=" + name + ", samples=" + sampleCount + "}";
+    }
+}
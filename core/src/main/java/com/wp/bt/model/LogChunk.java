@@ -0,0 +1,41 @@
+package com.wp.bt.model;
+
+import java.util.List;
+
+/**
+ * 设备历史记录的一个分块
+ * 对应 {"Log":{"from":0,"next":100,"last":false,"more":true,...}}
+ * 设备记录按序号连续编号，本块包含序号 (from, next] 的记录
+ */
+public class LogChunk {
+    
+    private final long from;              // 请求的游标，本块第一条记录序号为 from + 1
+    private final long next;              // 本块最后一条记录的序号，即下一次请求的游标
+    private final boolean last;           // 是否为本次请求的最后一块
+    private final boolean more;           // 设备上是否还有更多记录
+    private final List<SensorData> records;
+    private int byteCount;                // 本块帧长度，用于统计下载速度
+    
+    public LogChunk(long from, long next, boolean last, boolean more, List<SensorData> records) {
+        this.from = from;
+        this.next = next;
+        this.last = last;
+        this.more = more;
+        this.records = records;
+    }
+    
+    public long getFrom() { return from; }
+    public long getNext() { return next; }
+    public boolean isLast() { return last; }
+    public boolean hasMore() { return more; }
+    public List<SensorData> getRecords() { return records; }
+    
+    public int getByteCount() { return byteCount; }
+    public void setByteCount(int byteCount) { this.byteCount = byteCount; }
+    
+    @Override
+    public String toString() {
+        return "LogChunk{from=" + from + ", next=" + next + ", records=" + records.size()
+                + ", last=" + last + ", more=" + more + "}";
+    }
+}
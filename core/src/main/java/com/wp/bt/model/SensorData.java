@@ -1,5 +1,7 @@
 package com.wp.bt.model;
 
+import com.wp.bt.metrics.FrameTrace;
+
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -13,7 +15,10 @@ public class SensorData {
     
     private long id;           // 数据库ID
     private long timestamp;    // 时间戳
+    private String deviceId;   // 来源设备 (蓝牙地址)
     private String rawJson;    // 原始JSON字符串
+    private transient FrameTrace trace; // 链路延迟追踪，不入库
+    private transient List<String> changedKeys; // 增量帧合并后相对上一条数据变化的键，null 表示完整帧
     
     // 使用LinkedHashMap保持插入顺序
     private LinkedHashMap<String, SensorItem> items;
@@ -66,9 +71,25 @@ public class SensorData {
     public long getTimestamp() { return timestamp; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
     
+    public String getDeviceId() { return deviceId; }
+    public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+    
     public String getRawJson() { return rawJson; }
     public void setRawJson(String rawJson) { this.rawJson = rawJson; }
     
+    public FrameTrace getTrace() { return trace; }
+    public void setTrace(FrameTrace trace) { this.trace = trace; }
+    
+    public List<String> getChangedKeys() { return changedKeys; }
+    public void setChangedKeys(List<String> changedKeys) { this.changedKeys = changedKeys; }
+    
+    /**
+     * 由增量帧合并而来且没有任何字段变化 (不需要重复入库)
+     */
+    public boolean isUnchanged() {
+        return changedKeys != null && changedKeys.isEmpty();
+    }
+    
     /**
      * 添加传感器项
      */
@@ -115,6 +136,9 @@ public class SensorData {
     public String toString() {
         StringBuilder sb = new StringBuilder("SensorData{timestamp=");
         sb.append(timestamp);
+        if (deviceId != null) {
+            sb.append(", device=").append(deviceId);
+        }
         for (SensorItem item : items.values()) {
             sb.append(", ").append(item.toString());
         }
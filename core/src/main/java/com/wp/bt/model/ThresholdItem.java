@@ -90,6 +90,13 @@ public class ThresholdItem {
      * 格式: TODEVICEDATA##KEY##VALUE##
      */
     public String generateCommand() {
+        return generateCommand(key, value);
+    }
+    
+    /**
+     * 生成指定键和值的控制指令
+     */
+    public static String generateCommand(String key, int value) {
         return "TODEVICEDATA##" + key + "##" + value + "##";
     }
     
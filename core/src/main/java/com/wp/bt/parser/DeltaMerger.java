@@ -0,0 +1,114 @@
+package com.wp.bt.parser;
+
+import com.wp.bt.model.SensorData;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 增量帧合并
+ * 设备每隔一段时间发送完整的关键帧，中间只发送相对最近关键帧变化的字段:
+ *   {"Date":{...},"Key":7}
+ *   {"Delta":{"Temp":{"val":25.4}},"Key":7}
+ * 增量相对关键帧而不是上一个增量，丢失一个增量帧不影响之后的数据
+ * 增量帧引用的关键帧与当前保存的不一致 (关键帧丢失) 时丢弃，等待下一个关键帧恢复
+ *
+ * 合并结果是完整的 SensorData，并记录相对上一条输出变化的键，
+ * 没有变化的数据可以不入库
+ *
+ * 非线程安全，每个设备的解析器各持有一个
+ */
+public class DeltaMerger {
+    
+    /**
+     * 关键帧编号未知 (旧设备的帧不带 Key)
+     */
+    public static final long NO_KEY = -1;
+    
+    // 最近关键帧的字段
+    private final Map<String, SensorData.SensorItem> base = new LinkedHashMap<>();
+    private long baseKey = NO_KEY;
+    private boolean hasBase;
+    
+    // 上一条输出的字段，用于计算变化的键
+    private final Map<String, SensorData.SensorItem> last = new LinkedHashMap<>();
+    
+    /**
+     * 记录完整帧作为之后增量帧的基准
+     * @param key 关键帧编号，不带时为 NO_KEY
+     */
+    public void onKeyframe(SensorData data, long key) {
+        base.clear();
+        base.putAll(data.getItems());
+        last.clear();
+        last.putAll(data.getItems());
+        baseKey = key;
+        hasBase = true;
+    }
+    
+    /**
+     * 把增量帧合并到最近的关键帧上
+     * @param deltaObj Delta 对象，格式与 Date 相同，单位可省略
+     * @param key 增量帧引用的关键帧编号，不带时为 NO_KEY
+     * @return 完整的传感器数据，没有可用的关键帧时返回 null
+     */
+    public SensorData merge(JSONObject deltaObj, long key) throws JSONException {
+        if (!hasBase || (key != NO_KEY && baseKey != NO_KEY && key != baseKey)) {
+            return null;
+        }
+        SensorData delta = new SensorData();
+        PayloadParser.fillSensorItems(delta, deltaObj);
+        
+        SensorData merged = new SensorData();
+        for (SensorData.SensorItem item : base.values()) {
+            SensorData.SensorItem changed = delta.getItem(item.getKey());
+            if (changed == null) {
+                merged.addItem(item.getKey(), item.getValue(), item.getUnit());
+            } else {
+                // 增量帧省略单位时沿用关键帧的单位
+                String unit = changed.getUnit().isEmpty() ? item.getUnit() : changed.getUnit();
+                merged.addItem(item.getKey(), changed.getValue(), unit);
+            }
+        }
+        // 关键帧之后新出现的字段
+        for (SensorData.SensorItem item : delta.getItems().values()) {
+            if (!base.containsKey(item.getKey())) {
+                merged.addItem(item.getKey(), item.getValue(), item.getUnit());
+            }
+        }
+        
+        List<String> changedKeys = new ArrayList<>();
+        for (SensorData.SensorItem item : merged.getItems().values()) {
+            SensorData.SensorItem previous = last.get(item.getKey());
+            if (previous == null || !previous.getValue().equals(item.getValue())) {
+                changedKeys.add(item.getKey());
+            }
+        }
+        merged.setChangedKeys(changedKeys);
+        last.clear();
+        last.putAll(merged.getItems());
+        return merged;
+    }
+    
+    /**
+     * 是否已有关键帧
+     */
+    public boolean hasBase() {
+        return hasBase;
+    }
+    
+    /**
+     * 清除关键帧 (断开连接时调用)
+     */
+    public void reset() {
+        base.clear();
+        last.clear();
+        baseKey = NO_KEY;
+        hasBase = false;
+    }
+}
@@ -0,0 +1,157 @@
+package com.wp.bt.parser;
+
+/**
+ * 设备时钟估计
+ * 帧里的设备时间 (设备启动后的毫秒数) 换算成手机的系统时间
+ *
+ * 帧到达时间 = 设备时间 + 时钟偏差 + 链路延迟，链路延迟总是非负且时大时小，
+ * 所以每个时间窗口内 (到达时间 - 设备时间) 的最小值最接近真实偏差；
+ * 对最近若干窗口的最小值做最小二乘拟合，斜率即设备晶振相对手机的漂移
+ *
+ * 设备时间倒退 (设备重启) 时重新估计
+ * 非线程安全，每个设备的解析器各持有一个
+ */
+public class DeviceClock {
+    
+    // 每个窗口的设备时间跨度
+    private static final long WINDOW_MS = 5_000;
+    
+    // 参与拟合的窗口数，约1分钟
+    private static final int MAX_WINDOWS = 12;
+    
+    // 漂移上限，普通晶振在 ±100ppm 以内，超出说明拟合受到了延迟抖动干扰
+    private static final double MAX_DRIFT = 500e-6;
+    
+    // 设备时间倒退超过该值视为设备重启
+    private static final long RESTART_THRESHOLD_MS = 1_000;
+    
+    // 已结束窗口的最小偏差点，环形缓冲
+    private final long[] windowDevice = new long[MAX_WINDOWS];
+    private final long[] windowOffset = new long[MAX_WINDOWS];
+    private int windowCount;
+    private int windowHead;
+    
+    // 当前窗口
+    private long currentStart;
+    private long currentDevice;
+    private long currentOffset;
+    private boolean hasCurrent;
+    
+    private long lastDevice;
+    
+    // 拟合结果: 偏差 = offset + drift * (设备时间 - reference)
+    private long reference;
+    private double offset;
+    private double drift;
+    
+    /**
+     * 记录一帧的设备时间和到达时间
+     * @param deviceMillis 帧里的设备时间
+     * @param arrivalMillis 帧到达时的系统时间
+     */
+    public void update(long deviceMillis, long arrivalMillis) {
+        if (hasCurrent && deviceMillis < lastDevice - RESTART_THRESHOLD_MS) {
+            reset();
+        }
+        lastDevice = Math.max(lastDevice, deviceMillis);
+        long sampleOffset = arrivalMillis - deviceMillis;
+        
+        if (hasCurrent && deviceMillis - currentStart >= WINDOW_MS) {
+            windowDevice[windowHead] = currentDevice;
+            windowOffset[windowHead] = currentOffset;
+            windowHead = (windowHead + 1) % MAX_WINDOWS;
+            windowCount = Math.min(windowCount + 1, MAX_WINDOWS);
+            hasCurrent = false;
+        }
+        if (!hasCurrent) {
+            currentStart = deviceMillis;
+            currentDevice = deviceMillis;
+            currentOffset = sampleOffset;
+            hasCurrent = true;
+        } else if (sampleOffset < currentOffset) {
+            currentDevice = deviceMillis;
+            currentOffset = sampleOffset;
+        }
+        fit();
+    }
+    
+    /**
+     * 设备时间对应的系统时间
+     * 还没有任何样本时原样返回
+     */
+    public long toWallMillis(long deviceMillis) {
+        return deviceMillis + Math.round(offset + drift * (deviceMillis - reference));
+    }
+    
+    /**
+     * 是否已有估计结果
+     */
+    public boolean isSynced() {
+        return hasCurrent;
+    }
+    
+    /**
+     * 当前设备时间处的时钟偏差 (毫秒)
+     */
+    public long getOffsetMillis() {
+        return Math.round(offset + drift * (lastDevice - reference));
+    }
+    
+    /**
+     * 设备时钟相对手机的漂移，百万分之一，正值表示设备走得慢
+     */
+    public double getDriftPpm() {
+        return drift * 1e6;
+    }
+    
+    /**
+     * 清除估计 (断开连接或设备重启时调用)
+     */
+    public void reset() {
+        windowCount = 0;
+        windowHead = 0;
+        hasCurrent = false;
+        lastDevice = 0;
+        reference = 0;
+        offset = 0;
+        drift = 0;
+    }
+    
+    /**
+     * 对各窗口最小点和当前窗口最小点做最小二乘
+     * 只有一个点时只估计偏差
+     */
+    private void fit() {
+        int n = windowCount + 1;
+        reference = currentDevice;
+        if (n == 1) {
+            offset = currentOffset;
+            drift = 0;
+            return;
+        }
+        // 以当前窗口为原点，避免大数相乘损失精度
+        double sumX = 0;
+        double sumY = 0;
+        double sumXX = 0;
+        double sumXY = 0;
+        for (int i = 0; i < n; i++) {
+            double x = i < windowCount ? windowDevice[i] - reference : 0;
+            double y = i < windowCount ? windowOffset[i] - currentOffset : 0;
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        double slope = denominator > 0 ? (n * sumXY - sumX * sumY) / denominator : 0;
+        drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, slope));
+        // 拟合线取在最小点的下方包络: 平移到所有点都不低于拟合线的位置
+        double shift = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            double x = i < windowCount ? windowDevice[i] - reference : 0;
+            double y = i < windowCount ? windowOffset[i] - currentOffset : 0;
+            shift = Math.min(shift, y - drift * x);
+        }
+        offset = currentOffset + shift;
+    }
+}
@@ -0,0 +1,419 @@
+package com.wp.bt.parser;
+
+import com.wp.bt.model.LogChunk;
+import com.wp.bt.model.SensorData;
+import com.wp.bt.model.ThresholdData;
+import com.wp.bt.model.ThresholdItem;
+import com.wp.bt.protocol.PayloadCapabilities;
+import com.wp.bt.protocol.PayloadSchema;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * JSON负载解析 - 纯Java部分
+ * 只负责把JSON对象转换为数据模型，不处理日志和回调
+ * DataParser 和 DatabaseHelper 共用
+ *
+ * 传感器数据格式:
+ * {"Date":{"XXX":{"val":xx,"unit":"xx"},...}}
+ *
+ * 阈值数据格式:
+ * {"Threshold":{"XXX":{"val":xx,"min":xx,"max":xx,"step":xx},...}}
+ *
+ * 关键帧和增量帧 (见 DeltaMerger):
+ * {"Date":{...},"Key":7}
+ * {"Delta":{"XXX":{"val":xx},...},"Key":7}
+ *
+ * Date/Delta 帧可以带设备时间 (毫秒)，用于估计设备时钟 (见 DeviceClock):
+ * {"Date":{...},"T":123456}
+ *
+ * 多采样批量帧，每行第一个值为设备时间 (毫秒):
+ * {"Batch":{"keys":["XXX",...],"units":["xx",...],"samples":[[t,v,...],...]}}
+ *
+ * 设备历史记录分块 (见 HistoryCommand)，采样格式与批量帧相同，at 为发送时的设备时间:
+ * {"Log":{"from":0,"next":100,"last":false,"more":true,"at":t,"keys":[...],"units":[...],"samples":[...]}}
+ *
+ * 负载格式握手回复和二进制记录布局声明:
+ * {"Caps":{"payload":"bin1","framing":"len1","features":["tbatch1"]}}
+ * {"Schema":{"id":1,"fields":[{"key":"Temp","unit":"℃","type":"i16","dec":1},...]}}
+ */
+public final class PayloadParser {
+    
+    // JSON键名常量
+    public static final String KEY_DATE = "Date";
+    public static final String KEY_THRESHOLD = "Threshold";
+    public static final String KEY_CAPS = "Caps";
+    public static final String KEY_SCHEMA = "Schema";
+    public static final String KEY_DELTA = "Delta";
+    public static final String KEY_BATCH = "Batch";
+    public static final String KEY_LOG = "Log";
+    
+    // 关键帧编号，与 Date/Delta 同级
+    public static final String KEY_KEYFRAME = "Key";
+    
+    // 设备时间，与 Date/Delta 同级
+    public static final String KEY_DEVICE_TIME = "T";
+    
+    /**
+     * 帧中没有设备时间
+     */
+    public static final long NO_DEVICE_TIME = -1;
+    
+    // 值字段
+    private static final String FIELD_VAL = "val";
+    private static final String FIELD_UNIT = "unit";
+    private static final String FIELD_MIN = "min";
+    private static final String FIELD_MAX = "max";
+    private static final String FIELD_STEP = "step";
+    
+    // 握手和 Schema 字段
+    private static final String FIELD_PAYLOAD = "payload";
+    private static final String FIELD_FRAMING = "framing";
+    private static final String FIELD_FEATURES = "features";
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_FIELDS = "fields";
+    private static final String FIELD_KEY = "key";
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_DECIMALS = "dec";
+    
+    // 批量帧字段
+    private static final String FIELD_KEYS = "keys";
+    private static final String FIELD_UNITS = "units";
+    private static final String FIELD_SAMPLES = "samples";
+    
+    // 历史记录分块字段
+    private static final String FIELD_FROM = "from";
+    private static final String FIELD_NEXT = "next";
+    private static final String FIELD_LAST = "last";
+    private static final String FIELD_MORE = "more";
+    private static final String FIELD_AT = "at";
+    
+    // 定点小数位数上限
+    private static final int MAX_DECIMALS = 6;
+    
+    private PayloadParser() {
+    }
+    
+    /**
+     * 解析传感器数据
+     * 格式: {"Date":{"XXX":{"val":xx,"unit":"xx"},...}}
+     */
+    public static SensorData parseSensorData(JSONObject json, String rawJson) throws JSONException {
+        JSONObject dateObj = json.getJSONObject(KEY_DATE);
+        SensorData data = new SensorData();
+        data.setRawJson(rawJson);
+        fillSensorItems(data, dateObj);
+        return data;
+    }
+    
+    /**
+     * 解析多采样批量帧
+     * 设备时间只用于确定采样之间的间隔: 最后一个采样对应 receivedAtMillis，
+     * 之前的采样按设备时间差往前推
+     * 格式: {"Batch":{"keys":["XXX",...],"units":["xx",...],"samples":[[t,v,...],...]}}
+     * @param receivedAtMillis 帧到达时的系统时间
+     * @return 按采样顺序排列的传感器数据
+     */
+    public static List<SensorData> parseBatch(JSONObject json, long receivedAtMillis) throws JSONException {
+        return parseBatch(json, new DeviceClock(), receivedAtMillis);
+    }
+    
+    /**
+     * 解析多采样批量帧，最后一个采样的设备时间和到达时间计入设备时钟估计，
+     * 各采样的时间由设备时钟换算
+     */
+    public static List<SensorData> parseBatch(JSONObject json, DeviceClock clock, long receivedAtMillis)
+            throws JSONException {
+        JSONObject batchObj = json.getJSONObject(KEY_BATCH);
+        JSONArray samples = batchObj.getJSONArray(FIELD_SAMPLES);
+        if (samples.length() == 0) {
+            return new ArrayList<>();
+        }
+        clock.update(samples.getJSONArray(samples.length() - 1).getLong(0), receivedAtMillis);
+        return parseSamples(batchObj, clock);
+    }
+    
+    /**
+     * 解析设备历史记录分块
+     * 记录时间按设备时间差从 at (发送时的设备时间) 往前推，at 对应 receivedAtMillis
+     * @param receivedAtMillis 帧到达时的系统时间
+     */
+    public static LogChunk parseLogChunk(JSONObject json, long receivedAtMillis) throws JSONException {
+        return parseLogChunk(json, new DeviceClock(), receivedAtMillis);
+    }
+    
+    /**
+     * 解析设备历史记录分块，at 和到达时间计入设备时钟估计，记录时间由设备时钟换算
+     */
+    public static LogChunk parseLogChunk(JSONObject json, DeviceClock clock, long receivedAtMillis)
+            throws JSONException {
+        JSONObject logObj = json.getJSONObject(KEY_LOG);
+        long from = logObj.getLong(FIELD_FROM);
+        long next = logObj.getLong(FIELD_NEXT);
+        clock.update(logObj.getLong(FIELD_AT), receivedAtMillis);
+        List<SensorData> records = parseSamples(logObj, clock);
+        if (next - from != records.size()) {
+            throw new JSONException("log chunk (" + from + ", " + next + "] has " + records.size() + " records");
+        }
+        return new LogChunk(from, next, logObj.optBoolean(FIELD_LAST, true),
+                logObj.optBoolean(FIELD_MORE, false), records);
+    }
+    
+    /**
+     * 解析 keys/units/samples 三个字段，每行第一个值为设备时间，由 clock 换算为系统时间
+     */
+    private static List<SensorData> parseSamples(JSONObject obj, DeviceClock clock) throws JSONException {
+        JSONArray keyArray = obj.getJSONArray(FIELD_KEYS);
+        JSONArray unitArray = obj.optJSONArray(FIELD_UNITS);
+        JSONArray samples = obj.getJSONArray(FIELD_SAMPLES);
+        
+        int keyCount = keyArray.length();
+        String[] keys = new String[keyCount];
+        String[] units = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = keyArray.getString(i);
+            units[i] = unitArray != null ? unitArray.optString(i, "") : "";
+        }
+        
+        int sampleCount = samples.length();
+        List<SensorData> result = new ArrayList<>(sampleCount);
+        for (int s = 0; s < sampleCount; s++) {
+            JSONArray row = samples.getJSONArray(s);
+            if (row.length() != keyCount + 1) {
+                throw new JSONException("sample " + s + " has " + row.length()
+                        + " values, expected " + (keyCount + 1));
+            }
+            SensorData data = new SensorData();
+            data.setTimestamp(clock.toWallMillis(row.getLong(0)));
+            for (int i = 0; i < keyCount; i++) {
+                data.addItem(keys[i], String.valueOf(row.get(i + 1)), units[i]);
+            }
+            result.add(data);
+        }
+        return result;
+    }
+    
+    /**
+     * 帧中的关键帧编号，不带时返回 DeltaMerger.NO_KEY
+     */
+    public static long parseKeyframe(JSONObject json) {
+        return json.optLong(KEY_KEYFRAME, DeltaMerger.NO_KEY);
+    }
+    
+    /**
+     * 帧中的设备时间，不带时返回 NO_DEVICE_TIME
+     */
+    public static long parseDeviceTime(JSONObject json) {
+        return json.optLong(KEY_DEVICE_TIME, NO_DEVICE_TIME);
+    }
+    
+    /**
+     * 把 Date 对象中的所有字段填入传感器数据
+     * 动态遍历所有字段，不限制字段名称和数量
+     */
+    public static void fillSensorItems(SensorData data, JSONObject dateObj) throws JSONException {
+        Iterator<String> keys = dateObj.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object valueObj = dateObj.get(key);
+            
+            if (valueObj instanceof JSONObject) {
+                // 标准格式: {"val":xx,"unit":"xx"}
+                JSONObject itemObj = (JSONObject) valueObj;
+                String value = String.valueOf(itemObj.opt(FIELD_VAL));
+                String unit = itemObj.optString(FIELD_UNIT, "");
+                data.addItem(key, value, unit);
+            } else {
+                // 简单格式: 直接是值
+                data.addItem(key, String.valueOf(valueObj), "");
+            }
+        }
+    }
+    
+    /**
+     * 解析阈值数据
+     * 格式: {"Threshold":{"XXX":{"val":xx,"min":xx,"max":xx,"step":xx},...}}
+     */
+    public static ThresholdData parseThresholdData(JSONObject json) throws JSONException {
+        JSONObject thresholdObj = json.getJSONObject(KEY_THRESHOLD);
+        ThresholdData data = new ThresholdData();
+        
+        // 动态遍历所有阈值项
+        Iterator<String> keys = thresholdObj.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object valueObj = thresholdObj.get(key);
+            
+            ThresholdItem item = new ThresholdItem();
+            item.setKey(key);
+            item.setName(key); // 直接使用原始键名作为显示名称
+            
+            if (valueObj instanceof JSONObject) {
+                JSONObject itemObj = (JSONObject) valueObj;
+                item.setValue(itemObj.optInt(FIELD_VAL, 0));
+                item.setMin(itemObj.optInt(FIELD_MIN, 0));
+                item.setMax(itemObj.optInt(FIELD_MAX, 100));
+                item.setStep(itemObj.optInt(FIELD_STEP, 1));
+                item.setUnit(itemObj.optString(FIELD_UNIT, ""));
+            } else {
+                // 简单格式
+                try {
+                    item.setValue(Integer.parseInt(String.valueOf(valueObj)));
+                } catch (NumberFormatException e) {
+                    item.setValue(0);
+                }
+                item.setMin(0);
+                item.setMax(100);
+                item.setStep(1);
+                item.setUnit("");
+            }
+            
+            data.addThresholdItem(item);
+        }
+        return data;
+    }
+    
+    /**
+     * 解析握手回复中设备选择的负载格式
+     * 格式: {"Caps":{"payload":"bin1"}}
+     */
+    public static String parseCapsMode(JSONObject json) throws JSONException {
+        return json.getJSONObject(KEY_CAPS).getString(FIELD_PAYLOAD);
+    }
+    
+    /**
+     * 解析握手回复中设备选择的分帧格式，未声明时为 FFDD 分帧
+     * 格式: {"Caps":{"payload":"bin1","framing":"len1"}}
+     */
+    public static String parseCapsFraming(JSONObject json) throws JSONException {
+        return json.getJSONObject(KEY_CAPS).optString(FIELD_FRAMING, PayloadCapabilities.FRAMING_MARKER);
+    }
+    
+    /**
+     * 解析握手回复中设备确认的其他特性，未声明时为空
+     * 格式: {"Caps":{...,"features":["tbatch1"]}}
+     */
+    public static List<String> parseCapsFeatures(JSONObject json) throws JSONException {
+        JSONArray array = json.getJSONObject(KEY_CAPS).optJSONArray(FIELD_FEATURES);
+        List<String> features = new ArrayList<>();
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                features.add(array.getString(i));
+            }
+        }
+        return features;
+    }
+    
+    /**
+     * 解析二进制记录布局声明
+     * 格式: {"Schema":{"id":1,"fields":[{"key":"Temp","unit":"℃","type":"i16","dec":1},...]}}
+     */
+    public static PayloadSchema parseSchema(JSONObject json) throws JSONException {
+        JSONObject schemaObj = json.getJSONObject(KEY_SCHEMA);
+        int id = schemaObj.getInt(FIELD_ID);
+        if (id < 0 || id > 0xFF) {
+            throw new JSONException("schema id out of range: " + id);
+        }
+        JSONArray fieldArray = schemaObj.getJSONArray(FIELD_FIELDS);
+        List<PayloadSchema.Field> fields = new ArrayList<>(fieldArray.length());
+        for (int i = 0; i < fieldArray.length(); i++) {
+            JSONObject fieldObj = fieldArray.getJSONObject(i);
+            String typeCode = fieldObj.getString(FIELD_TYPE);
+            PayloadSchema.FieldType type = PayloadSchema.FieldType.fromCode(typeCode);
+            if (type == null) {
+                throw new JSONException("unknown field type: " + typeCode);
+            }
+            int decimals = Math.max(0, Math.min(MAX_DECIMALS, fieldObj.optInt(FIELD_DECIMALS, 0)));
+            fields.add(new PayloadSchema.Field(fieldObj.getString(FIELD_KEY),
+                    fieldObj.optString(FIELD_UNIT, ""), type, decimals));
+        }
+        return new PayloadSchema(id, fields);
+    }
+    
+    /**
+     * 生成布局声明 (模拟设备使用)
+     */
+    public static String toSchemaJson(PayloadSchema schema) throws JSONException {
+        JSONArray fieldArray = new JSONArray();
+        for (PayloadSchema.Field field : schema.getFields()) {
+            fieldArray.put(new JSONObject()
+                    .put(FIELD_KEY, field.getKey())
+                    .put(FIELD_UNIT, field.getUnit())
+                    .put(FIELD_TYPE, field.getType().getCode())
+                    .put(FIELD_DECIMALS, field.getDecimals()));
+        }
+        JSONObject schemaObj = new JSONObject()
+                .put(FIELD_ID, schema.getId())
+                .put(FIELD_FIELDS, fieldArray);
+        return new JSONObject().put(KEY_SCHEMA, schemaObj).toString();
+    }
+    
+    /**
+     * 生成握手回复 (模拟设备使用)
+     */
+    public static String toCapsJson(String mode, String framing) throws JSONException {
+        return toCapsJson(mode, framing, null);
+    }
+    
+    /**
+     * 生成带特性列表的握手回复 (模拟设备使用)
+     */
+    public static String toCapsJson(String mode, String framing, List<String> features) throws JSONException {
+        JSONObject caps = new JSONObject().put(FIELD_PAYLOAD, mode);
+        if (framing != null) {
+            caps.put(FIELD_FRAMING, framing);
+        }
+        if (features != null && !features.isEmpty()) {
+            caps.put(FIELD_FEATURES, new JSONArray(features));
+        }
+        return new JSONObject().put(KEY_CAPS, caps).toString();
+    }
+    
+    /**
+     * 把传感器数据转换为JSON，格式与设备发送的相同
+     * 二进制记录没有原始JSON，入库前用它生成
+     * 格式: {"Date":{"XXX":{"val":xx,"unit":"xx"},...}}
+     */
+    public static String toSensorJson(SensorData data) {
+        StringBuilder sb = new StringBuilder(16 + data.getItemCount() * 32);
+        sb.append("{\"").append(KEY_DATE).append("\":{");
+        boolean first = true;
+        for (SensorData.SensorItem item : data.getItems().values()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(JSONObject.quote(item.getKey()))
+              .append(":{\"").append(FIELD_VAL).append("\":");
+            // 数值原样输出，与设备JSON一致；非数值加引号
+            String value = item.getValue();
+            if (isNumber(value)) {
+                sb.append(value);
+            } else {
+                sb.append(JSONObject.quote(value));
+            }
+            sb.append(",\"").append(FIELD_UNIT).append("\":")
+              .append(JSONObject.quote(item.getUnit())).append('}');
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+    
+    private static boolean isNumber(String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        try {
+            double d = Double.parseDouble(value);
+            return !Double.isNaN(d) && !Double.isInfinite(d);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.wp.bt.protocol;
+
+import com.wp.bt.model.SensorData;
+
+/**
+ * 二进制负载编解码
+ * 一条记录: [schema id: 1字节][各字段数值，按 Schema 顺序，大端]
+ *
+ * FFDD 分帧下记录以 '~' 开头、小写十六进制文本传输，
+ * 小写十六进制中不会出现结束标记 FFDD，也不会与 '{' 开头的JSON帧混淆
+ * 一个 i16 字段编码后只有4个字符，JSON格式约需30个字符
+ */
+public final class BinaryPayloadCodec {
+    
+    /**
+     * 文本形式二进制记录的前缀
+     */
+    public static final char TEXT_PREFIX = '~';
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private static final long[] POW10 = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+    
+    private BinaryPayloadCodec() {
+    }
+    
+    /**
+     * 是否为文本形式的二进制记录
+     */
+    public static boolean isTextRecord(String frame) {
+        return frame != null && !frame.isEmpty() && frame.charAt(0) == TEXT_PREFIX;
+    }
+    
+    /**
+     * 记录引用的 schema id
+     */
+    public static int readSchemaId(byte[] record, int offset, int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("empty record");
+        }
+        return record[offset] & 0xFF;
+    }
+    
+    /**
+     * 按 Schema 解码一条记录，直接填入传感器数据
+     * @throws IllegalArgumentException 记录长度与 Schema 不符
+     */
+    public static SensorData decode(PayloadSchema schema, byte[] record, int offset, int length) {
+        if (length != schema.getRecordSize()) {
+            throw new IllegalArgumentException("record size " + length
+                    + " does not match schema " + schema.getId() + " (" + schema.getRecordSize() + ")");
+        }
+        SensorData data = new SensorData();
+        int pos = offset + 1;
+        for (PayloadSchema.Field field : schema.getFields()) {
+            String value;
+            switch (field.getType()) {
+                case I16:
+                    value = formatScaled((short) readInt(record, pos, 2), field.getDecimals());
+                    break;
+                case I32:
+                    value = formatScaled(readInt(record, pos, 4), field.getDecimals());
+                    break;
+                default:
+                    value = Float.toString(Float.intBitsToFloat(readInt(record, pos, 4)));
+                    break;
+            }
+            pos += field.getType().getSize();
+            data.addItem(field.getKey(), value, field.getUnit());
+        }
+        return data;
+    }
+    
+    /**
+     * 按 Schema 编码一条记录 (模拟设备和测试用)
+     */
+    public static byte[] encode(PayloadSchema schema, double[] values) {
+        byte[] record = new byte[schema.getRecordSize()];
+        record[0] = (byte) schema.getId();
+        int pos = 1;
+        int i = 0;
+        for (PayloadSchema.Field field : schema.getFields()) {
+            double value = values[i++];
+            int bits;
+            switch (field.getType()) {
+                case I16:
+                    bits = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE,
+                            Math.round(value * POW10[field.getDecimals()])));
+                    break;
+                case I32:
+                    bits = (int) Math.round(value * POW10[field.getDecimals()]);
+                    break;
+                default:
+                    bits = Float.floatToIntBits((float) value);
+                    break;
+            }
+            writeInt(record, pos, bits, field.getType().getSize());
+            pos += field.getType().getSize();
+        }
+        return record;
+    }
+    
+    /**
+     * 编码为 FFDD 分帧使用的文本形式
+     */
+    public static String toText(byte[] record) {
+        return toText(record, 0, record.length);
+    }
+    
+    /**
+     * 编码 [offset, offset + length) 为文本形式
+     */
+    public static String toText(byte[] record, int offset, int length) {
+        char[] text = new char[1 + length * 2];
+        text[0] = TEXT_PREFIX;
+        for (int i = 0; i < length; i++) {
+            byte b = record[offset + i];
+            text[1 + i * 2] = HEX[(b >> 4) & 0x0F];
+            text[2 + i * 2] = HEX[b & 0x0F];
+        }
+        return new String(text);
+    }
+    
+    /**
+     * 解析文本形式的记录
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static byte[] fromText(String text) {
+        int length = text.length() - 1;
+        if (!isTextRecord(text) || length % 2 != 0) {
+            throw new IllegalArgumentException("malformed binary record");
+        }
+        byte[] record = new byte[length / 2];
+        for (int i = 0; i < record.length; i++) {
+            int high = Character.digit(text.charAt(1 + i * 2), 16);
+            int low = Character.digit(text.charAt(2 + i * 2), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("malformed binary record");
+            }
+            record[i] = (byte) ((high << 4) | low);
+        }
+        return record;
+    }
+    
+    /**
+     * 定点数转字符串，不经过浮点，保证 251 / dec=1 输出 "25.1"
+     */
+    static String formatScaled(long raw, int decimals) {
+        if (decimals <= 0) {
+            return Long.toString(raw);
+        }
+        StringBuilder sb = new StringBuilder(12);
+        if (raw < 0) {
+            sb.append('-');
+            raw = -raw;
+        }
+        String digits = Long.toString(raw);
+        int intLength = digits.length() - decimals;
+        if (intLength <= 0) {
+            sb.append("0.");
+            for (int i = intLength; i < 0; i++) {
+                sb.append('0');
+            }
+            sb.append(digits);
+        } else {
+            sb.append(digits, 0, intLength).append('.').append(digits, intLength, digits.length());
+        }
+        return sb.toString();
+    }
+    
+    private static int readInt(byte[] buffer, int pos, int size) {
+        int value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (buffer[pos + i] & 0xFF);
+        }
+        return value;
+    }
+    
+    private static void writeInt(byte[] buffer, int pos, int value, int size) {
+        for (int i = size - 1; i >= 0; i--) {
+            buffer[pos + i] = (byte) value;
+            value >>= 8;
+        }
+    }
+}
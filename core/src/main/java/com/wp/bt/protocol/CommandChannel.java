@@ -0,0 +1,305 @@
+package com.wp.bt.protocol;
+
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.LatencyHistogram;
+import com.wp.bt.metrics.MetricsRegistry;
+import com.wp.bt.model.ThresholdData;
+import com.wp.bt.model.ThresholdItem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 阈值指令通道
+ * TODEVICEDATA##KEY##VALUE## 本身没有应答，设备执行后回传 Threshold 帧，
+ * 回传帧中 KEY 的值等于下发的值即视为该指令已确认 (回传匹配)，不需要修改设备固件
+ * 一组阈值 (阈值方案) 作为一条指令在一次写入中发送，回传帧中所有键都一致时一次确认
+ *
+ * 最多 window 条指令同时等待确认，其余排队；超时后重发，重发 maxRetries 次仍未确认则失败
+ * 同一个键只保留最新的值: 排队中的旧值直接替换，已发出的旧值不再等待确认也不重发，
+ * 避免旧值重发后覆盖新值
+ * 每条确认的往返时间记入 command.rtt，单个阈值另记入 command.rtt.KEY，一组阈值记入 command.rtt.batch
+ *
+ * 非线程安全，时间由调用方传入 (System.nanoTime())，由调用方按 nextDeadlineNanos 安排超时检查
+ */
+public class CommandChannel {
+    
+    public static final int DEFAULT_WINDOW = 4;
+    public static final long DEFAULT_TIMEOUT_MS = 1000;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    
+    /**
+     * 没有等待确认的指令
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+    
+    private static final LatencyHistogram RTT = MetricsRegistry.get().timer("command.rtt");
+    private static final Counter SENT = MetricsRegistry.get().counter("command.sent");
+    private static final Counter ACKED = MetricsRegistry.get().counter("command.acked");
+    private static final Counter RETRIES = MetricsRegistry.get().counter("command.retries");
+    private static final Counter TIMEOUTS = MetricsRegistry.get().counter("command.timeouts");
+    private static final Counter SUPERSEDED = MetricsRegistry.get().counter("command.superseded");
+    private static final Counter SEND_ERRORS = MetricsRegistry.get().counter("command.send_errors");
+    
+    /**
+     * 指令的实际发送
+     */
+    public interface Transport {
+        boolean send(String command);
+    }
+    
+    /**
+     * 指令结果回调，在调用 CommandChannel 方法的线程上执行
+     */
+    public interface Listener {
+        /**
+         * @param values 指令下发的键和值，单个阈值时只有一项
+         * @param rttNanos 最后一次发送到收到回传的时间
+         * @param attempts 发送次数，大于1表示经过重发
+         */
+        void onCommandAcked(Map<String, Integer> values, long rttNanos, int attempts);
+        
+        void onCommandFailed(Map<String, Integer> values, String reason);
+    }
+    
+    private static final class Pending {
+        // 被之后的指令覆盖的键会从这里移除
+        final Map<String, Integer> values;
+        // 多个阈值时是否使用 ThresholdBatch 格式，否则逐条指令拼接在一次写入中
+        final boolean batchFormat;
+        int attempts;
+        long sentNanos;
+        
+        Pending(Map<String, Integer> values, boolean batchFormat) {
+            this.values = values;
+            this.batchFormat = batchFormat;
+        }
+        
+        boolean isSingle() {
+            return values.size() == 1;
+        }
+    }
+    
+    private final Transport transport;
+    private final int window;
+    private final long timeoutNanos;
+    private final int maxRetries;
+    private Listener listener;
+    
+    private final ArrayDeque<Pending> queued = new ArrayDeque<>();
+    private final List<Pending> inFlight = new ArrayList<>();
+    
+    public CommandChannel(Transport transport) {
+        this(transport, DEFAULT_WINDOW, DEFAULT_TIMEOUT_MS, DEFAULT_MAX_RETRIES);
+    }
+    
+    /**
+     * @param window 同时等待确认的最大指令数
+     * @param timeoutMs 等待回传的超时
+     * @param maxRetries 超时后的最大重发次数
+     */
+    public CommandChannel(Transport transport, int window, long timeoutMs, int maxRetries) {
+        if (window < 1 || timeoutMs <= 0 || maxRetries < 0) {
+            throw new IllegalArgumentException("window 必须大于0, timeoutMs 必须大于0, maxRetries 不能为负");
+        }
+        this.transport = transport;
+        this.window = window;
+        this.timeoutNanos = timeoutMs * 1_000_000L;
+        this.maxRetries = maxRetries;
+    }
+    
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * 提交一条阈值指令，窗口未满时立即发送
+     */
+    public void submit(String key, int value, long nowNanos) {
+        // 只看最后一条包含该键的排队指令，它之后没有其他指令再修改这个键
+        Iterator<Pending> it = queued.descendingIterator();
+        while (it.hasNext()) {
+            Pending pending = it.next();
+            if (pending.values.containsKey(key)) {
+                if (pending.isSingle()) {
+                    pending.values.put(key, value);
+                    SUPERSEDED.inc();
+                    return;
+                }
+                break;
+            }
+        }
+        Map<String, Integer> values = new LinkedHashMap<>();
+        values.put(key, value);
+        queued.add(new Pending(values, false));
+        pump(nowNanos);
+    }
+    
+    /**
+     * 提交一组阈值，作为一条指令在一次写入中发送，设备回传后一次确认
+     * @param batchFormat 设备支持 ThresholdBatch 指令时为 true，否则逐条指令拼接发送
+     */
+    public void submitBatch(Map<String, Integer> values, boolean batchFormat, long nowNanos) {
+        if (values.isEmpty()) {
+            return;
+        }
+        queued.add(new Pending(new LinkedHashMap<>(values), batchFormat));
+        pump(nowNanos);
+    }
+    
+    /**
+     * 收到设备回传的阈值，确认值一致的指令
+     */
+    public void onThresholdData(ThresholdData data, long nowNanos) {
+        // 先收集再回调，回调中可能再次调用 submit
+        List<Pending> acked = new ArrayList<>();
+        Iterator<Pending> it = inFlight.iterator();
+        while (it.hasNext()) {
+            Pending pending = it.next();
+            if (matches(pending, data)) {
+                it.remove();
+                acked.add(pending);
+            }
+        }
+        for (Pending pending : acked) {
+            long rtt = nowNanos - pending.sentNanos;
+            RTT.record(rtt);
+            String name = pending.isSingle() ? pending.values.keySet().iterator().next() : "batch";
+            MetricsRegistry.get().timer("command.rtt." + name).record(rtt);
+            ACKED.inc();
+            if (listener != null) {
+                listener.onCommandAcked(pending.values, rtt, pending.attempts);
+            }
+        }
+        pump(nowNanos);
+    }
+    
+    /**
+     * 检查超时，重发或判定失败
+     * @return 下一次需要检查的时间，见 nextDeadlineNanos
+     */
+    public long checkTimeouts(long nowNanos) {
+        // 先收集再处理，回调中可能再次调用 submit
+        List<Pending> expired = new ArrayList<>();
+        for (Pending pending : inFlight) {
+            if (nowNanos - pending.sentNanos >= timeoutNanos) {
+                expired.add(pending);
+            }
+        }
+        for (Pending pending : expired) {
+            if (pending.attempts <= maxRetries) {
+                RETRIES.inc();
+                if (!transmit(pending, nowNanos)) {
+                    inFlight.remove(pending);
+                    fail(pending, "发送失败");
+                }
+            } else {
+                TIMEOUTS.inc();
+                inFlight.remove(pending);
+                fail(pending, "设备未确认");
+            }
+        }
+        pump(nowNanos);
+        return nextDeadlineNanos();
+    }
+    
+    /**
+     * 最早的超时时间，没有等待确认的指令时返回 NO_DEADLINE
+     */
+    public long nextDeadlineNanos() {
+        long deadline = NO_DEADLINE;
+        for (Pending pending : inFlight) {
+            deadline = Math.min(deadline, pending.sentNanos + timeoutNanos);
+        }
+        return deadline;
+    }
+    
+    /**
+     * 放弃所有指令 (断开连接时调用)
+     */
+    public void clear(String reason) {
+        List<Pending> dropped = new ArrayList<>(inFlight);
+        dropped.addAll(queued);
+        inFlight.clear();
+        queued.clear();
+        for (Pending pending : dropped) {
+            fail(pending, reason);
+        }
+    }
+    
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+    
+    public int getQueuedCount() {
+        return queued.size();
+    }
+    
+    /**
+     * 窗口未满时发送排队的指令
+     */
+    private void pump(long nowNanos) {
+        while (inFlight.size() < window && !queued.isEmpty()) {
+            Pending pending = queued.poll();
+            // 同一个键已发出的旧值不再等待，其他键照常等待确认
+            Iterator<Pending> it = inFlight.iterator();
+            while (it.hasNext()) {
+                Pending older = it.next();
+                if (older.values.keySet().removeAll(pending.values.keySet()) && older.values.isEmpty()) {
+                    it.remove();
+                    SUPERSEDED.inc();
+                }
+            }
+            if (transmit(pending, nowNanos)) {
+                inFlight.add(pending);
+            } else {
+                fail(pending, "发送失败");
+            }
+        }
+    }
+    
+    private boolean transmit(Pending pending, long nowNanos) {
+        pending.attempts++;
+        pending.sentNanos = nowNanos;
+        SENT.inc();
+        if (transport.send(commandOf(pending))) {
+            return true;
+        }
+        SEND_ERRORS.inc();
+        return false;
+    }
+    
+    private static String commandOf(Pending pending) {
+        if (pending.batchFormat && !pending.isSingle()) {
+            return ThresholdBatch.request(pending.values);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : pending.values.entrySet()) {
+            sb.append(ThresholdItem.generateCommand(entry.getKey(), entry.getValue()));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * 回传帧中指令的所有键都已是下发的值
+     */
+    private static boolean matches(Pending pending, ThresholdData data) {
+        for (Map.Entry<String, Integer> entry : pending.values.entrySet()) {
+            ThresholdItem item = data.getItemByKey(entry.getKey());
+            if (item == null || item.getValue() != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void fail(Pending pending, String reason) {
+        if (listener != null) {
+            listener.onCommandFailed(pending.values, reason);
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.wp.bt.protocol;
+
+import com.wp.bt.metrics.Counter;
+import com.wp.bt.metrics.FrameTrace;
+import com.wp.bt.metrics.MetricsRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 分帧器
+ * 把串口收到的数据块拼接起来，按 FFDD 结束标记切分为完整的数据帧
+ * 不依赖 Android，可在 JVM 上测试和基准测试
+ *
+ * 分帧在原始字节上进行，只对完整的帧做 UTF-8 解码:
+ * 跨数据块的多字节字符 (如单位 ℃) 不会被截断，被丢弃的数据也不需要解码
+ *
+ * 单帧长度有上限: 设备发送乱码或丢失结束标记时，缓冲区不会无限增长，
+ * 超限后丢弃数据直到下一个帧起始符 '{'，重新同步
+ *
+ * 同时支持长度前缀格式 (见 LengthFrame)，按每帧首字节自动识别:
+ * 同步字节 0xA5 开头的帧读帧头后直接跳到帧尾，分帧开销与帧数成正比，与字节数无关；
+ * 其他帧按 FFDD 结束标记切分，兼容旧设备
+ * 握手协商了长度前缀分帧 (setLengthFraming)，或收到 CRC 校验通过的长度前缀帧后，认为设备已切换格式，
+ * 之后非同步字节开头的数据按乱码丢弃，避免损坏帧中的 '{' 被当作旧格式帧，一直等待不会出现的 FFDD
+ * 在此之前不带 CRC 的 0xA5 帧头无法与线路噪声区分，按乱码跳过，旧格式帧照常切分；
+ * 一段噪声不会让旧设备的数据从此被丢弃
+ *
+ * 非线程安全，只应在读线程中调用
+ */
+public class FrameDecoder {
+    
+    // 数据结束标记
+    public static final String DATA_END_MARKER = "FFDD";
+    private static final byte[] MARKER = DATA_END_MARKER.getBytes(StandardCharsets.US_ASCII);
+    
+    // 帧起始符，重新同步时从这里开始
+    private static final byte FRAME_START = '{';
+    
+    // 缓冲区初始大小
+    private static final int INITIAL_CAPACITY = 4096;
+    
+    // 默认单帧最大长度
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 32 * 1024;
+    
+    // 所有分帧器共用的指标
+    private static final Counter DISCARDED_BYTES = MetricsRegistry.get().counter("frame.discarded_bytes");
+    private static final Counter OVERSIZED_FRAMES = MetricsRegistry.get().counter("frame.oversized");
+    private static final Counter RESYNCS = MetricsRegistry.get().counter("frame.resyncs");
+    private static final Counter LENGTH_FRAMES = MetricsRegistry.get().counter("frame.length_prefixed");
+    private static final Counter CRC_ERRORS = MetricsRegistry.get().counter("frame.crc_errors");
+    private static final Counter UNKNOWN_TYPES = MetricsRegistry.get().counter("frame.unknown_type");
+    
+    /**
+     * 分帧回调
+     */
+    public interface FrameListener {
+        void onFrame(String frame, FrameTrace trace);
+        
+        /**
+         * 带帧类型的文本帧，需要按类型区分帧时覆盖
+         * 默认忽略类型交给 onFrame
+         * @param type 长度前缀帧的 LengthFrame.TYPE_*，旧格式帧为 LengthFrame.TYPE_UNKNOWN
+         */
+        default void onTypedFrame(String frame, int type, FrameTrace trace) {
+            onFrame(frame, trace);
+        }
+        
+        /**
+         * 长度前缀格式中的二进制记录
+         * data 是分帧器的内部缓冲区，只在回调期间有效
+         * 默认转换为 '~' 开头的文本形式交给 onFrame，与 FFDD 分帧下的记录走同一条解析路径
+         */
+        default void onRecord(byte[] data, int offset, int length, FrameTrace trace) {
+            onFrame(BinaryPayloadCodec.toText(data, offset, length), trace);
+        }
+    }
+    
+    private final FrameListener listener;
+    private final int maxFrameLength;
+    
+    // 未成帧的原始字节 [0, bufferLength)
+    private byte[] dataBuffer = new byte[INITIAL_CAPACITY];
+    private int bufferLength;
+    
+    // 复用的解码器和输出缓冲
+    private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private CharBuffer charBuffer = CharBuffer.allocate(INITIAL_CAPACITY);
+    
+    // 缓冲区中当前帧首字节的到达时间 (System.nanoTime)
+    private long frameStartNanos;
+    
+    // 本分帧器丢弃的字节数、超长帧数和 CRC 错误帧数
+    private long discardedLength;
+    private long oversizedFrames;
+    private long crcErrors;
+    
+    // 重新同步时没有找到起始符，下一帧需要跳过起始符之前的残留数据
+    private boolean resyncPending;
+    
+    // 设备使用长度前缀分帧: 握手协商确认，或已收到 CRC 校验通过的长度前缀帧
+    private boolean lengthMode;
+    
+    public FrameDecoder(FrameListener listener) {
+        this(listener, DEFAULT_MAX_FRAME_LENGTH);
+    }
+    
+    /**
+     * @param maxFrameLength 单帧最大长度 (字节)，超过的帧被丢弃
+     */
+    public FrameDecoder(FrameListener listener, int maxFrameLength) {
+        if (maxFrameLength <= DATA_END_MARKER.length()) {
+            throw new IllegalArgumentException("maxFrameLength too small: " + maxFrameLength);
+        }
+        this.listener = listener;
+        this.maxFrameLength = maxFrameLength;
+    }
+    
+    /**
+     * 输入一个字符串数据块 (测试和基准用)，按 UTF-8 编码后分帧
+     */
+    public int feed(String data, long arrivalNanos) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return feed(bytes, 0, bytes.length, arrivalNanos);
+    }
+    
+    /**
+     * 输入一个数据块
+     * 数据会被复制，调用方可以立即复用 data
+     * @param data 数据块
+     * @param offset 起始位置
+     * @param length 字节数
+     * @param arrivalNanos 数据块到达时间 (System.nanoTime)
+     * @return 本次切分出的帧数
+     */
+    public int feed(byte[] data, int offset, int length, long arrivalNanos) {
+        if (bufferLength == 0) {
+            frameStartNanos = arrivalNanos;
+        }
+        // 缓冲区中是未完成的旧格式帧时，之前的数据已确认不含完整标记，
+        // 只需从可能跨块的标记开头查找
+        int scanFrom = bufferLength > 0 && dataBuffer[0] != LengthFrame.SYNC
+                ? Math.max(0, bufferLength - (MARKER.length - 1)) : 0;
+        ensureCapacity(bufferLength + length);
+        System.arraycopy(data, offset, dataBuffer, bufferLength, length);
+        bufferLength += length;
+        
+        int frames = 0;
+        int start = 0;
+        
+        while (start < bufferLength) {
+            byte first = dataBuffer[start];
+            
+            if (first == LengthFrame.SYNC) {
+                // 长度前缀格式
+                resyncPending = false;
+                if (bufferLength - start < LengthFrame.HEADER_LENGTH) {
+                    break;
+                }
+                int typeByte = dataBuffer[start + 1] & 0xFF;
+                int payloadLength = ((dataBuffer[start + 2] & 0xFF) << 8) | (dataBuffer[start + 3] & 0xFF);
+                if (payloadLength > maxFrameLength) {
+                    // 长度字段超限 (损坏或不是帧头)，跳过同步字节重新查找
+                    oversizedFrames++;
+                    OVERSIZED_FRAMES.inc();
+                    start = skipToFrameStart(start);
+                    continue;
+                }
+                boolean crc = LengthFrame.hasCrc(typeByte);
+                if (!crc && !lengthMode) {
+                    // 未确认长度前缀分帧时，不带 CRC 的帧头可能是噪声
+                    start = skipToFrameStart(start);
+                    continue;
+                }
+                int frameLength = LengthFrame.HEADER_LENGTH + payloadLength + (crc ? LengthFrame.CRC_LENGTH : 0);
+                if (bufferLength - start < frameLength) {
+                    // 帧不完整，等待后续数据
+                    break;
+                }
+                
+                FrameTrace trace = new FrameTrace(frameStartNanos, arrivalNanos);
+                frameStartNanos = arrivalNanos;
+                
+                int payloadStart = start + LengthFrame.HEADER_LENGTH;
+                if (crc && !checkCrc(start, payloadLength)) {
+                    crcErrors++;
+                    CRC_ERRORS.inc();
+                    int next = start + frameLength;
+                    if (next == bufferLength || dataBuffer[next] == LengthFrame.SYNC) {
+                        // 帧尾与下一帧衔接，帧头可信，只是负载损坏: 整帧丢弃，
+                        // 不从负载中的 '{' 开始按旧格式查找
+                        discard(frameLength);
+                        start = next;
+                    } else {
+                        start = skipToFrameStart(start);
+                    }
+                    continue;
+                }
+                start += frameLength;
+                // 走到这里的帧已通过 CRC 校验，或分帧格式已由握手确认
+                lengthMode = true;
+                LENGTH_FRAMES.inc();
+                if (dispatch(typeByte, payloadStart, payloadLength, trace)) {
+                    frames++;
+                }
+                continue;
+            }
+            
+            if (lengthMode) {
+                // 长度前缀帧之间不应有其他数据
+                start = skipToFrameStart(start);
+                continue;
+            }
+            
+            if ((first & 0xFF) <= ' ') {
+                // 帧之间的空白 (如换行)
+                start++;
+                continue;
+            }
+            
+            // FFDD 结束标记格式
+            int endIndex = indexOfMarker(Math.max(start, scanFrom));
+            if (endIndex == -1) {
+                break;
+            }
+            int frameStart = start;
+            start = endIndex + MARKER.length;
+            
+            FrameTrace trace = new FrameTrace(frameStartNanos, arrivalNanos);
+            // 剩余数据属于下一帧，首字节在本数据块中到达
+            frameStartNanos = arrivalNanos;
+            
+            if (resyncPending) {
+                resyncPending = false;
+                int head = indexOf(FRAME_START, frameStart, endIndex);
+                if (head >= 0) {
+                    discard(head - frameStart);
+                    frameStart = head;
+                }
+            }
+            
+            if (endIndex - frameStart > maxFrameLength) {
+                // 超长帧不交给解析器
+                discard(endIndex - frameStart);
+                oversizedFrames++;
+                OVERSIZED_FRAMES.inc();
+                continue;
+            }
+            
+            // 提取完整的数据包
+            String completeData = decode(frameStart, endIndex);
+            if (!completeData.isEmpty()) {
+                trace.markFramed();
+                listener.onTypedFrame(completeData, LengthFrame.TYPE_UNKNOWN, trace);
+                frames++;
+            }
+        }
+        
+        // 未成帧的旧格式数据超过上限: 结束标记丢失或收到的是乱码
+        // 长度前缀帧的长度在帧头已检查过，不会走到这里
+        if (bufferLength - start > maxFrameLength && dataBuffer[start] != LengthFrame.SYNC) {
+            start = resync(start);
+            frameStartNanos = arrivalNanos;
+        }
+        
+        // 移除已处理的数据，只做一次拷贝
+        if (start > 0) {
+            bufferLength -= start;
+            System.arraycopy(dataBuffer, start, dataBuffer, 0, bufferLength);
+        }
+        return frames;
+    }
+    
+    /**
+     * 按类型分发长度前缀帧
+     * @return 是否交给了回调
+     */
+    private boolean dispatch(int typeByte, int from, int length, FrameTrace trace) {
+        int type = LengthFrame.typeOf(typeByte);
+        if (type == LengthFrame.TYPE_RECORD) {
+            // 二进制记录不做 UTF-8 解码
+            trace.markFramed();
+            listener.onRecord(dataBuffer, from, length, trace);
+            return true;
+        }
+        if (!LengthFrame.isText(type)) {
+            // 新版设备的帧类型，本版本不认识
+            UNKNOWN_TYPES.inc();
+            return false;
+        }
+        String text = decode(from, from + length);
+        if (text.isEmpty()) {
+            return false;
+        }
+        trace.markFramed();
+        listener.onTypedFrame(text, type, trace);
+        return true;
+    }
+    
+    private boolean checkCrc(int frameStart, int payloadLength) {
+        int crcIndex = frameStart + LengthFrame.HEADER_LENGTH + payloadLength;
+        int expected = ((dataBuffer[crcIndex] & 0xFF) << 8) | (dataBuffer[crcIndex + 1] & 0xFF);
+        // CRC 覆盖类型、长度和负载，不含同步字节
+        return LengthFrame.crc16(dataBuffer, frameStart + 1, LengthFrame.HEADER_LENGTH - 1 + payloadLength) == expected;
+    }
+    
+    /**
+     * 长度前缀帧损坏或帧间出现乱码: 丢弃到下一个可能的帧起始
+     * 已确认使用长度前缀分帧时只找同步字节，否则也接受旧格式的 '{' 和 '~'
+     * @param start 损坏数据的起始位置
+     * @return 新的起始位置
+     */
+    private int skipToFrameStart(int start) {
+        RESYNCS.inc();
+        int next = bufferLength;
+        for (int i = start + 1; i < bufferLength; i++) {
+            byte b = dataBuffer[i];
+            if (b == LengthFrame.SYNC
+                    || (!lengthMode && (b == FRAME_START || b == BinaryPayloadCodec.TEXT_PREFIX))) {
+                next = i;
+                break;
+            }
+        }
+        discard(next - start);
+        return next;
+    }
+    
+    /**
+     * 把 [from, to) 的字节去掉首尾空白后按 UTF-8 解码
+     */
+    private String decode(int from, int to) {
+        while (from < to && (dataBuffer[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (dataBuffer[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        int length = to - from;
+        if (length == 0) {
+            return "";
+        }
+        // UTF-8 解码后的字符数不会超过字节数
+        if (charBuffer.capacity() < length) {
+            charBuffer = CharBuffer.allocate(Math.max(length, charBuffer.capacity() * 2));
+        }
+        charBuffer.clear();
+        utf8.reset();
+        utf8.decode(ByteBuffer.wrap(dataBuffer, from, length), charBuffer, true);
+        utf8.flush(charBuffer);
+        return new String(charBuffer.array(), 0, charBuffer.position());
+    }
+    
+    private int indexOfMarker(int from) {
+        int last = bufferLength - MARKER.length;
+        for (int i = from; i <= last; i++) {
+            if (dataBuffer[i] == MARKER[0] && dataBuffer[i + 1] == MARKER[1]
+                    && dataBuffer[i + 2] == MARKER[2] && dataBuffer[i + 3] == MARKER[3]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (dataBuffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > dataBuffer.length) {
+            byte[] grown = new byte[Math.max(capacity, dataBuffer.length * 2)];
+            System.arraycopy(dataBuffer, 0, grown, 0, bufferLength);
+            dataBuffer = grown;
+        }
+    }
+    
+    /**
+     * 丢弃当前未完成的帧，跳到下一个帧起始符
+     * 没有起始符时只保留末尾可能是半个结束标记的几个字节
+     * @param start 当前帧在缓冲区中的起始位置
+     * @return 新的起始位置
+     */
+    private int resync(int start) {
+        RESYNCS.inc();
+        oversizedFrames++;
+        OVERSIZED_FRAMES.inc();
+        
+        // 第一个之后剩余数据不超限的起始符
+        int next = indexOf(FRAME_START, Math.max(start + 1, bufferLength - maxFrameLength), bufferLength);
+        if (next < 0) {
+            next = bufferLength - (MARKER.length - 1);
+            resyncPending = true;
+        }
+        discard(next - start);
+        return next;
+    }
+    
+    private void discard(int length) {
+        discardedLength += length;
+        DISCARDED_BYTES.add(length);
+    }
+    
+    /**
+     * 握手协商的分帧格式 (读线程调用)
+     * @param lengthFraming 设备确认使用长度前缀分帧时为 true，之后也接受不带 CRC 的长度前缀帧
+     */
+    public void setLengthFraming(boolean lengthFraming) {
+        this.lengthMode = lengthFraming;
+    }
+    
+    /**
+     * 缓冲区中未成帧的字节数
+     */
+    public int getBufferedLength() {
+        return bufferLength;
+    }
+    
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+    
+    /**
+     * 因超长或重新同步丢弃的字节数
+     */
+    public long getDiscardedLength() {
+        return discardedLength;
+    }
+    
+    /**
+     * 超长被丢弃的帧数
+     */
+    public long getOversizedFrames() {
+        return oversizedFrames;
+    }
+    
+    /**
+     * CRC 校验失败被丢弃的长度前缀帧数
+     */
+    public long getCrcErrors() {
+        return crcErrors;
+    }
+    
+    /**
+     * 清空缓冲区 (断开连接时调用)
+     */
+    public void reset() {
+        bufferLength = 0;
+        if (dataBuffer.length > INITIAL_CAPACITY) {
+            dataBuffer = new byte[INITIAL_CAPACITY];
+        }
+        frameStartNanos = 0;
+        resyncPending = false;
+        lengthMode = false;
+    }
+}
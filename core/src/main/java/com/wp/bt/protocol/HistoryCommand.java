@@ -0,0 +1,46 @@
+package com.wp.bt.protocol;
+
+/**
+ * 设备历史记录下载指令
+ *
+ * 应用发送:  TODEVICELOG##游标##最多条数##
+ * 设备从序号 游标+1 开始连续发送 {"Log":{...}} 分块，不按实时数据的频率限速，
+ * 本次请求的最后一块带 "last":true，"more" 表示设备上是否还有更多记录
+ * 应用按块入库并推进游标，断线后从已入库的游标继续
+ */
+public final class HistoryCommand {
+    
+    public static final String COMMAND_PREFIX = "TODEVICELOG##";
+    
+    private HistoryCommand() {
+    }
+    
+    /**
+     * 下载指令
+     * @param cursor 已收到的最后一条记录的序号，从头下载为 0
+     * @param maxRecords 本次请求最多返回的记录数
+     */
+    public static String request(long cursor, int maxRecords) {
+        return COMMAND_PREFIX + cursor + "##" + maxRecords + "##";
+    }
+    
+    /**
+     * 解析下载指令 (模拟设备使用)
+     * @param command 完整指令，如 TODEVICELOG##0##5000##
+     * @return {游标, 最多条数}，格式错误时返回 null
+     */
+    public static long[] parseRequest(String command) {
+        if (command == null || !command.startsWith(COMMAND_PREFIX)) {
+            return null;
+        }
+        String[] parts = command.substring(COMMAND_PREFIX.length()).split("##");
+        if (parts.length < 2) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim())};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
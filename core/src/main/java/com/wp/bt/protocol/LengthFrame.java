@@ -0,0 +1,132 @@
+package com.wp.bt.protocol;
+
+/**
+ * 长度前缀分帧格式
+ * [同步字节 0xA5][类型: 1字节][负载长度: 2字节, 大端][负载][CRC16: 2字节, 可选]
+ *
+ * 分帧器读到帧头即可直接定位帧尾，负载整块拷贝，不需要逐字节查找 FFDD，
+ * 负载中出现 FFDD 也不会被误切
+ * 类型字节最高位表示带 CRC，CRC 覆盖类型、长度和负载 (CRC-16/CCITT-FALSE)
+ *
+ * 0xA5 不是合法的 UTF-8 首字节，不会与 '{' 或 '~' 开头的旧格式帧混淆，
+ * 分帧器按每帧首字节自动识别两种格式
+ */
+public final class LengthFrame {
+    
+    /**
+     * 帧同步字节
+     */
+    public static final byte SYNC = (byte) 0xA5;
+    
+    /**
+     * 帧头长度: 同步字节 + 类型 + 长度
+     */
+    public static final int HEADER_LENGTH = 4;
+    
+    public static final int CRC_LENGTH = 2;
+    
+    /**
+     * 负载最大长度 (长度字段为2字节)
+     */
+    public static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+    
+    /**
+     * 旧格式 (FFDD 结尾) 的帧没有类型字节，用此值表示类型未知
+     */
+    public static final int TYPE_UNKNOWN = 0x00;
+    
+    /**
+     * 传感器数据，负载为 {"Date":{...}} JSON
+     */
+    public static final int TYPE_SENSOR = 0x01;
+    
+    /**
+     * 阈值数据，负载为 {"Threshold":{...}} JSON
+     */
+    public static final int TYPE_THRESHOLD = 0x02;
+    
+    /**
+     * 应答和握手回复，负载为 JSON
+     */
+    public static final int TYPE_ACK = 0x03;
+    
+    /**
+     * 二进制记录，负载为 BinaryPayloadCodec 格式的原始字节
+     */
+    public static final int TYPE_RECORD = 0x04;
+    
+    /**
+     * 类型字节中的 CRC 标志位
+     */
+    public static final int FLAG_CRC = 0x80;
+    
+    private static final int TYPE_MASK = 0x7F;
+    
+    private static final int[] CRC_TABLE = new int[256];
+    
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+    
+    private LengthFrame() {
+    }
+    
+    /**
+     * 去掉标志位后的帧类型
+     */
+    public static int typeOf(int typeByte) {
+        return typeByte & TYPE_MASK;
+    }
+    
+    public static boolean hasCrc(int typeByte) {
+        return (typeByte & FLAG_CRC) != 0;
+    }
+    
+    /**
+     * 负载是否为 UTF-8 文本 (JSON)
+     */
+    public static boolean isText(int type) {
+        return type == TYPE_SENSOR || type == TYPE_THRESHOLD || type == TYPE_ACK;
+    }
+    
+    /**
+     * 编码一帧 (模拟设备和测试用)
+     * @param type 帧类型，TYPE_*
+     * @param crc 是否附加 CRC
+     */
+    public static byte[] encode(int type, byte[] payload, boolean crc) {
+        if (payload.length > MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("payload too long: " + payload.length);
+        }
+        int typeByte = typeOf(type) | (crc ? FLAG_CRC : 0);
+        byte[] frame = new byte[HEADER_LENGTH + payload.length + (crc ? CRC_LENGTH : 0)];
+        frame[0] = SYNC;
+        frame[1] = (byte) typeByte;
+        frame[2] = (byte) (payload.length >> 8);
+        frame[3] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, HEADER_LENGTH, payload.length);
+        if (crc) {
+            int value = crc16(frame, 1, HEADER_LENGTH - 1 + payload.length);
+            frame[frame.length - 2] = (byte) (value >> 8);
+            frame[frame.length - 1] = (byte) value;
+        }
+        return frame;
+    }
+    
+    /**
+     * CRC-16/CCITT-FALSE (多项式 0x1021，初值 0xFFFF)
+     */
+    public static int crc16(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC_TABLE[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,99 @@
+package com.wp.bt.protocol;
+
+/**
+ * 负载格式握手
+ *
+ * 连接建立后应用发送:  TODEVICECAPS##json,bin1,len1,delta1,batch1,tbatch1##
+ * 支持二进制负载的设备回复 {"Caps":{"payload":"bin1"}}，接着发送 {"Schema":{...}}，
+ * 之后的传感器数据使用二进制记录；不认识该指令的旧设备忽略它，继续发送JSON
+ * 支持长度前缀分帧的设备在回复中带 "framing":"len1"，回复之后的帧改用 LengthFrame 格式
+ * 声明 delta1 表示应用能合并增量帧 (见 DeltaMerger)，设备可以只发送变化的字段
+ * 声明 batch1 表示应用能解析多采样批量帧，设备可以缓存多次采样后一起发送
+ * 声明 tbatch1 表示应用会发送阈值批量指令 (见 ThresholdBatch)，支持的设备在回复中带 "features":["tbatch1"]
+ *
+ * 应用侧按每帧的首字节区分格式，负载的握手结果只用于日志和诊断；
+ * 分帧器在握手确认 len1 或收到带 CRC 的长度前缀帧之后，才接受不带 CRC 的长度前缀帧；
+ * 下发指令的格式 (tbatch1) 只在设备确认后使用
+ */
+public final class PayloadCapabilities {
+    
+    /**
+     * 握手指令前缀，与阈值指令 TODEVICEDATA## 区分，旧设备不会误当作阈值
+     */
+    public static final String COMMAND_PREFIX = "TODEVICECAPS##";
+    
+    /**
+     * JSON负载 (默认，所有设备都支持)
+     */
+    public static final String MODE_JSON = "json";
+    
+    /**
+     * 二进制负载，第1版记录格式
+     */
+    public static final String MODE_BINARY = "bin1";
+    
+    /**
+     * FFDD 结束标记分帧 (默认，所有设备都支持)
+     */
+    public static final String FRAMING_MARKER = "ffdd";
+    
+    /**
+     * 长度前缀分帧，见 LengthFrame
+     */
+    public static final String FRAMING_LENGTH = "len1";
+    
+    /**
+     * 关键帧 + 增量帧
+     */
+    public static final String FEATURE_DELTA = "delta1";
+    
+    /**
+     * 多采样批量帧
+     */
+    public static final String FEATURE_BATCH = "batch1";
+    
+    /**
+     * 阈值批量下发指令
+     */
+    public static final String FEATURE_THRESHOLD_BATCH = "tbatch1";
+    
+    private PayloadCapabilities() {
+    }
+    
+    /**
+     * 握手指令
+     * @param binary 是否声明支持二进制负载
+     */
+    public static String request(boolean binary) {
+        return binary ? request(MODE_BINARY) : request();
+    }
+    
+    /**
+     * 握手指令，JSON负载总是声明
+     * @param features 额外支持的格式和特性，如 MODE_BINARY、FRAMING_LENGTH、FEATURE_DELTA
+     */
+    public static String request(String... features) {
+        StringBuilder sb = new StringBuilder(COMMAND_PREFIX).append(MODE_JSON);
+        for (String feature : features) {
+            sb.append(',').append(feature);
+        }
+        return sb.append("##").toString();
+    }
+    
+    /**
+     * 解析握手指令中应用支持的格式
+     * @param command 完整指令，如 TODEVICECAPS##json,bin1,len1,delta1,batch1##
+     * @return 格式列表，不是握手指令时返回 null
+     */
+    public static String[] parseRequest(String command) {
+        if (command == null || !command.startsWith(COMMAND_PREFIX)) {
+            return null;
+        }
+        String body = command.substring(COMMAND_PREFIX.length());
+        int end = body.indexOf("##");
+        if (end >= 0) {
+            body = body.substring(0, end);
+        }
+        return body.split(",");
+    }
+}
@@ -0,0 +1,113 @@
+package com.wp.bt.protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 二进制负载的字段布局
+ * 设备在握手后发送一次 Schema 声明，之后的二进制记录只携带数值，
+ * 键名和单位从这里取，不再每帧重复
+ *
+ * 声明格式:
+ * {"Schema":{"id":1,"fields":[{"key":"Temp","unit":"℃","type":"i16","dec":1},...]}}
+ */
+public class PayloadSchema {
+    
+    /**
+     * 数值类型
+     */
+    public enum FieldType {
+        I16("i16", 2),
+        I32("i32", 4),
+        F32("f32", 4);
+        
+        private final String code;
+        private final int size;
+        
+        FieldType(String code, int size) {
+            this.code = code;
+            this.size = size;
+        }
+        
+        public String getCode() {
+            return code;
+        }
+        
+        /**
+         * 编码后的字节数
+         */
+        public int getSize() {
+            return size;
+        }
+        
+        /**
+         * 按类型代码查找，未知类型返回 null
+         */
+        public static FieldType fromCode(String code) {
+            for (FieldType type : values()) {
+                if (type.code.equals(code)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * 单个字段
+     * 整数类型的实际值为 原始值 / 10^decimals，例如 i16 的 251 配合 dec=1 表示 25.1
+     */
+    public static class Field {
+        private final String key;
+        private final String unit;
+        private final FieldType type;
+        private final int decimals;
+        
+        public Field(String key, String unit, FieldType type, int decimals) {
+            this.key = key;
+            this.unit = unit != null ? unit : "";
+            this.type = type;
+            this.decimals = decimals;
+        }
+        
+        public String getKey() { return key; }
+        public String getUnit() { return unit; }
+        public FieldType getType() { return type; }
+        public int getDecimals() { return decimals; }
+    }
+    
+    private final int id;
+    private final List<Field> fields;
+    private final int recordSize;
+    
+    public PayloadSchema(int id, List<Field> fields) {
+        this.id = id;
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+        int size = 1; // schema id
+        for (Field field : fields) {
+            size += field.type.size;
+        }
+        this.recordSize = size;
+    }
+    
+    public int getId() {
+        return id;
+    }
+    
+    public List<Field> getFields() {
+        return fields;
+    }
+    
+    /**
+     * 一条记录的字节数 (含 schema id)
+     */
+    public int getRecordSize() {
+        return recordSize;
+    }
+    
+    @Override
+    public String toString() {
+        return "PayloadSchema{id=" + id + ", fields=" + fields.size() + ", recordSize=" + recordSize + "}";
+    }
+}
@@ -0,0 +1,93 @@
+package com.wp.bt.protocol;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 阈值批量下发指令
+ *
+ * 应用发送:  TODEVICEBATCH##条数##KEY1##VALUE1##KEY2##VALUE2##
+ * 设备依次应用所有阈值后只回传一次 Threshold 帧，一次往返完成整套阈值方案
+ * 握手时设备回复 "features":["tbatch1"] 才使用，否则逐条 TODEVICEDATA 指令在同一次写入中发送
+ */
+public final class ThresholdBatch {
+
+    public static final String COMMAND_PREFIX = "TODEVICEBATCH##";
+
+    private ThresholdBatch() {
+    }
+
+    /**
+     * 批量指令，按 values 的迭代顺序应用
+     */
+    public static String request(Map<String, Integer> values) {
+        StringBuilder sb = new StringBuilder(COMMAND_PREFIX.length() + 8 + values.size() * 20);
+        sb.append(COMMAND_PREFIX).append(values.size()).append("##");
+        for (Map.Entry<String, Integer> entry : values.entrySet()) {
+            sb.append(entry.getKey()).append("##").append(entry.getValue()).append("##");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 批量指令的总长度 (模拟设备按此从接收缓冲区中切出完整指令)
+     * @param buffer 以 COMMAND_PREFIX 开头的缓冲区
+     * @return 完整指令的长度，数据还不完整时返回 -1
+     */
+    public static int commandLength(CharSequence buffer) {
+        int pos = COMMAND_PREFIX.length();
+        int end = indexOf(buffer, pos);
+        if (end == -1) {
+            return -1;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(buffer.subSequence(pos, end).toString().trim());
+        } catch (NumberFormatException e) {
+            // 格式错误，只丢弃前缀和条数
+            return end + 2;
+        }
+        pos = end + 2;
+        for (int i = 0; i < count * 2; i++) {
+            end = indexOf(buffer, pos);
+            if (end == -1) {
+                return -1;
+            }
+            pos = end + 2;
+        }
+        return pos;
+    }
+
+    /**
+     * 解析批量指令 (模拟设备使用)
+     * @return 键和值，按指令中的顺序；格式错误时返回 null
+     */
+    public static Map<String, Integer> parseRequest(String command) {
+        if (command == null || !command.startsWith(COMMAND_PREFIX)) {
+            return null;
+        }
+        String[] parts = command.substring(COMMAND_PREFIX.length()).split("##", -1);
+        try {
+            int count = Integer.parseInt(parts[0].trim());
+            if (count < 0 || parts.length < 1 + count * 2) {
+                return null;
+            }
+            Map<String, Integer> values = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                values.put(parts[1 + i * 2], Integer.parseInt(parts[2 + i * 2].trim()));
+            }
+            return values;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int indexOf(CharSequence buffer, int from) {
+        for (int i = from; i + 1 < buffer.length(); i++) {
+            if (buffer.charAt(i) == '#' && buffer.charAt(i + 1) == '#') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,776 @@
+package com.wp.bt.sim;
+
+import com.wp.bt.parser.PayloadParser;
+import com.wp.bt.protocol.BinaryPayloadCodec;
+import com.wp.bt.protocol.HistoryCommand;
+import com.wp.bt.protocol.LengthFrame;
+import com.wp.bt.protocol.PayloadCapabilities;
+import com.wp.bt.protocol.PayloadSchema;
+import com.wp.bt.protocol.ThresholdBatch;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 模拟设备
+ * 按设备实际的串口格式发送数据:
+ *   {"Date":{...}}FFDD
+ *   {"Threshold":{...}}FFDD
+ * 并接收 TODEVICEDATA##KEY##VALUE## 指令，按配置回传阈值
+ * 配置支持二进制负载时，收到 TODEVICECAPS##...bin1## 后回复 Caps 和 Schema，
+ * 之后的传感器数据改为二进制记录
+ * 配置支持长度前缀分帧且应用请求 len1 时，握手回复之后的帧改用 LengthFrame 格式 (带 CRC)
+ * 配置了关键帧间隔且应用请求 delta1 时，JSON传感器数据改为关键帧 + 增量帧
+ * 配置了批量大小且应用请求 batch1 时，按 frameRateHz 采样，每攒够一批发送一个 Batch 帧
+ * 收到 TODEVICELOG##游标##条数## 时在指令线程上连续发送缓存的历史记录分块，不限速
+ * 配置了设备时间时 Date/Delta 帧带 "T"，设备时钟可按配置漂移，用于验证时钟估计
+ * 应用请求 tbatch1 时在握手回复中确认，收到 TODEVICEBATCH## 后应用所有阈值，只回传一次
+ *
+ * 用于无硬件时的压力测试和长时间运行测试
+ */
+public class DeviceSimulator {
+
+    private static final String END_MARKER = "FFDD";
+    private static final String COMMAND_PREFIX = "TODEVICEDATA##";
+    private static final String CAPS_PREFIX = PayloadCapabilities.COMMAND_PREFIX;
+    private static final String LOG_PREFIX = HistoryCommand.COMMAND_PREFIX;
+    private static final String BATCH_PREFIX = ThresholdBatch.COMMAND_PREFIX;
+    private static final String[] COMMAND_PREFIXES = {COMMAND_PREFIX, CAPS_PREFIX, LOG_PREFIX, BATCH_PREFIX};
+
+    // 历史记录: 设备每秒记录一次，每个分块最多的记录数
+    private static final long LOG_INTERVAL_MS = 1000;
+    private static final int LOG_CHUNK_RECORDS = 100;
+
+    // 模拟设备的二进制记录布局 id
+    private static final int SCHEMA_ID = 1;
+
+    private static final String[] NAMES = {"Temp", "Hum", "Light", "CO2", "Volt", "Curr", "Press", "Soil"};
+    private static final String[] UNITS = {"℃", "%", "lux", "ppm", "V", "A", "kPa", "%"};
+
+    /**
+     * 单个阈值项状态
+     */
+    private static class Threshold {
+        int val;
+        final int min;
+        final int max;
+        final int step;
+
+        Threshold(int val, int min, int max, int step) {
+            this.val = val;
+            this.min = min;
+            this.max = max;
+            this.step = step;
+        }
+    }
+
+    private final SimulatorConfig config;
+    // 发送线程和指令线程各用一个随机数生成器，互不影响取数顺序，相同种子的输出可复现
+    private final Random random;
+    private final Random commandRandom;
+    private final double[] values;
+    private final Map<String, Threshold> thresholds = new LinkedHashMap<>();
+    private final Object writeLock = new Object();
+    private final PayloadSchema schema;
+
+    // 握手协商为二进制负载后为 true
+    private volatile boolean binaryMode;
+
+    // 握手协商为长度前缀分帧后为 true
+    private volatile boolean lengthFraming;
+
+    // 握手协商为增量帧后为 true
+    private volatile boolean deltaMode;
+
+    // 握手协商为批量帧后为 true
+    private volatile boolean batchMode;
+
+    // 当前批次的采样行和行数，只在发送线程访问
+    private final StringBuilder batchRows = new StringBuilder();
+    private int batchCount;
+
+    // 增量帧状态，只在发送线程访问
+    private final String[] keyframeValues;
+    private long keyframeId;
+    private int framesSinceKeyframe;
+
+    private OutputStream out;
+    private InputStream in;
+    private Thread senderThread;
+    private Thread commandThread;
+    private volatile boolean running;
+
+    // 统计
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong malformedSent = new AtomicLong();
+    private final AtomicLong thresholdSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong commandsReceived = new AtomicLong();
+    private final AtomicLong lateFrames = new AtomicLong();
+    private volatile double currentRateHz;
+    private volatile long startNanos;
+    private volatile IOException lastError;
+
+    public DeviceSimulator(SimulatorConfig config) {
+        this.config = config;
+        this.random = new Random(config.getSeed());
+        this.commandRandom = new Random(config.getSeed() + 1);
+        this.values = new double[config.getKeyCount()];
+        this.keyframeValues = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 20 + random.nextDouble() * 60;
+        }
+        List<PayloadSchema.Field> fields = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            fields.add(new PayloadSchema.Field(NAMES[i % NAMES.length] + (i / NAMES.length),
+                    UNITS[i % UNITS.length], PayloadSchema.FieldType.I16, 1));
+        }
+        this.schema = new PayloadSchema(SCHEMA_ID, fields);
+        for (int i = 0; i < config.getThresholdKeyCount(); i++) {
+            String key = NAMES[i % NAMES.length] + (i % 2 == 0 ? "Max" : "Min") + (i / NAMES.length);
+            thresholds.put(key, new Threshold(50, 0, 100, 1));
+        }
+    }
+
+    /**
+     * 启动模拟
+     * @param out 发往应用的数据流
+     * @param in  应用下发的指令流, 为 null 时不接收指令
+     */
+    public synchronized void start(OutputStream out, InputStream in) {
+        if (running) {
+            return;
+        }
+        this.out = out;
+        this.in = in;
+        this.running = true;
+        this.currentRateHz = config.getFrameRateHz();
+        this.startNanos = System.nanoTime();
+
+        senderThread = new Thread(this::sendLoop, "sim-sender");
+        senderThread.setDaemon(true);
+        senderThread.start();
+
+        if (in != null) {
+            commandThread = new Thread(this::commandLoop, "sim-command");
+            commandThread.setDaemon(true);
+            commandThread.start();
+        }
+    }
+
+    /**
+     * 停止模拟并关闭数据流
+     */
+    public synchronized void stop() {
+        running = false;
+        if (senderThread != null) {
+            senderThread.interrupt();
+        }
+        if (commandThread != null) {
+            commandThread.interrupt();
+        }
+        closeQuietly(out);
+        closeQuietly(in);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 发送循环: 按目标频率发送传感器数据帧
+     */
+    private void sendLoop() {
+        try {
+            sendThreshold();
+
+            long frameIndex = 0;
+            long nextNanos = System.nanoTime();
+            long rampNanos = TimeUnit.MILLISECONDS.toNanos(config.getRampIntervalMs());
+            long nextRampNanos = startNanos + rampNanos;
+
+            while (running) {
+                long maxFrames = config.getMaxFrames();
+                if (maxFrames > 0 && frameIndex >= maxFrames) {
+                    break;
+                }
+
+                // 逐步加压
+                long now = System.nanoTime();
+                if (config.getRampStepHz() > 0 && now >= nextRampNanos) {
+                    currentRateHz += config.getRampStepHz();
+                    nextRampNanos += rampNanos;
+                }
+
+                // 等待下一帧的发送时间
+                long waitNanos = nextNanos - now;
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                } else if (waitNanos < -periodNanos()) {
+                    // 落后超过一帧，说明写入被阻塞 (应用处理不过来)
+                    lateFrames.incrementAndGet();
+                    nextNanos = now;
+                }
+                if (Thread.interrupted()) {
+                    break;
+                }
+
+                if (random.nextDouble() < config.getMalformedRatio()) {
+                    writeMalformedFrame();
+                    malformedSent.incrementAndGet();
+                } else if (batchMode) {
+                    appendBatchSample();
+                    framesSent.incrementAndGet();
+                    if (batchCount >= config.getBatchSize()) {
+                        writeFrame(LengthFrame.TYPE_SENSOR, batchFrame());
+                    }
+                } else if (binaryMode && lengthFraming) {
+                    // 长度前缀分帧下二进制记录直接发送原始字节
+                    writePacket(LengthFrame.TYPE_RECORD, nextRecord());
+                    framesSent.incrementAndGet();
+                } else {
+                    writeFrame(LengthFrame.TYPE_SENSOR, sensorFrame());
+                    framesSent.incrementAndGet();
+                }
+                frameIndex++;
+
+                int interval = config.getThresholdIntervalFrames();
+                if (interval > 0 && frameIndex % interval == 0) {
+                    sendThreshold();
+                }
+
+                nextNanos += periodNanos() + jitterNanos();
+            }
+        } catch (IOException e) {
+            if (running) {
+                lastError = e;
+            }
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * 指令接收循环: 解析 TODEVICEDATA##KEY##VALUE## 并回传阈值
+     */
+    private void commandLoop() {
+        StringBuilder buffer = new StringBuilder();
+        byte[] bytes = new byte[256];
+        try {
+            int n;
+            while (running && (n = in.read(bytes)) != -1) {
+                buffer.append(new String(bytes, 0, n, StandardCharsets.UTF_8));
+                int start;
+                while ((start = nextCommand(buffer)) != -1) {
+                    if (buffer.indexOf(CAPS_PREFIX) == start) {
+                        // 握手: TODEVICECAPS##json,bin1##
+                        int end = buffer.indexOf("##", start + CAPS_PREFIX.length());
+                        if (end == -1) {
+                            break;
+                        }
+                        String command = buffer.substring(start, end + 2);
+                        buffer.delete(0, end + 2);
+                        commandsReceived.incrementAndGet();
+                        applyCaps(PayloadCapabilities.parseRequest(command));
+                        continue;
+                    }
+                    if (buffer.indexOf(LOG_PREFIX) == start) {
+                        // 历史下载: TODEVICELOG##游标##条数##
+                        int cursorEnd = buffer.indexOf("##", start + LOG_PREFIX.length());
+                        int end = cursorEnd == -1 ? -1 : buffer.indexOf("##", cursorEnd + 2);
+                        if (end == -1) {
+                            break;
+                        }
+                        String command = buffer.substring(start, end + 2);
+                        buffer.delete(0, end + 2);
+                        commandsReceived.incrementAndGet();
+                        long[] request = HistoryCommand.parseRequest(command);
+                        if (request != null) {
+                            sendLog(request[0], request[1]);
+                        }
+                        continue;
+                    }
+                    if (buffer.indexOf(BATCH_PREFIX) == start) {
+                        // 阈值批量: TODEVICEBATCH##条数##KEY##VALUE##...
+                        int length = ThresholdBatch.commandLength(buffer.subSequence(start, buffer.length()));
+                        if (length == -1) {
+                            break;
+                        }
+                        String command = buffer.substring(start, start + length);
+                        buffer.delete(0, start + length);
+                        commandsReceived.incrementAndGet();
+                        applyBatch(ThresholdBatch.parseRequest(command));
+                        continue;
+                    }
+                    // 指令由前缀和三个 ## 分隔段组成
+                    String[] parts = buffer.substring(start + COMMAND_PREFIX.length()).split("##", -1);
+                    if (parts.length < 3) {
+                        break;
+                    }
+                    String key = parts[0];
+                    String value = parts[1];
+                    int consumed = COMMAND_PREFIX.length() + key.length() + value.length() + 4;
+                    buffer.delete(0, start + consumed);
+
+                    commandsReceived.incrementAndGet();
+                    applyCommand(key, value);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                lastError = e;
+            }
+        }
+    }
+
+    /**
+     * 缓冲区中第一条指令的位置，没有时返回 -1
+     */
+    private static int nextCommand(StringBuilder buffer) {
+        int first = -1;
+        for (String prefix : COMMAND_PREFIXES) {
+            int index = buffer.indexOf(prefix);
+            if (index != -1 && (first == -1 || index < first)) {
+                first = index;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * 发送缓存的历史记录 (cursor, cursor + maxRecords]
+     * 分块连续写出，速度只受链路限制
+     */
+    private void sendLog(long cursor, long maxRecords) throws IOException {
+        long total = config.getLogRecords();
+        long end = Math.min(total, cursor + Math.max(0, maxRecords));
+        long from = Math.max(0, Math.min(cursor, end));
+        do {
+            long next = Math.min(end, from + LOG_CHUNK_RECORDS);
+            writeFrame(LengthFrame.TYPE_SENSOR, logChunkFrame(from, next, next == end, next < total));
+            from = next;
+        } while (from < end);
+    }
+
+    /**
+     * 历史记录分块，记录 seq 的设备时间为 seq * LOG_INTERVAL_MS，数值由序号确定
+     */
+    private String logChunkFrame(long from, long next, boolean last, boolean more) {
+        long now = deviceTimeMillis();
+        StringBuilder sb = new StringBuilder(128 + (int) (next - from) * (8 + values.length * 6));
+        sb.append("{\"Log\":{\"from\":").append(from)
+          .append(",\"next\":").append(next)
+          .append(",\"last\":").append(last)
+          .append(",\"more\":").append(more)
+          .append(",\"at\":").append(now).append(',');
+        appendKeysAndUnits(sb);
+        sb.append(",\"samples\":[");
+        for (long seq = from + 1; seq <= next; seq++) {
+            if (seq > from + 1) {
+                sb.append(',');
+            }
+            sb.append('[').append(seq * LOG_INTERVAL_MS);
+            for (int i = 0; i < values.length; i++) {
+                sb.append(',').append(20 + ((seq * 7 + i * 13) % 600) / 10.0);
+            }
+            sb.append(']');
+        }
+        sb.append("]}}");
+        return sb.toString();
+    }
+
+    /**
+     * 处理握手: 配置支持且应用请求二进制负载时切换，否则保持JSON
+     * 分帧格式同样按配置和请求协商，回复本身使用当前的分帧格式
+     */
+    private void applyCaps(String[] modes) throws IOException {
+        boolean binary = config.isBinaryPayload() && contains(modes, PayloadCapabilities.MODE_BINARY);
+        boolean length = config.isLengthFraming() && contains(modes, PayloadCapabilities.FRAMING_LENGTH);
+        boolean batch = !binary && config.getBatchSize() > 1
+                && contains(modes, PayloadCapabilities.FEATURE_BATCH);
+        boolean delta = !binary && !batch && config.getKeyframeInterval() > 0
+                && contains(modes, PayloadCapabilities.FEATURE_DELTA);
+        String framing = length ? PayloadCapabilities.FRAMING_LENGTH : null;
+        List<String> features = new ArrayList<>();
+        if (contains(modes, PayloadCapabilities.FEATURE_THRESHOLD_BATCH)) {
+            features.add(PayloadCapabilities.FEATURE_THRESHOLD_BATCH);
+        }
+        try {
+            if (binary) {
+                // 先声明布局再切换，应用收到第一条记录前一定已有布局
+                writeFrame(LengthFrame.TYPE_ACK,
+                        PayloadParser.toCapsJson(PayloadCapabilities.MODE_BINARY, framing, features));
+                writeFrame(LengthFrame.TYPE_ACK, PayloadParser.toSchemaJson(schema));
+            } else {
+                writeFrame(LengthFrame.TYPE_ACK,
+                        PayloadParser.toCapsJson(PayloadCapabilities.MODE_JSON, framing, features));
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        binaryMode = binary;
+        lengthFraming = length;
+        deltaMode = delta;
+        batchMode = batch;
+    }
+
+    private static boolean contains(String[] modes, String mode) {
+        for (String m : modes) {
+            if (mode.equals(m.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void applyCommand(String key, String value) throws IOException {
+        int val;
+        try {
+            val = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        setThreshold(key, val);
+        if (config.isThresholdEcho()) {
+            sendThreshold();
+        }
+    }
+
+    /**
+     * 应用批量指令中的所有阈值，只回传一次
+     */
+    private void applyBatch(Map<String, Integer> batch) throws IOException {
+        if (batch == null) {
+            return;
+        }
+        for (Map.Entry<String, Integer> entry : batch.entrySet()) {
+            setThreshold(entry.getKey(), entry.getValue());
+        }
+        if (config.isThresholdEcho()) {
+            sendThreshold();
+        }
+    }
+
+    private void setThreshold(String key, int value) {
+        synchronized (thresholds) {
+            Threshold threshold = thresholds.get(key);
+            if (threshold == null) {
+                threshold = new Threshold(0, 0, 100, 1);
+                thresholds.put(key, threshold);
+            }
+            threshold.val = value;
+        }
+    }
+
+    private void sendThreshold() throws IOException {
+        writeFrame(LengthFrame.TYPE_THRESHOLD, thresholdFrame());
+        thresholdSent.incrementAndGet();
+    }
+
+    /**
+     * 按当前分帧格式写出一帧文本
+     * @param type 长度前缀分帧下的帧类型
+     */
+    private void writeFrame(int type, String frame) throws IOException {
+        if (lengthFraming) {
+            writePacket(type, frame.getBytes(StandardCharsets.UTF_8));
+        } else {
+            writeBytes((frame + END_MARKER).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void writePacket(int type, byte[] payload) throws IOException {
+        writeBytes(LengthFrame.encode(type, payload, true));
+    }
+
+    /**
+     * 按配置的分包大小写出数据
+     * 发送线程和指令线程都会写，需要同步；分包大小取自调用线程自己的随机数生成器
+     */
+    private void writeBytes(byte[] data) throws IOException {
+        synchronized (writeLock) {
+            int maxChunk = config.getMaxChunkSize();
+            if (maxChunk <= 0) {
+                out.write(data);
+            } else {
+                int minChunk = Math.max(1, config.getMinChunkSize());
+                Random chunkRandom = Thread.currentThread() == commandThread ? commandRandom : random;
+                int offset = 0;
+                while (offset < data.length) {
+                    int size = minChunk + chunkRandom.nextInt(maxChunk - minChunk + 1);
+                    size = Math.min(size, data.length - offset);
+                    out.write(data, offset, size);
+                    out.flush();
+                    offset += size;
+                }
+            }
+            out.flush();
+        }
+        bytesSent.addAndGet(data.length);
+    }
+
+    private String sensorFrame() {
+        if (binaryMode) {
+            return BinaryPayloadCodec.toText(nextRecord());
+        }
+        walk();
+        if (deltaMode && framesSinceKeyframe > 0 && framesSinceKeyframe < config.getKeyframeInterval()) {
+            framesSinceKeyframe++;
+            return deltaFrame();
+        }
+        framesSinceKeyframe = deltaMode ? 1 : 0;
+        StringBuilder sb = new StringBuilder(32 + values.length * 40);
+        sb.append("{\"Date\":{");
+        for (int i = 0; i < values.length; i++) {
+            String value = formatValue(i);
+            keyframeValues[i] = value;
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(NAMES[i % NAMES.length]).append(i / NAMES.length)
+              .append("\":{\"val\":").append(value)
+              .append(",\"unit\":\"").append(UNITS[i % UNITS.length]).append("\"}");
+        }
+        sb.append('}');
+        if (deltaMode) {
+            sb.append(",\"Key\":").append(++keyframeId);
+        }
+        appendDeviceTime(sb);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * 设备时间 (毫秒): 按配置的漂移走时，起点在最早一条历史记录处
+     * 批量帧、历史记录和 "T" 字段共用同一个时钟
+     */
+    private long deviceTimeMillis() {
+        double elapsedMs = (System.nanoTime() - startNanos) / 1e6;
+        return config.getLogRecords() * LOG_INTERVAL_MS
+                + Math.round(elapsedMs * (1 - config.getClockDriftPpm() / 1e6));
+    }
+
+    private void appendDeviceTime(StringBuilder sb) {
+        if (config.isDeviceTime()) {
+            sb.append(",\"T\":").append(deviceTimeMillis());
+        }
+    }
+
+    /**
+     * 采样一次加入当前批次，行首为设备时间
+     */
+    private void appendBatchSample() {
+        walk();
+        if (batchCount > 0) {
+            batchRows.append(',');
+        }
+        batchRows.append('[').append(deviceTimeMillis());
+        for (int i = 0; i < values.length; i++) {
+            batchRows.append(',').append(formatValue(i));
+        }
+        batchRows.append(']');
+        batchCount++;
+    }
+
+    /**
+     * 批量帧: 键名和单位只发送一次，之后每行只有时间和数值
+     */
+    private String batchFrame() {
+        StringBuilder sb = new StringBuilder(64 + values.length * 24 + batchRows.length());
+        sb.append("{\"Batch\":{");
+        appendKeysAndUnits(sb);
+        sb.append(",\"samples\":[").append(batchRows).append("]}}");
+        batchRows.setLength(0);
+        batchCount = 0;
+        return sb.toString();
+    }
+
+    /**
+     * "keys":[...],"units":[...]
+     */
+    private void appendKeysAndUnits(StringBuilder sb) {
+        sb.append("\"keys\":[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(NAMES[i % NAMES.length]).append(i / NAMES.length).append('"');
+        }
+        sb.append("],\"units\":[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(UNITS[i % UNITS.length]).append('"');
+        }
+        sb.append(']');
+    }
+
+    /**
+     * 增量帧: 只含相对最近关键帧变化的通道，省略单位
+     */
+    private String deltaFrame() {
+        StringBuilder sb = new StringBuilder(32);
+        sb.append("{\"Delta\":{");
+        boolean first = true;
+        for (int i = 0; i < values.length; i++) {
+            String value = formatValue(i);
+            if (value.equals(keyframeValues[i])) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(NAMES[i % NAMES.length]).append(i / NAMES.length)
+              .append("\":{\"val\":").append(value).append('}');
+        }
+        sb.append("},\"Key\":").append(keyframeId);
+        appendDeviceTime(sb);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * 随机游走，数值变化更接近真实传感器
+     * 按配置的比例只让部分通道变化，模拟变化缓慢的通道
+     */
+    private void walk() {
+        double changeRatio = config.getChangeRatio();
+        for (int i = 0; i < values.length; i++) {
+            if (changeRatio >= 1 || random.nextDouble() < changeRatio) {
+                values[i] += (random.nextDouble() - 0.5);
+            }
+        }
+    }
+
+    private String formatValue(int index) {
+        return String.valueOf(Math.round(values[index] * 10) / 10.0);
+    }
+
+    /**
+     * 二进制记录: 与JSON帧相同的随机游走，只发送数值
+     */
+    private byte[] nextRecord() {
+        walk();
+        return BinaryPayloadCodec.encode(schema, values);
+    }
+
+    private String thresholdFrame() {
+        StringBuilder sb = new StringBuilder("{\"Threshold\":{");
+        synchronized (thresholds) {
+            boolean first = true;
+            for (Map.Entry<String, Threshold> entry : thresholds.entrySet()) {
+                Threshold t = entry.getValue();
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append('"').append(entry.getKey()).append("\":{\"val\":").append(t.val)
+                  .append(",\"min\":").append(t.min)
+                  .append(",\"max\":").append(t.max)
+                  .append(",\"step\":").append(t.step).append('}');
+            }
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    /**
+     * 写出畸形帧
+     * 长度前缀分帧下把一个正常帧的负载改坏一个字节，CRC 校验应当失败
+     */
+    private void writeMalformedFrame() throws IOException {
+        if (!lengthFraming) {
+            writeBytes((malformedFrame() + END_MARKER).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        byte[] packet = LengthFrame.encode(LengthFrame.TYPE_SENSOR,
+                sensorFrame().getBytes(StandardCharsets.UTF_8), true);
+        int payloadLength = packet.length - LengthFrame.HEADER_LENGTH - LengthFrame.CRC_LENGTH;
+        packet[LengthFrame.HEADER_LENGTH + random.nextInt(payloadLength)] ^= 0x01;
+        writeBytes(packet);
+    }
+
+    /**
+     * 畸形帧: 截断的JSON或随机字符，都以 FFDD 结尾
+     */
+    private String malformedFrame() {
+        if (random.nextBoolean()) {
+            String frame = sensorFrame();
+            return frame.substring(0, 1 + random.nextInt(frame.length() - 1));
+        }
+        char[] garbage = new char[8 + random.nextInt(64)];
+        for (int i = 0; i < garbage.length; i++) {
+            garbage[i] = (char) ('!' + random.nextInt(90));
+        }
+        return new String(garbage).replace("FFDD", "FFDX");
+    }
+
+    private long periodNanos() {
+        return (long) (1_000_000_000L / currentRateHz);
+    }
+
+    private long jitterNanos() {
+        int jitter = config.getJitterMs();
+        if (jitter <= 0) {
+            return 0;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(random.nextInt(jitter * 2 + 1) - jitter);
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    // ==================== 统计 ====================
+
+    public long getFramesSent() { return framesSent.get(); }
+    public long getMalformedSent() { return malformedSent.get(); }
+    public long getThresholdSent() { return thresholdSent.get(); }
+    public long getBytesSent() { return bytesSent.get(); }
+    public long getCommandsReceived() { return commandsReceived.get(); }
+    public long getLateFrames() { return lateFrames.get(); }
+    public double getCurrentRateHz() { return currentRateHz; }
+    public IOException getLastError() { return lastError; }
+
+    public double getElapsedSeconds() {
+        return startNanos == 0 ? 0 : (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    /**
+     * 压测报告
+     * @param processedFrames 应用侧处理完成的传感器帧数
+     */
+    public String getSummary(long processedFrames) {
+        double seconds = Math.max(getElapsedSeconds(), 1e-3);
+        long sent = getFramesSent();
+        return String.format(Locale.US,
+                "elapsed=%.1fs target=%.1fHz sent=%d (%.1f/s) processed=%d (%.1f/s) "
+                        + "backlog/drops=%d malformed=%d threshold=%d late=%d link=%.1fKB/s cmds=%d",
+                seconds, currentRateHz, sent, sent / seconds,
+                processedFrames, processedFrames / seconds,
+                Math.max(0, sent - processedFrames), getMalformedSent(), getThresholdSent(),
+                getLateFrames(), getBytesSent() / 1024.0 / seconds, getCommandsReceived());
+    }
+}
@@ -0,0 +1,244 @@
+package com.wp.bt.sim;
+
+/**
+ * 模拟设备配置
+ * 使用 Builder 创建，所有参数都有默认值
+ */
+public class SimulatorConfig {
+    
+    private final int keyCount;
+    private final double frameRateHz;
+    private final int jitterMs;
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final double malformedRatio;
+    private final boolean thresholdEcho;
+    private final int thresholdKeyCount;
+    private final int thresholdIntervalFrames;
+    private final double rampStepHz;
+    private final long rampIntervalMs;
+    private final long maxFrames;
+    private final long seed;
+    private final boolean binaryPayload;
+    private final boolean lengthFraming;
+    private final int keyframeInterval;
+    private final double changeRatio;
+    private final int batchSize;
+    private final int logRecords;
+    private final boolean deviceTime;
+    private final double clockDriftPpm;
+    
+    private SimulatorConfig(Builder builder) {
+        this.keyCount = builder.keyCount;
+        this.frameRateHz = builder.frameRateHz;
+        this.jitterMs = builder.jitterMs;
+        this.minChunkSize = builder.minChunkSize;
+        this.maxChunkSize = builder.maxChunkSize;
+        this.malformedRatio = builder.malformedRatio;
+        this.thresholdEcho = builder.thresholdEcho;
+        this.thresholdKeyCount = builder.thresholdKeyCount;
+        this.thresholdIntervalFrames = builder.thresholdIntervalFrames;
+        this.rampStepHz = builder.rampStepHz;
+        this.rampIntervalMs = builder.rampIntervalMs;
+        this.maxFrames = builder.maxFrames;
+        this.seed = builder.seed;
+        this.binaryPayload = builder.binaryPayload;
+        this.lengthFraming = builder.lengthFraming;
+        this.keyframeInterval = builder.keyframeInterval;
+        this.changeRatio = builder.changeRatio;
+        this.batchSize = builder.batchSize;
+        this.logRecords = builder.logRecords;
+        this.deviceTime = builder.deviceTime;
+        this.clockDriftPpm = builder.clockDriftPpm;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /** 每帧传感器字段数 */
+    public int getKeyCount() { return keyCount; }
+    /** 初始发送频率 */
+    public double getFrameRateHz() { return frameRateHz; }
+    /** 发送间隔随机抖动 (±毫秒) */
+    public int getJitterMs() { return jitterMs; }
+    /** 每次写入的最小字节数, 模拟串口分包 */
+    public int getMinChunkSize() { return minChunkSize; }
+    /** 每次写入的最大字节数, 0表示整帧写入 */
+    public int getMaxChunkSize() { return maxChunkSize; }
+    /** 畸形帧比例 0~1 */
+    public double getMalformedRatio() { return malformedRatio; }
+    /** 收到阈值指令后是否回传 Threshold 帧 */
+    public boolean isThresholdEcho() { return thresholdEcho; }
+    /** 阈值项数量 */
+    public int getThresholdKeyCount() { return thresholdKeyCount; }
+    /** 每隔多少帧主动发送一次 Threshold 帧, 0表示只在启动时发送 */
+    public int getThresholdIntervalFrames() { return thresholdIntervalFrames; }
+    /** 逐步加压: 每个周期增加的频率, 0表示固定频率 */
+    public double getRampStepHz() { return rampStepHz; }
+    /** 逐步加压的周期 */
+    public long getRampIntervalMs() { return rampIntervalMs; }
+    /** 最多发送的帧数, 0表示不限 */
+    public long getMaxFrames() { return maxFrames; }
+    /** 随机种子, 相同配置和种子生成相同的数据 */
+    public long getSeed() { return seed; }
+    /** 是否支持二进制负载, 握手请求 bin1 时改发二进制记录 */
+    public boolean isBinaryPayload() { return binaryPayload; }
+    /** 是否支持长度前缀分帧, 握手请求 len1 时改用 LengthFrame 格式 (带 CRC) */
+    public boolean isLengthFraming() { return lengthFraming; }
+    /** 增量帧模式下每隔多少帧发送一次关键帧, 0表示不支持增量帧 */
+    public int getKeyframeInterval() { return keyframeInterval; }
+    /** 每帧中数值发生变化的通道比例, 1表示所有通道每帧都变化 */
+    public double getChangeRatio() { return changeRatio; }
+    /** 批量帧模式下每帧的采样数, 1表示不支持批量帧; 采样频率为 frameRateHz */
+    public int getBatchSize() { return batchSize; }
+    /** 设备上已缓存的历史记录条数, 按 TODEVICELOG 指令下载 */
+    public int getLogRecords() { return logRecords; }
+    /** Date/Delta 帧是否带设备时间 "T" */
+    public boolean isDeviceTime() { return deviceTime; }
+    /** 设备时钟相对真实时间的漂移 (ppm), 正值表示设备走得慢 */
+    public double getClockDriftPpm() { return clockDriftPpm; }
+    
+    public static class Builder {
+        private int keyCount = 5;
+        private double frameRateHz = 5;
+        private int jitterMs = 0;
+        private int minChunkSize = 0;
+        private int maxChunkSize = 0;
+        private double malformedRatio = 0;
+        private boolean thresholdEcho = true;
+        private int thresholdKeyCount = 4;
+        private int thresholdIntervalFrames = 0;
+        private double rampStepHz = 0;
+        private long rampIntervalMs = 10_000;
+        private long maxFrames = 0;
+        private long seed = 1;
+        private boolean binaryPayload = false;
+        private boolean lengthFraming = false;
+        private int keyframeInterval = 0;
+        private double changeRatio = 1;
+        private int batchSize = 1;
+        private int logRecords = 0;
+        private boolean deviceTime = false;
+        private double clockDriftPpm = 0;
+        
+        public Builder keyCount(int keyCount) {
+            this.keyCount = keyCount;
+            return this;
+        }
+        
+        public Builder frameRateHz(double frameRateHz) {
+            this.frameRateHz = frameRateHz;
+            return this;
+        }
+        
+        public Builder jitterMs(int jitterMs) {
+            this.jitterMs = jitterMs;
+            return this;
+        }
+        
+        public Builder chunkSize(int minChunkSize, int maxChunkSize) {
+            this.minChunkSize = minChunkSize;
+            this.maxChunkSize = maxChunkSize;
+            return this;
+        }
+        
+        public Builder malformedRatio(double malformedRatio) {
+            this.malformedRatio = malformedRatio;
+            return this;
+        }
+        
+        public Builder thresholdEcho(boolean thresholdEcho) {
+            this.thresholdEcho = thresholdEcho;
+            return this;
+        }
+        
+        public Builder thresholdKeyCount(int thresholdKeyCount) {
+            this.thresholdKeyCount = thresholdKeyCount;
+            return this;
+        }
+        
+        public Builder thresholdIntervalFrames(int thresholdIntervalFrames) {
+            this.thresholdIntervalFrames = thresholdIntervalFrames;
+            return this;
+        }
+        
+        public Builder ramp(double rampStepHz, long rampIntervalMs) {
+            this.rampStepHz = rampStepHz;
+            this.rampIntervalMs = rampIntervalMs;
+            return this;
+        }
+        
+        public Builder maxFrames(long maxFrames) {
+            this.maxFrames = maxFrames;
+            return this;
+        }
+        
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+        
+        public Builder binaryPayload(boolean binaryPayload) {
+            this.binaryPayload = binaryPayload;
+            return this;
+        }
+        
+        public Builder lengthFraming(boolean lengthFraming) {
+            this.lengthFraming = lengthFraming;
+            return this;
+        }
+        
+        public Builder keyframeInterval(int keyframeInterval) {
+            this.keyframeInterval = keyframeInterval;
+            return this;
+        }
+        
+        public Builder changeRatio(double changeRatio) {
+            this.changeRatio = changeRatio;
+            return this;
+        }
+        
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+        
+        public Builder logRecords(int logRecords) {
+            this.logRecords = logRecords;
+            return this;
+        }
+        
+        public Builder deviceTime(boolean deviceTime) {
+            this.deviceTime = deviceTime;
+            return this;
+        }
+        
+        public Builder clockDriftPpm(double clockDriftPpm) {
+            this.clockDriftPpm = clockDriftPpm;
+            return this;
+        }
+        
+        public SimulatorConfig build() {
+            if (keyCount <= 0 || frameRateHz <= 0) {
+                throw new IllegalArgumentException("keyCount 和 frameRateHz 必须大于0");
+            }
+            if (malformedRatio < 0 || malformedRatio > 1) {
+                throw new IllegalArgumentException("malformedRatio 必须在 0~1 之间");
+            }
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize 必须大于0");
+            }
+            if (changeRatio < 0 || changeRatio > 1) {
+                throw new IllegalArgumentException("changeRatio 必须在 0~1 之间");
+            }
+            if (Math.abs(clockDriftPpm) > 1000) {
+                throw new IllegalArgumentException("clockDriftPpm 必须在 ±1000 之间");
+            }
+            if (maxChunkSize > 0 && minChunkSize > maxChunkSize) {
+                throw new IllegalArgumentException("minChunkSize 不能大于 maxChunkSize");
+            }
+            return new SimulatorConfig(this);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.wp.bt.parser;
+
+import com.wp.bt.model.SensorData;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeltaMerger 增量合并测试
+ */
+public class DeltaMergerTest {
+
+    private final DeltaMerger merger = new DeltaMerger();
+
+    private static SensorData keyframe(String temp, String humi) {
+        SensorData data = new SensorData();
+        data.addItem("Temp", temp, "℃");
+        data.addItem("Humi", humi, "%");
+        return data;
+    }
+
+    private static JSONObject delta(String key, String value) throws JSONException {
+        return new JSONObject().put(key, new JSONObject().put("val", value));
+    }
+
+    @Test
+    public void deltaWithoutKeyframeIsDropped() throws JSONException {
+        assertNull(merger.merge(delta("Temp", "25.4"), 7));
+        assertFalse(merger.hasBase());
+    }
+
+    @Test
+    public void deltaMergesOntoKeyframe() throws JSONException {
+        merger.onKeyframe(keyframe("25.0", "40"), 7);
+        SensorData merged = merger.merge(delta("Temp", "25.4"), 7);
+
+        assertNotNull(merged);
+        assertEquals("25.4", merged.getItem("Temp").getValue());
+        // 增量帧省略单位时沿用关键帧的单位
+        assertEquals("℃", merged.getItem("Temp").getUnit());
+        assertEquals("40", merged.getItem("Humi").getValue());
+        assertEquals(Collections.singletonList("Temp"), merged.getChangedKeys());
+    }
+
+    @Test
+    public void deltaForMissingKeyframeIsDroppedUntilNextKeyframe() throws JSONException {
+        merger.onKeyframe(keyframe("25.0", "40"), 7);
+        // 关键帧 8 丢失，引用它的增量不能合并到关键帧 7 上
+        assertNull(merger.merge(delta("Temp", "26.0"), 8));
+        assertNull(merger.merge(delta("Humi", "45"), 8));
+
+        merger.onKeyframe(keyframe("26.0", "45"), 9);
+        SensorData merged = merger.merge(delta("Temp", "26.5"), 9);
+        assertNotNull(merged);
+        assertEquals("26.5", merged.getItem("Temp").getValue());
+        assertEquals("45", merged.getItem("Humi").getValue());
+    }
+
+    @Test
+    public void lostDeltaDoesNotAffectLaterDeltas() throws JSONException {
+        merger.onKeyframe(keyframe("25.0", "40"), 7);
+        // 增量相对关键帧，中间的增量丢失后下一条仍然完整
+        SensorData merged = merger.merge(delta("Humi", "42"), 7);
+
+        assertEquals("25.0", merged.getItem("Temp").getValue());
+        assertEquals("42", merged.getItem("Humi").getValue());
+    }
+
+    @Test
+    public void unchangedDeltaHasNoChangedKeys() throws JSONException {
+        merger.onKeyframe(keyframe("25.0", "40"), 7);
+        SensorData merged = merger.merge(delta("Temp", "25.0"), 7);
+
+        assertTrue(merged.getChangedKeys().isEmpty());
+    }
+
+    @Test
+    public void framesWithoutKeyMergeOntoLatestKeyframe() throws JSONException {
+        merger.onKeyframe(keyframe("25.0", "40"), DeltaMerger.NO_KEY);
+
+        assertNotNull(merger.merge(delta("Temp", "25.1"), DeltaMerger.NO_KEY));
+    }
+
+    @Test
+    public void resetDropsKeyframe() throws JSONException {
+        merger.onKeyframe(keyframe("25.0", "40"), 7);
+        merger.reset();
+
+        assertNull(merger.merge(delta("Temp", "25.1"), 7));
+    }
+}
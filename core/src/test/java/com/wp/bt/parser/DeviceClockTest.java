@@ -0,0 +1,78 @@
+package com.wp.bt.parser;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeviceClock 偏差和漂移估计测试
+ */
+public class DeviceClockTest {
+
+    private static final long PHONE_START_MILLIS = 1_700_000_000_000L;
+
+    private final DeviceClock clock = new DeviceClock();
+    private final Random random = new Random(42);
+
+    /**
+     * 设备每 100ms 发一帧，持续 seconds 秒
+     * @param driftPpm 设备晶振相对手机的偏慢程度
+     * @param maxLatencyMs 链路延迟上限，每个窗口里至少有一帧没有延迟
+     */
+    private void run(long deviceStart, double driftPpm, int maxLatencyMs, int seconds) {
+        for (int i = 0; i < seconds * 10; i++) {
+            long phoneElapsed = i * 100L;
+            long device = deviceStart + Math.round(phoneElapsed * (1 - driftPpm * 1e-6));
+            long latency = i % 10 == 0 ? 0 : random.nextInt(maxLatencyMs + 1);
+            clock.update(device, PHONE_START_MILLIS + phoneElapsed + latency);
+        }
+    }
+
+    @Test
+    public void notSyncedBeforeFirstSample() {
+        assertFalse(clock.isSynced());
+        assertEquals(123, clock.toWallMillis(123));
+    }
+
+    @Test
+    public void estimatesOffsetUnderLatencyJitter() {
+        run(5_000, 0, 40, 30);
+
+        assertTrue(clock.isSynced());
+        // 偏差取各窗口延迟最小的帧，抖动不影响结果
+        assertEquals(PHONE_START_MILLIS - 5_000, clock.getOffsetMillis(), 2);
+        assertEquals(0, clock.getDriftPpm(), 20);
+    }
+
+    @Test
+    public void estimatesDrift() {
+        run(5_000, 100, 40, 60);
+
+        assertEquals(100, clock.getDriftPpm(), 20);
+        // 设备时间换算回手机时间，误差在几毫秒以内
+        long phoneElapsed = 59_900;
+        long device = 5_000 + Math.round(phoneElapsed * (1 - 100e-6));
+        assertEquals(PHONE_START_MILLIS + phoneElapsed, clock.toWallMillis(device), 3);
+    }
+
+    @Test
+    public void driftIsClampedWhenFitIsImplausible() {
+        run(5_000, 5_000, 0, 30);
+
+        assertTrue(clock.getDriftPpm() <= 500);
+    }
+
+    @Test
+    public void deviceRestartResetsEstimate() {
+        run(600_000, 100, 40, 30);
+        // 设备重启，设备时间从头开始
+        run(1_000, 0, 0, 10);
+
+        assertEquals(PHONE_START_MILLIS - 1_000, clock.getOffsetMillis(), 2);
+        assertEquals(0, clock.getDriftPpm(), 1);
+    }
+}
@@ -0,0 +1,215 @@
+package com.wp.bt.protocol;
+
+import com.wp.bt.model.ThresholdData;
+import com.wp.bt.model.ThresholdItem;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CommandChannel 覆盖、重发和确认测试
+ */
+public class CommandChannelTest {
+
+    private static final long TIMEOUT_MS = 100;
+    private static final long TIMEOUT_NANOS = TIMEOUT_MS * 1_000_000L;
+
+    private final List<String> sent = new ArrayList<>();
+    private final List<String> acked = new ArrayList<>();
+    private final List<String> failed = new ArrayList<>();
+    private final List<Integer> attempts = new ArrayList<>();
+    private boolean transportUp = true;
+
+    private CommandChannel newChannel(int window, int maxRetries) {
+        CommandChannel channel = new CommandChannel(command -> {
+            sent.add(command);
+            return transportUp;
+        }, window, TIMEOUT_MS, maxRetries);
+        channel.setListener(new CommandChannel.Listener() {
+            @Override
+            public void onCommandAcked(Map<String, Integer> values, long rttNanos, int count) {
+                acked.add(values.toString());
+                attempts.add(count);
+            }
+
+            @Override
+            public void onCommandFailed(Map<String, Integer> values, String reason) {
+                failed.add(values + " " + reason);
+            }
+        });
+        return channel;
+    }
+
+    @Before
+    public void setUp() {
+        sent.clear();
+        acked.clear();
+        failed.clear();
+        attempts.clear();
+        transportUp = true;
+    }
+
+    private static ThresholdData echo(String... keyValues) {
+        ThresholdData data = new ThresholdData();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            data.addThresholdItem(new ThresholdItem(keyValues[i], keyValues[i], Integer.parseInt(keyValues[i + 1]),
+                    0, 100, 1, ""));
+        }
+        return data;
+    }
+
+    private static String command(String key, int value) {
+        return ThresholdItem.generateCommand(key, value);
+    }
+
+    // ==================== 覆盖 ====================
+
+    @Test
+    public void queuedValueIsReplacedByNewerValue() {
+        CommandChannel channel = newChannel(1, 2);
+        channel.submit("TempMax", 30, 0);
+        channel.submit("TempMin", 5, 0);
+        channel.submit("TempMin", 6, 0);
+
+        assertEquals(1, channel.getQueuedCount());
+        channel.onThresholdData(echo("TempMax", "30"), 1);
+
+        assertEquals(2, sent.size());
+        assertEquals(command("TempMin", 6), sent.get(1));
+    }
+
+    @Test
+    public void inFlightOldValueIsNotRetriedAfterNewerValueSent() {
+        CommandChannel channel = newChannel(2, 2);
+        channel.submit("TempMax", 30, 0);
+        channel.submit("TempMax", 40, 0);
+
+        assertEquals(1, channel.getInFlightCount());
+        channel.checkTimeouts(TIMEOUT_NANOS);
+
+        assertEquals(3, sent.size());
+        assertEquals(command("TempMax", 40), sent.get(2));
+        channel.onThresholdData(echo("TempMax", "40"), TIMEOUT_NANOS + 1);
+        assertEquals(1, acked.size());
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void batchReleasesOnlyTheSupersededKey() {
+        CommandChannel channel = newChannel(2, 2);
+        Map<String, Integer> batch = new LinkedHashMap<>();
+        batch.put("TempMax", 30);
+        batch.put("TempMin", 5);
+        channel.submitBatch(batch, true, 0);
+        channel.submit("TempMin", 8, 0);
+
+        // 一组阈值中剩下的键照常等待确认
+        channel.onThresholdData(echo("TempMax", "30", "TempMin", "8"), 1);
+
+        assertEquals(2, acked.size());
+        assertEquals("{TempMax=30}", acked.get(0));
+        assertEquals("{TempMin=8}", acked.get(1));
+    }
+
+    // ==================== 确认和重发 ====================
+
+    @Test
+    public void ackRequiresMatchingValue() {
+        CommandChannel channel = newChannel(4, 2);
+        channel.submit("TempMax", 30, 0);
+        channel.onThresholdData(echo("TempMax", "29"), 1);
+
+        assertEquals(0, acked.size());
+        assertEquals(1, channel.getInFlightCount());
+    }
+
+    @Test
+    public void batchAckRequiresAllKeys() {
+        CommandChannel channel = newChannel(4, 2);
+        Map<String, Integer> batch = new LinkedHashMap<>();
+        batch.put("TempMax", 30);
+        batch.put("TempMin", 5);
+        channel.submitBatch(batch, true, 0);
+
+        channel.onThresholdData(echo("TempMax", "30", "TempMin", "4"), 1);
+        assertEquals(0, acked.size());
+        channel.onThresholdData(echo("TempMax", "30", "TempMin", "5"), 2);
+        assertEquals(1, acked.size());
+        assertEquals(ThresholdBatch.request(batch), sent.get(0));
+    }
+
+    @Test
+    public void retriesAfterTimeoutThenAcks() {
+        CommandChannel channel = newChannel(4, 2);
+        channel.submit("TempMax", 30, 0);
+
+        assertEquals(TIMEOUT_NANOS, channel.nextDeadlineNanos());
+        channel.checkTimeouts(TIMEOUT_NANOS - 1);
+        assertEquals(1, sent.size());
+        channel.checkTimeouts(TIMEOUT_NANOS);
+        assertEquals(2, sent.size());
+        assertEquals(sent.get(0), sent.get(1));
+
+        channel.onThresholdData(echo("TempMax", "30"), TIMEOUT_NANOS + 5);
+        assertEquals(1, acked.size());
+        assertEquals(Integer.valueOf(2), attempts.get(0));
+        assertEquals(CommandChannel.NO_DEADLINE, channel.nextDeadlineNanos());
+    }
+
+    @Test
+    public void failsAfterMaxRetries() {
+        CommandChannel channel = newChannel(4, 2);
+        channel.submit("TempMax", 30, 0);
+        for (int i = 1; i <= 3; i++) {
+            channel.checkTimeouts(i * TIMEOUT_NANOS);
+        }
+
+        assertEquals(3, sent.size());
+        assertEquals(1, failed.size());
+        assertEquals(0, channel.getInFlightCount());
+    }
+
+    @Test
+    public void windowLimitsInFlightCommands() {
+        CommandChannel channel = newChannel(2, 2);
+        channel.submit("A", 1, 0);
+        channel.submit("B", 2, 0);
+        channel.submit("C", 3, 0);
+
+        assertEquals(2, channel.getInFlightCount());
+        assertEquals(1, channel.getQueuedCount());
+        channel.onThresholdData(echo("A", "1"), 1);
+        assertEquals(2, channel.getInFlightCount());
+        assertEquals(command("C", 3), sent.get(2));
+    }
+
+    @Test
+    public void sendFailureFailsImmediately() {
+        CommandChannel channel = newChannel(4, 2);
+        transportUp = false;
+        channel.submit("TempMax", 30, 0);
+
+        assertEquals(1, failed.size());
+        assertEquals(0, channel.getInFlightCount());
+    }
+
+    @Test
+    public void clearFailsEverything() {
+        CommandChannel channel = newChannel(1, 2);
+        channel.submit("A", 1, 0);
+        channel.submit("B", 2, 0);
+        channel.clear("连接已断开");
+
+        assertEquals(2, failed.size());
+        assertEquals(0, channel.getInFlightCount());
+        assertEquals(0, channel.getQueuedCount());
+    }
+}
@@ -0,0 +1,215 @@
+package com.wp.bt.protocol;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FrameDecoder 分帧测试
+ */
+public class FrameDecoderTest {
+
+    private final List<String> frames = new ArrayList<>();
+    private FrameDecoder decoder;
+
+    @Before
+    public void setUp() {
+        decoder = new FrameDecoder((frame, trace) -> frames.add(frame));
+    }
+
+    private static String sensorJson(int i) {
+        return "{\"Date\":{\"Temp\":{\"val\":" + i + ",\"unit\":\"C\"}}}";
+    }
+
+    private void feed(byte[] bytes) {
+        decoder.feed(bytes, 0, bytes.length, 0);
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ==================== 旧格式分帧 ====================
+
+    @Test
+    public void multibyteCharacterSplitAcrossChunks() {
+        String frame = "{\"Date\":{\"Temp\":{\"val\":25.5,\"unit\":\"℃\"}}}";
+        byte[] bytes = utf8(frame + "FFDD" + frame + "FFDD");
+        // 逐字节送入，℃ 的三个字节落在三个数据块里
+        for (int i = 0; i < bytes.length; i++) {
+            decoder.feed(bytes, i, 1, 0);
+        }
+
+        assertEquals(2, frames.size());
+        assertEquals(frame, frames.get(0));
+        assertEquals(frame, frames.get(1));
+    }
+
+    @Test
+    public void legacyFrameContainingSyncByteIsNotLengthFrame() {
+        // ¥ 的 UTF-8 编码 C2 A5 含有同步字节
+        String frame = "{\"Date\":{\"Price\":{\"val\":3,\"unit\":\"¥\"}}}";
+        feed(utf8(frame + "FFDD"));
+        feed(utf8(sensorJson(1) + "FFDD"));
+
+        assertEquals(2, frames.size());
+        assertEquals(frame, frames.get(0));
+        assertEquals(sensorJson(1), frames.get(1));
+    }
+
+    @Test
+    public void oversizedFrameIsDropped() {
+        decoder = new FrameDecoder((frame, trace) -> frames.add(frame), 256);
+        StringBuilder big = new StringBuilder("{\"Date\":{");
+        for (int i = 0; big.length() < 400; i++) {
+            big.append("\"K").append(i).append("\":{\"val\":").append(i).append("},");
+        }
+        big.setLength(big.length() - 1);
+        big.append("}}");
+        feed(utf8(big + "FFDD"));
+        feed(utf8(sensorJson(1) + "FFDD"));
+
+        assertEquals(1, decoder.getOversizedFrames());
+        assertEquals(1, frames.size());
+        assertEquals(sensorJson(1), frames.get(0));
+    }
+
+    @Test
+    public void lostEndMarkerResyncsToNextFrame() {
+        decoder = new FrameDecoder((frame, trace) -> frames.add(frame), 256);
+        // 结束标记丢失，之后的数据一直拼在同一帧里直到超过上限
+        feed(utf8("{\"Date\":{\"Temp\":{\"val\":"));
+        StringBuilder noise = new StringBuilder();
+        while (noise.length() < 1000) {
+            noise.append("0123456789");
+        }
+        feed(utf8(noise.toString()));
+        for (int i = 1; i <= 3; i++) {
+            feed(utf8(sensorJson(i) + "FFDD"));
+        }
+
+        assertTrue(decoder.getOversizedFrames() >= 1);
+        assertTrue(decoder.getBufferedLength() <= decoder.getMaxFrameLength());
+        assertEquals(3, frames.size());
+        assertEquals(sensorJson(1), frames.get(0));
+        assertEquals(sensorJson(3), frames.get(2));
+    }
+
+    @Test
+    public void bufferStaysBoundedWithoutFrameStart() {
+        decoder = new FrameDecoder((frame, trace) -> frames.add(frame), 256);
+        byte[] noise = new byte[100];
+        for (int i = 0; i < 50; i++) {
+            Arrays.fill(noise, (byte) ('a' + i % 26));
+            feed(noise);
+        }
+        assertTrue(decoder.getBufferedLength() <= decoder.getMaxFrameLength());
+        feed(utf8(sensorJson(1) + "FFDD"));
+
+        assertEquals(1, frames.size());
+        assertEquals(sensorJson(1), frames.get(0));
+    }
+
+    // ==================== 长度前缀格式识别 ====================
+
+    @Test
+    public void noiseHeaderDoesNotDisableLegacyFraming() {
+        feed(utf8(sensorJson(0) + "FFDD"));
+        // 线路噪声: 同步字节 + 不带 CRC 的类型 + 长度 16
+        feed(new byte[]{LengthFrame.SYNC, 0x01, 0x00, 0x10});
+        for (int i = 1; i <= 50; i++) {
+            feed(utf8(sensorJson(i) + "FFDD"));
+        }
+
+        assertEquals(51, frames.size());
+        for (int i = 0; i <= 50; i++) {
+            assertEquals(sensorJson(i), frames.get(i));
+        }
+    }
+
+    @Test
+    public void frameWithoutCrcDoesNotSwitchFormatBeforeNegotiation() {
+        feed(LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(1)), false));
+        for (int i = 2; i <= 5; i++) {
+            feed(utf8(sensorJson(i) + "FFDD"));
+        }
+
+        // 未确认的帧头按乱码跳过，负载与下一帧合并成一个无效帧，之后的旧格式帧不受影响
+        assertEquals(4, frames.size());
+        for (int i = 3; i <= 5; i++) {
+            assertEquals(sensorJson(i), frames.get(i - 2));
+        }
+    }
+
+    @Test
+    public void negotiatedLengthFramingAcceptsFramesWithoutCrc() {
+        decoder.setLengthFraming(true);
+        feed(LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(1)), false));
+        feed(LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(2)), false));
+
+        assertEquals(2, frames.size());
+        assertEquals(sensorJson(2), frames.get(1));
+    }
+
+    @Test
+    public void crcFrameSwitchesToLengthMode() {
+        feed(LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(1)), true));
+        // 切换后不带 CRC 的帧也接受，帧间的旧格式数据按乱码丢弃
+        feed(LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(2)), false));
+        feed(utf8(sensorJson(3) + "FFDD"));
+        feed(LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(4)), true));
+
+        assertEquals(3, frames.size());
+        assertEquals(sensorJson(1), frames.get(0));
+        assertEquals(sensorJson(2), frames.get(1));
+        assertEquals(sensorJson(4), frames.get(2));
+    }
+
+    @Test
+    public void corruptCrcFrameIsDroppedWhole() {
+        byte[] packet = LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(1)), true);
+        packet[LengthFrame.HEADER_LENGTH + 2] ^= 0x01;
+        feed(packet);
+        feed(LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(2)), true));
+        feed(LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(3)), true));
+
+        assertEquals(1, decoder.getCrcErrors());
+        assertEquals(2, frames.size());
+        assertEquals(sensorJson(2), frames.get(0));
+        assertEquals(sensorJson(3), frames.get(1));
+    }
+
+    @Test
+    public void resetForgetsLengthMode() {
+        feed(LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(1)), true));
+        decoder.reset();
+        feed(utf8(sensorJson(2) + "FFDD"));
+
+        assertEquals(2, frames.size());
+        assertEquals(sensorJson(2), frames.get(1));
+    }
+
+    @Test
+    public void lengthFrameSplitAcrossChunks() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            byte[] packet = LengthFrame.encode(LengthFrame.TYPE_SENSOR, utf8(sensorJson(i)), true);
+            stream.write(packet, 0, packet.length);
+        }
+        byte[] all = stream.toByteArray();
+        for (int i = 0; i < all.length; i += 5) {
+            decoder.feed(all, i, Math.min(5, all.length - i), 0);
+        }
+
+        assertEquals(3, frames.size());
+        assertEquals(sensorJson(2), frames.get(2));
+    }
+}